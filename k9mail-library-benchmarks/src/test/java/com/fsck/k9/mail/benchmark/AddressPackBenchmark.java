@@ -0,0 +1,85 @@
+package com.fsck.k9.mail.benchmark;
+
+
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.Address;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Packing and unpacking of the {@code sender_list}/{@code to_list}/{@code cc_list} columns.
+ * <p>
+ * The recipient lists resemble those of mailing list traffic: a handful of addresses for a typical reply, and long
+ * lists with quoted and non-ASCII display names for announcements sent to many people.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressPackBenchmark {
+    private static final String[] NAMES = {
+            "Alice Example", "M\u00fcller, Hans", "K-9 Mail Developers", "Zo\u00eb O'Brien",
+            "\"The\" Release Team", null, "Jean-Fran\u00e7ois Dupont", "\u674e\u96f7", "Bob", null,
+            "Linux Kernel Mailing List", "\u041e\u043b\u044c\u0433\u0430 \u041f\u0435\u0442\u0440\u043e\u0432\u0430"
+    };
+    private static final String[] DOMAINS = {
+            "example.org", "lists.example.com", "googlegroups.com", "mail.example.net", "vger.kernel.org"
+    };
+
+
+    @Param({ "1", "5", "50" })
+    public int recipientCount;
+
+    private Address[] addresses;
+    private String packed;
+
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < recipientCount; i++) {
+            if (i > 0) {
+                builder.append(",\u0000");
+            }
+
+            builder.append("user").append(i).append('@').append(DOMAINS[i % DOMAINS.length]);
+            String name = NAMES[i % NAMES.length];
+            if (name != null) {
+                builder.append(";\u0000").append(name);
+            }
+        }
+
+        // Address.unpack() doesn't parse, so unlike the public constructors it works without the Android framework.
+        packed = builder.toString();
+        addresses = Address.unpack(packed);
+    }
+
+    @Benchmark
+    public String pack() {
+        return Address.pack(addresses);
+    }
+
+    @Benchmark
+    public Address[] unpack() {
+        return Address.unpack(packed);
+    }
+
+    @Benchmark
+    public Address unpackFirst() {
+        return Address.unpackFirst(packed);
+    }
+}
@@ -0,0 +1,53 @@
+package com.fsck.k9.mail.benchmark;
+
+
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.Address;
+import com.fsck.k9.mail.internet.MimeMessage;
+import com.fsck.k9.mail.internet.MimeUtility;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Parses address headers of the corpus messages and packs the result for storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressParseBenchmark {
+    @Param({ "From", "To", "Cc" })
+    public String headerName;
+
+    private String headerValue;
+
+
+    @Setup
+    public void setUp() throws Exception {
+        MimeMessage message = Corpus.parseMessage(Corpus.loadMessage(Corpus.MAILING_LIST_ANNOUNCEMENT));
+        headerValue = MimeUtility.unfold(message.getHeader(headerName)[0]);
+    }
+
+    @Benchmark
+    public Address[] parse() {
+        return Address.parse(headerValue);
+    }
+
+    @Benchmark
+    public String parseAndPack() {
+        return Address.pack(Address.parse(headerValue));
+    }
+}
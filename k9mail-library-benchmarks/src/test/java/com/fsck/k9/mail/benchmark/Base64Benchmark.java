@@ -0,0 +1,68 @@
+package com.fsck.k9.mail.benchmark;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.filter.Base64;
+import com.fsck.k9.mail.filter.Base64OutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64Benchmark {
+    private static final int WRITE_CHUNK_SIZE = 4096;
+
+
+    @Param({ "1024", "65536" })
+    public int size;
+
+    private byte[] data;
+    private byte[] encoded;
+
+
+    @Setup
+    public void setUp() {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+        encoded = Base64.encodeBase64Chunked(data);
+    }
+
+    @Benchmark
+    public byte[] encodeChunked() {
+        return Base64.encodeBase64Chunked(data);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return Base64.decodeBase64(encoded);
+    }
+
+    @Benchmark
+    public byte[] outputStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length);
+        Base64OutputStream base64OutputStream = new Base64OutputStream(out);
+        for (int offset = 0; offset < data.length; offset += WRITE_CHUNK_SIZE) {
+            base64OutputStream.write(data, offset, Math.min(WRITE_CHUNK_SIZE, data.length - offset));
+        }
+        base64OutputStream.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,62 @@
+package com.fsck.k9.mail.benchmark;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.internet.MimeMessage;
+import org.apache.commons.io.IOUtils;
+
+
+/**
+ * Access to the benchmark inputs in {@code src/test/resources}.
+ * <p>
+ * The messages in {@code corpus/} are modeled on real-world mail with names, addresses and content replaced.
+ * </p>
+ */
+public class Corpus {
+    public static final String FLOWED_QUOTED_PRINTABLE = "flowed-quoted-printable.eml";
+    public static final String ISO_2022_JP = "iso-2022-jp.eml";
+    public static final String MAILING_LIST_ANNOUNCEMENT = "mailing-list-announcement.eml";
+    public static final String MIXED_WITH_ATTACHMENT = "mixed-with-attachment.eml";
+    public static final String MULTIPART_ALTERNATIVE_HTML = "multipart-alternative-html.eml";
+
+    public static final String IMAP_UID_FETCH_HEADERS_RESPONSE = "uid-fetch-headers-response.txt";
+
+
+    private Corpus() {}
+
+    public static byte[] loadMessage(String name) {
+        return load("/corpus/" + name);
+    }
+
+    public static byte[] loadImapResponse(String name) {
+        return load("/imap/" + name);
+    }
+
+    /**
+     * Parses a message keeping all bodies in memory, so benchmarks don't measure or fill up the temp directory.
+     */
+    public static MimeMessage parseMessage(byte[] data) throws IOException, MessagingException {
+        MimeMessage message = new MimeMessage();
+        message.parse(new ByteArrayInputStream(data), new MemoryBodyFactory());
+        return message;
+    }
+
+    private static byte[] load(String resource) {
+        InputStream inputStream = Corpus.class.getResourceAsStream(resource);
+        if (inputStream == null) {
+            throw new IllegalArgumentException("Missing benchmark resource: " + resource);
+        }
+
+        try {
+            return IOUtils.toByteArray(inputStream);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.fsck.k9.mail.benchmark;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.BodyFactory;
+import com.fsck.k9.mail.internet.MimeUtility;
+import com.fsck.k9.mailstore.BinaryMemoryBody;
+import org.apache.commons.io.IOUtils;
+
+
+/**
+ * Like {@link com.fsck.k9.mail.DefaultBodyFactory}, but keeps the raw body data in memory instead of temporary files.
+ */
+class MemoryBodyFactory implements BodyFactory {
+    @Override
+    public Body createBody(String contentTransferEncoding, String contentType, InputStream inputStream)
+            throws IOException {
+
+        if (contentTransferEncoding != null) {
+            contentTransferEncoding = MimeUtility.getHeaderParameter(contentTransferEncoding, null);
+        }
+
+        return new BinaryMemoryBody(IOUtils.toByteArray(inputStream), contentTransferEncoding);
+    }
+}
@@ -0,0 +1,63 @@
+package com.fsck.k9.mail.benchmark;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.internet.MessageExtractor;
+import com.fsck.k9.mail.internet.MimeMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Extracts the text of all text parts of a message, like preview and full-text index creation do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageExtractorBenchmark {
+    @Param({
+            Corpus.FLOWED_QUOTED_PRINTABLE,
+            Corpus.ISO_2022_JP,
+            Corpus.MAILING_LIST_ANNOUNCEMENT,
+            Corpus.MIXED_WITH_ATTACHMENT,
+            Corpus.MULTIPART_ALTERNATIVE_HTML
+    })
+    public String messageName;
+
+    private List<Part> textParts;
+
+
+    @Setup
+    public void setUp() throws Exception {
+        MimeMessage message = Corpus.parseMessage(Corpus.loadMessage(messageName));
+        textParts = new ArrayList<>(MessageExtractor.getTextParts(message));
+    }
+
+    @Benchmark
+    public int getTextFromPart() {
+        int length = 0;
+        for (Part part : textParts) {
+            String text = MessageExtractor.getTextFromPart(part);
+            if (text != null) {
+                length += text.length();
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,50 @@
+package com.fsck.k9.mail.benchmark;
+
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.internet.MimeMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MimeMessageParseBenchmark {
+    @Param({
+            Corpus.FLOWED_QUOTED_PRINTABLE,
+            Corpus.ISO_2022_JP,
+            Corpus.MAILING_LIST_ANNOUNCEMENT,
+            Corpus.MIXED_WITH_ATTACHMENT,
+            Corpus.MULTIPART_ALTERNATIVE_HTML
+    })
+    public String messageName;
+
+    private byte[] data;
+
+
+    @Setup
+    public void setUp() {
+        data = Corpus.loadMessage(messageName);
+    }
+
+    @Benchmark
+    public MimeMessage parse() throws IOException, MessagingException {
+        return Corpus.parseMessage(data);
+    }
+}
@@ -0,0 +1,99 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.benchmark.Corpus;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Decoding of encoded-word headers with {@link DecoderUtil} and of text bodies with {@link CharsetSupport}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodingBenchmark {
+    private static final String[] ENCODED_HEADERS = { "Subject", "From", "To", "Cc" };
+
+
+    @Param({
+            Corpus.FLOWED_QUOTED_PRINTABLE,
+            Corpus.ISO_2022_JP,
+            Corpus.MAILING_LIST_ANNOUNCEMENT,
+            Corpus.MIXED_WITH_ATTACHMENT,
+            Corpus.MULTIPART_ALTERNATIVE_HTML
+    })
+    public String messageName;
+
+    private MimeMessage message;
+    private List<String> headerValues;
+    private List<byte[]> textBodies;
+    private List<String> textCharsets;
+
+
+    @Setup
+    public void setUp() throws Exception {
+        message = Corpus.parseMessage(Corpus.loadMessage(messageName));
+
+        headerValues = new ArrayList<>();
+        for (String headerName : ENCODED_HEADERS) {
+            for (String value : message.getHeader(headerName)) {
+                headerValues.add(MimeUtility.unfold(value));
+            }
+        }
+
+        textBodies = new ArrayList<>();
+        textCharsets = new ArrayList<>();
+        for (Part part : MessageExtractor.getTextParts(message)) {
+            InputStream in = MimeUtility.decodeBody(part.getBody());
+            try {
+                textBodies.add(IOUtils.toByteArray(in));
+            } finally {
+                in.close();
+            }
+
+            String charset = MimeUtility.getHeaderParameter(part.getContentType(), "charset");
+            textCharsets.add(CharsetSupport.fixupCharset(charset, message));
+        }
+    }
+
+    @Benchmark
+    public int decodeEncodedWords() {
+        int length = 0;
+        for (String value : headerValues) {
+            length += DecoderUtil.decodeEncodedWords(value, message).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int readToString() throws IOException {
+        int length = 0;
+        for (int i = 0, count = textBodies.size(); i < count; i++) {
+            InputStream in = new ByteArrayInputStream(textBodies.get(i));
+            length += CharsetSupport.readToString(in, textCharsets.get(i)).length();
+        }
+        return length;
+    }
+}
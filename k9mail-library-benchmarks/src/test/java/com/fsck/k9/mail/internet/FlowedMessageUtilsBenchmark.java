@@ -0,0 +1,45 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Content-Type inspection done for every text part to decide whether it has to be treated as format=flowed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowedMessageUtilsBenchmark {
+    @Param({
+            "text/plain; charset=utf-8; format=flowed; delsp=yes",
+            "text/plain; charset=\"iso-8859-1\"",
+            "text/html; charset=utf-8"
+    })
+    public String contentType;
+
+
+    @Benchmark
+    public boolean isFormatFlowed() {
+        return FlowedMessageUtils.isFormatFlowed(contentType);
+    }
+
+    @Benchmark
+    public boolean isDelSp() {
+        return FlowedMessageUtils.isDelSp(contentType);
+    }
+}
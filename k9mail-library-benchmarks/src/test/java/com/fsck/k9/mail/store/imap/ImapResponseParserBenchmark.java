@@ -0,0 +1,55 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.benchmark.Corpus;
+import com.fsck.k9.mail.filter.PeekableInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Parses the server's answer to a {@code UID FETCH} of flags, body structure and headers for 60 messages, the
+ * bulk of the traffic when synchronizing a folder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImapResponseParserBenchmark {
+    private byte[] response;
+
+
+    @Setup
+    public void setUp() {
+        response = Corpus.loadImapResponse(Corpus.IMAP_UID_FETCH_HEADERS_RESPONSE);
+    }
+
+    @Benchmark
+    public int readResponses() throws IOException {
+        PeekableInputStream inputStream = new PeekableInputStream(new ByteArrayInputStream(response));
+        ImapResponseParser parser = new ImapResponseParser(inputStream);
+
+        int count = 0;
+        ImapResponse imapResponse;
+        do {
+            imapResponse = parser.readResponse();
+            count += imapResponse.size();
+        } while (!imapResponse.isTagged());
+
+        return count;
+    }
+}
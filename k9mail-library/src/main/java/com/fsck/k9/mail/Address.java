@@ -236,29 +236,68 @@ public class Address implements Serializable {
         if (addressList == null) {
             return new Address[] { };
         }
-        List<Address> addresses = new ArrayList<Address>();
+
         int length = addressList.length();
-        int pairStartIndex = 0;
-        int pairEndIndex = 0;
-        int addressEndIndex = 0;
-        while (pairStartIndex < length) {
-            pairEndIndex = addressList.indexOf(",\u0000", pairStartIndex);
-            if (pairEndIndex == -1) {
-                pairEndIndex = length;
-            }
-            addressEndIndex = addressList.indexOf(";\u0000", pairStartIndex);
-            String address = null;
-            String personal = null;
-            if (addressEndIndex == -1 || addressEndIndex > pairEndIndex) {
-                address = addressList.substring(pairStartIndex, pairEndIndex);
-            } else {
-                address = addressList.substring(pairStartIndex, addressEndIndex);
-                personal = addressList.substring(addressEndIndex + 2, pairEndIndex);
+        int count = 0;
+        for (int pairStart = 0; pairStart < length; pairStart = findPairEnd(addressList, pairStart) + 2) {
+            count++;
+        }
+
+        Address[] addresses = new Address[count];
+        int pairStart = 0;
+        for (int i = 0; i < count; i++) {
+            int pairEnd = findPairEnd(addressList, pairStart);
+            addresses[i] = unpackPair(addressList, pairStart, pairEnd);
+            pairStart = pairEnd + 2;
+        }
+        return addresses;
+    }
+
+    /**
+     * Unpacks only the first address of a list previously packed with {@link #pack(Address[])}.
+     * <p>
+     * Use this when only the first address is displayed, e.g. the sender in the message list.
+     * </p>
+     *
+     * @param addressList Packed address list.
+     * @return The first address, or {@code null} if the list is {@code null} or empty.
+     */
+    public static Address unpackFirst(String addressList) {
+        if (addressList == null || addressList.isEmpty()) {
+            return null;
+        }
+
+        return unpackPair(addressList, 0, findPairEnd(addressList, 0));
+    }
+
+    private static Address unpackPair(String addressList, int pairStart, int pairEnd) {
+        int addressEnd = indexOfDelimiter(addressList, ';', pairStart, pairEnd);
+        if (addressEnd == -1) {
+            return new Address(addressList.substring(pairStart, pairEnd), null, false);
+        }
+
+        String address = addressList.substring(pairStart, addressEnd);
+        String personal = addressList.substring(addressEnd + 2, pairEnd);
+        return new Address(address, personal, false);
+    }
+
+    private static int findPairEnd(String addressList, int pairStart) {
+        int length = addressList.length();
+        int pairEnd = indexOfDelimiter(addressList, ',', pairStart, length);
+        return (pairEnd == -1) ? length : pairEnd;
+    }
+
+    /**
+     * Finds the next two-character delimiter consisting of {@code delimiter} followed by {@code '\u0000'} in the
+     * range {@code [start, end)}.
+     */
+    private static int indexOfDelimiter(String addressList, char delimiter, int start, int end) {
+        for (int i = start; i < end - 1; i++) {
+            if (addressList.charAt(i) == delimiter && addressList.charAt(i + 1) == '\u0000') {
+                return i;
             }
-            addresses.add(new Address(address, personal, false));
-            pairStartIndex = pairEndIndex + 2;
         }
-        return addresses.toArray(new Address[addresses.size()]);
+        return -1;
     }
 
     /**
@@ -273,15 +312,21 @@ public class Address implements Serializable {
         if (addresses == null) {
             return null;
         }
-        StringBuilder sb = new StringBuilder();
+
+        int capacity = 0;
+        for (Address address : addresses) {
+            capacity += packedLength(address) + 2;
+        }
+
+        StringBuilder sb = new StringBuilder(capacity);
         for (int i = 0, count = addresses.length; i < count; i++) {
             Address address = addresses[i];
             sb.append(address.getAddress());
+            // Personal names are stored as they are. unpack() doesn't unescape anything, and the quote "escaping"
+            // that used to be done here replaced '"' with '"'.
             String personal = address.getPersonal();
             if (personal != null) {
                 sb.append(";\u0000");
-                // Escape quotes in the address part on the way in
-                personal = personal.replaceAll("\"", "\\\"");
                 sb.append(personal);
             }
             if (i < count - 1) {
@@ -291,6 +336,16 @@ public class Address implements Serializable {
         return sb.toString();
     }
 
+    private static int packedLength(Address address) {
+        String emailAddress = address.getAddress();
+        String personal = address.getPersonal();
+        int length = (emailAddress != null) ? emailAddress.length() : 4;
+        if (personal != null) {
+            length += personal.length() + 2;
+        }
+        return length;
+    }
+
     /**
      * Quote a string, if necessary, based upon the definition of an "atom," as defined by RFC2822
      * (http://tools.ietf.org/html/rfc2822#section-3.2.4). Strings that consist purely of atoms are
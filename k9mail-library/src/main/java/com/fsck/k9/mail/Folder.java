@@ -17,6 +17,12 @@ public abstract class Folder<T extends Message> {
     public static final int OPEN_MODE_RW=0;
     public static final int OPEN_MODE_RO=1;
 
+    /**
+     * Value returned by {@link #getHighestModSeq()} when no mod-sequence value (RFC 7162) is known for a folder.
+     * Valid mod-sequence values are always positive.
+     */
+    public static final long UNKNOWN_MOD_SEQ = -1L;
+
     // NONE is obsolete, it will be translated to NO_CLASS for display and to INHERITED for sync and push
     public enum FolderClass {
         NONE, NO_CLASS, INHERITED, FIRST_CLASS, SECOND_CLASS
@@ -130,6 +136,18 @@ public abstract class Folder<T extends Message> {
     public abstract void fetch(List<T> messages, FetchProfile fp,
                                MessageRetrievalListener<T> listener) throws MessagingException;
 
+    /**
+     * Like {@link #fetch(List, FetchProfile, MessageRetrievalListener)}, but lets the caller decide where the bodies
+     * of downloaded messages are buffered while they are streamed from the server.
+     * <p>
+     * Stores that don't support this ignore the {@link BodyFactory}.
+     * </p>
+     */
+    public void fetch(List<T> messages, FetchProfile fp, MessageRetrievalListener<T> listener,
+            BodyFactory bodyFactory) throws MessagingException {
+        fetch(messages, fp, listener);
+    }
+
     public void fetchPart(Message message, Part part, MessageRetrievalListener<Message> listener,
             BodyFactory bodyFactory) throws MessagingException {
         // This is causing trouble. Disabled for now. See issue 1733
@@ -153,6 +171,27 @@ public abstract class Folder<T extends Message> {
         return null;
     }
 
+    /**
+     * Returns the highest mod-sequence value (RFC 7162) the server reported when the folder was opened.
+     *
+     * @return the highest mod-sequence value or {@link #UNKNOWN_MOD_SEQ} if the server doesn't support CONDSTORE
+     *         for this folder.
+     */
+    public long getHighestModSeq() {
+        return UNKNOWN_MOD_SEQ;
+    }
+
+    /**
+     * Fetches the flags of those messages whose mod-sequence value is greater than {@code modSeq}.
+     *
+     * <p>Only call this if {@link #getHighestModSeq()} didn't return {@link #UNKNOWN_MOD_SEQ}.</p>
+     *
+     * @return the subset of {@code messages} that were updated with the current flags from the server.
+     */
+    public List<T> fetchChangedFlags(List<T> messages, long modSeq) throws MessagingException {
+        throw new MessagingException("K-9 does not support fetching changed flags on this folder type");
+    }
+
     public boolean isFlagSupported(Flag flag) {
         return true;
     }
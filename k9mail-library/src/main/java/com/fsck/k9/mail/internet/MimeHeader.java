@@ -18,29 +18,72 @@ public class MimeHeader implements Cloneable {
     public static final String HEADER_CONTENT_DISPOSITION = "Content-Disposition";
     public static final String HEADER_CONTENT_ID = "Content-ID";
 
+    /**
+     * Lookup keys of frequently accessed headers, keyed by their usual spelling. Parsed messages mostly use these
+     * spellings, so looking them up here avoids lowercasing the name of every field and query.
+     */
+    private static final Map<String, String> COMMON_KEYS = new HashMap<String, String>();
+
+    static {
+        String[] commonNames = {
+                SUBJECT, HEADER_CONTENT_TYPE, HEADER_CONTENT_TRANSFER_ENCODING, HEADER_CONTENT_DISPOSITION,
+                HEADER_CONTENT_ID, "Date", "From", "To", "Cc", "Bcc", "Reply-To", "Sender", "Message-ID",
+                "In-Reply-To", "References", "MIME-Version", "Received", "Return-Path", "List-Post",
+                "List-Unsubscribe", "Delivered-To", "X-Original-To", "Disposition-Notification-To",
+                "Content-Description", "Content-Location", "X-K9mail-Identity"
+        };
+        for (String name : commonNames) {
+            String key = name.toLowerCase(Locale.US).intern();
+            COMMON_KEYS.put(name, key);
+            COMMON_KEYS.put(key, key);
+        }
+    }
+
     private List<Field> mFields = new ArrayList<Field>();
+    private Map<String, List<Field>> mFieldsByKey = new HashMap<String, List<Field>>();
     private String mCharset = null;
 
     public void clear() {
         mFields.clear();
+        mFieldsByKey.clear();
     }
 
     public String getFirstHeader(String name) {
-        String[] header = getHeader(name);
-        if (header.length == 0) {
+        List<Field> fields = mFieldsByKey.get(toKey(name));
+        if (fields == null) {
             return null;
         }
-        return header[0];
+        return fields.get(0).getValue();
     }
 
     public void addHeader(String name, String value) {
         Field field = Field.newNameValueField(name, MimeUtility.foldAndEncode(value));
-        mFields.add(field);
+        addField(field);
     }
 
     void addRawHeader(String name, String raw) {
         Field field = Field.newRawField(name, raw);
+        addField(field);
+    }
+
+    private void addField(Field field) {
         mFields.add(field);
+
+        List<Field> fields = mFieldsByKey.get(field.getKey());
+        if (fields == null) {
+            fields = new ArrayList<Field>(1);
+            mFieldsByKey.put(field.getKey(), fields);
+        }
+        fields.add(field);
+    }
+
+    private static String toKey(String name) {
+        if (name == null) {
+            return null;
+        }
+
+        String key = COMMON_KEYS.get(name);
+        return key != null ? key : name.toLowerCase(Locale.US);
     }
 
     public void setHeader(String name, String value) {
@@ -62,23 +105,34 @@ public class MimeHeader implements Cloneable {
 
     @NonNull
     public String[] getHeader(String name) {
-        List<String> values = new ArrayList<String>();
-        for (Field field : mFields) {
-            if (field.getName().equalsIgnoreCase(name)) {
-                values.add(field.getValue());
-            }
+        List<Field> fields = mFieldsByKey.get(toKey(name));
+        if (fields == null) {
+            return new String[0];
         }
-        return values.toArray(new String[values.size()]);
+
+        String[] values = new String[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = fields.get(i).getValue();
+        }
+        return values;
     }
 
     public void removeHeader(String name) {
-        List<Field> removeFields = new ArrayList<Field>();
-        for (Field field : mFields) {
-            if (field.getName().equalsIgnoreCase(name)) {
-                removeFields.add(field);
+        if (name == null) {
+            return;
+        }
+
+        List<Field> removeFields = mFieldsByKey.remove(toKey(name));
+        if (removeFields == null) {
+            return;
+        }
+
+        Iterator<Field> iterator = mFields.iterator();
+        while (iterator.hasNext()) {
+            if (removeFields.contains(iterator.next())) {
+                iterator.remove();
             }
         }
-        mFields.removeAll(removeFields);
     }
 
     public String toString() {
@@ -156,8 +210,10 @@ public class MimeHeader implements Cloneable {
 
     private static class Field {
         private final String name;
+        private final String key;
         private final String value;
         private final String raw;
+        private volatile String rawValue;
 
         public static Field newNameValueField(String name, String value) {
             if (value == null) {
@@ -181,6 +237,7 @@ public class MimeHeader implements Cloneable {
             }
 
             this.name = name;
+            this.key = toKey(name);
             this.value = value;
             this.raw = raw;
         }
@@ -189,11 +246,25 @@ public class MimeHeader implements Cloneable {
             return name;
         }
 
+        public String getKey() {
+            return key;
+        }
+
         public String getValue() {
             if (value != null) {
                 return value;
             }
 
+            // Raw fields never change, so the extracted value can be cached. Clones share Field instances.
+            String result = rawValue;
+            if (result == null) {
+                result = extractRawValue();
+                rawValue = result;
+            }
+            return result;
+        }
+
+        private String extractRawValue() {
             int delimiterIndex = raw.indexOf(':');
             if (delimiterIndex == raw.length() - 1) {
                 return "";
@@ -225,6 +296,10 @@ public class MimeHeader implements Cloneable {
         try {
             MimeHeader header = (MimeHeader) super.clone();
             header.mFields = new ArrayList<Field>(mFields);
+            header.mFieldsByKey = new HashMap<String, List<Field>>(mFieldsByKey.size());
+            for (Map.Entry<String, List<Field>> entry : mFieldsByKey.entrySet()) {
+                header.mFieldsByKey.put(entry.getKey(), new ArrayList<Field>(entry.getValue()));
+            }
             return header;
         } catch(CloneNotSupportedException e) {
             throw new AssertionError(e);
@@ -80,10 +80,23 @@ public class MimeMessage extends Message {
      * Does not recurse through nested bodyparts.
      */
     public final void parse(InputStream in) throws IOException, MessagingException {
-        parse(in, false);
+        parse(in, false, new DefaultBodyFactory());
+    }
+
+    /**
+     * Parse the given InputStream using Apache Mime4J to build a MimeMessage. The bodies of the (non-nested) parts
+     * are created by the given {@link BodyFactory} while the data is streamed from {@code in}.
+     */
+    public final void parse(InputStream in, BodyFactory bodyFactory) throws IOException, MessagingException {
+        parse(in, false, bodyFactory);
     }
 
     private void parse(InputStream in, boolean recurse) throws IOException, MessagingException {
+        parse(in, recurse, new DefaultBodyFactory());
+    }
+
+    private void parse(InputStream in, boolean recurse, BodyFactory bodyFactory)
+            throws IOException, MessagingException {
         mHeader.clear();
         mFrom = null;
         mTo = null;
@@ -112,7 +125,7 @@ public class MimeMessage extends Message {
                 .build();
 
         MimeStreamParser parser = new MimeStreamParser(parserConfig);
-        parser.setContentHandler(new MimeMessageBuilder(new DefaultBodyFactory()));
+        parser.setContentHandler(new MimeMessageBuilder(bodyFactory));
         if (recurse) {
             parser.setRecurse();
         }
@@ -5,9 +5,12 @@ import java.io.IOException;
 import java.net.Socket;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import android.content.Context;
 import android.net.SSLCertificateSocketFactory;
@@ -93,6 +96,14 @@ public class DefaultTrustedSocketFactory implements TrustedSocketFactory {
             "SSLv3"
     };
 
+    private static final int SESSION_TIMEOUT_SECONDS = 60 * 60;
+
+    /**
+     * One {@link SSLContext} per server and client certificate alias. Reusing the context keeps its client session
+     * cache around, so reconnects can resume the previous TLS session instead of doing a full handshake.
+     */
+    private static final ConcurrentMap<String, CachedSslContext> sslContexts = new ConcurrentHashMap<>();
+
     static {
         String[] enabledCiphers = null;
         String[] supportedProtocols = null;
@@ -181,14 +192,7 @@ public class DefaultTrustedSocketFactory implements TrustedSocketFactory {
     public Socket createSocket(Socket socket, String host, int port, String clientCertificateAlias)
             throws NoSuchAlgorithmException, KeyManagementException, MessagingException, IOException {
 
-        TrustManager[] trustManagers = new TrustManager[] { TrustManagerFactory.get(host, port) };
-        KeyManager[] keyManagers = null;
-        if (!TextUtils.isEmpty(clientCertificateAlias)) {
-            keyManagers = new KeyManager[] { new KeyChainKeyManager(context, clientCertificateAlias) };
-        }
-
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(keyManagers, trustManagers, null);
+        SSLContext sslContext = getSslContext(host, port, clientCertificateAlias);
         SSLSocketFactory socketFactory = sslContext.getSocketFactory();
         Socket trustedSocket;
         if (socket == null) {
@@ -206,6 +210,44 @@ public class DefaultTrustedSocketFactory implements TrustedSocketFactory {
         return trustedSocket;
     }
 
+    @Override
+    public void invalidateTlsSessions(String host, int port, String clientCertificateAlias) {
+        sslContexts.remove(createCacheKey(host, port, clientCertificateAlias));
+    }
+
+    private SSLContext getSslContext(String host, int port, String clientCertificateAlias)
+            throws NoSuchAlgorithmException, KeyManagementException, MessagingException {
+
+        // The client certificate is retrieved for every connection, so a certificate that was deleted, expired or
+        // replaced under the same alias is noticed instead of being hidden by the cached context.
+        KeyChainKeyManager keyManager = null;
+        X509Certificate clientCertificate = null;
+        if (!TextUtils.isEmpty(clientCertificateAlias)) {
+            keyManager = new KeyChainKeyManager(context, clientCertificateAlias);
+            clientCertificate = keyManager.getCertificateChain(clientCertificateAlias)[0];
+        }
+
+        String key = createCacheKey(host, port, clientCertificateAlias);
+        CachedSslContext cachedContext = sslContexts.get(key);
+        if (cachedContext != null && cachedContext.usesClientCertificate(clientCertificate)) {
+            return cachedContext.sslContext;
+        }
+
+        TrustManager[] trustManagers = new TrustManager[] { TrustManagerFactory.get(host, port) };
+        KeyManager[] keyManagers = (keyManager != null) ? new KeyManager[] { keyManager } : null;
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers, trustManagers, null);
+        sslContext.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+
+        sslContexts.put(key, new CachedSslContext(sslContext, clientCertificate));
+        return sslContext;
+    }
+
+    private static String createCacheKey(String host, int port, String clientCertificateAlias) {
+        return host + ":" + port + ":" + (clientCertificateAlias != null ? clientCertificateAlias : "");
+    }
+
     private static void hardenSocket(SSLSocket sock) {
         if (ENABLED_CIPHERS != null) {
             sock.setEnabledCipherSuites(ENABLED_CIPHERS);
@@ -232,4 +274,19 @@ public class DefaultTrustedSocketFactory implements TrustedSocketFactory {
             Timber.e(e, "Could not call SSLSocket#setHostname(String) method ");
         }
     }
+
+
+    private static class CachedSslContext {
+        final SSLContext sslContext;
+        final X509Certificate clientCertificate;
+
+        CachedSslContext(SSLContext sslContext, X509Certificate clientCertificate) {
+            this.sslContext = sslContext;
+            this.clientCertificate = clientCertificate;
+        }
+
+        boolean usesClientCertificate(X509Certificate certificate) {
+            return clientCertificate == null ? certificate == null : clientCertificate.equals(certificate);
+        }
+    }
 }
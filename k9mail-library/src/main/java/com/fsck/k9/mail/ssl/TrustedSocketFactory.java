@@ -10,4 +10,9 @@ import java.security.NoSuchAlgorithmException;
 public interface TrustedSocketFactory {
     Socket createSocket(Socket socket, String host, int port, String clientCertificateAlias)
             throws NoSuchAlgorithmException, KeyManagementException, MessagingException, IOException;
+
+    /**
+     * Discards cached TLS state for the given server, so the next connection performs a full handshake.
+     */
+    void invalidateTlsSessions(String host, int port, String clientCertificateAlias);
 }
@@ -33,5 +33,9 @@ public interface StoreConfig {
 
     int getIdleRefreshMinutes();
 
+    int getMaximumPooledConnections();
+
+    int getPop3FetchPipelineDepth();
+
     boolean shouldHideHostname();
 }
@@ -0,0 +1,60 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import com.fsck.k9.mail.NetworkType;
+import com.jcraft.jzlib.JZlib;
+
+
+/**
+ * Deflate level and stream buffer sizes used after {@code COMPRESS DEFLATE} has been negotiated.
+ * <p>
+ * The level only affects what we send, i.e. commands and {@code APPEND} uploads. It is raised on mobile networks
+ * where bandwidth is more expensive than CPU time. The buffer sizes affect both directions and are larger on
+ * networks where we expect to download a lot of data quickly.
+ * </p>
+ */
+class CompressionParameters {
+    private static final CompressionParameters MOBILE =
+            new CompressionParameters(JZlib.Z_DEFAULT_COMPRESSION, 4096, 1024);
+    private static final CompressionParameters WIFI = new CompressionParameters(JZlib.Z_BEST_SPEED, 16384, 4096);
+    private static final CompressionParameters OTHER = new CompressionParameters(JZlib.Z_BEST_SPEED, 8192, 1024);
+
+
+    private final int level;
+    private final int inputBufferSize;
+    private final int outputBufferSize;
+
+
+    static CompressionParameters forNetworkType(NetworkType networkType) {
+        if (networkType == null) {
+            return OTHER;
+        }
+
+        switch (networkType) {
+            case MOBILE:
+                return MOBILE;
+            case WIFI:
+                return WIFI;
+            default:
+                return OTHER;
+        }
+    }
+
+    CompressionParameters(int level, int inputBufferSize, int outputBufferSize) {
+        this.level = level;
+        this.inputBufferSize = inputBufferSize;
+        this.outputBufferSize = outputBufferSize;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    int getInputBufferSize() {
+        return inputBufferSize;
+    }
+
+    int getOutputBufferSize() {
+        return outputBufferSize;
+    }
+}
@@ -0,0 +1,65 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.Locale;
+
+
+/**
+ * Snapshot of the byte counters of a compressed {@link ImapConnection}.
+ */
+public class CompressionStatistics {
+    private final long compressedBytesRead;
+    private final long uncompressedBytesRead;
+    private final long compressedBytesWritten;
+    private final long uncompressedBytesWritten;
+
+
+    CompressionStatistics(long compressedBytesRead, long uncompressedBytesRead, long compressedBytesWritten,
+            long uncompressedBytesWritten) {
+        this.compressedBytesRead = compressedBytesRead;
+        this.uncompressedBytesRead = uncompressedBytesRead;
+        this.compressedBytesWritten = compressedBytesWritten;
+        this.uncompressedBytesWritten = uncompressedBytesWritten;
+    }
+
+    public long getCompressedBytesRead() {
+        return compressedBytesRead;
+    }
+
+    public long getUncompressedBytesRead() {
+        return uncompressedBytesRead;
+    }
+
+    public long getCompressedBytesWritten() {
+        return compressedBytesWritten;
+    }
+
+    public long getUncompressedBytesWritten() {
+        return uncompressedBytesWritten;
+    }
+
+    /**
+     * Returns how many bytes of server output each received byte expanded to, or 1 if nothing was received yet.
+     */
+    public double getReadRatio() {
+        return ratio(uncompressedBytesRead, compressedBytesRead);
+    }
+
+    /**
+     * Returns how many bytes of client output each sent byte represents, or 1 if nothing was sent yet.
+     */
+    public double getWriteRatio() {
+        return ratio(uncompressedBytesWritten, compressedBytesWritten);
+    }
+
+    private static double ratio(long uncompressed, long compressed) {
+        return compressed == 0 ? 1.0 : (double) uncompressed / compressed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "read %d/%d bytes (%.2fx), wrote %d/%d bytes (%.2fx)",
+                compressedBytesRead, uncompressedBytesRead, getReadRatio(),
+                compressedBytesWritten, uncompressedBytesWritten, getWriteRatio());
+    }
+}
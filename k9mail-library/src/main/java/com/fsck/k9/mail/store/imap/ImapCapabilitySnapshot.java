@@ -0,0 +1,33 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+
+/**
+ * Capabilities observed during the last successful {@link ImapConnection#open()}.
+ * <p>
+ * Reconnects use this to skip {@code CAPABILITY} round-trips the server has already answered. The snapshot is
+ * discarded as soon as a connection relying on it fails, so the next attempt performs the full handshake again.
+ * </p>
+ */
+class ImapCapabilitySnapshot {
+    private final Set<String> preAuthCapabilities;
+    private final Set<String> postAuthCapabilities;
+
+
+    ImapCapabilitySnapshot(Set<String> preAuthCapabilities, Set<String> postAuthCapabilities) {
+        this.preAuthCapabilities = Collections.unmodifiableSet(new HashSet<>(preAuthCapabilities));
+        this.postAuthCapabilities = Collections.unmodifiableSet(new HashSet<>(postAuthCapabilities));
+    }
+
+    Set<String> getPreAuthCapabilities() {
+        return preAuthCapabilities;
+    }
+
+    Set<String> getPostAuthCapabilities() {
+        return postAuthCapabilities;
+    }
+}
@@ -2,6 +2,7 @@ package com.fsck.k9.mail.store.imap;
 
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
@@ -11,57 +12,72 @@ import com.fsck.k9.mail.store.imap.IdGrouper.GroupedIds;
 
 
 class ImapCommandSplitter {
+    /**
+     * Creates the commands necessary to operate on all of the given IDs.
+     * <p>
+     * The IDs are written as a sequence set in ascending order, e.g. {@code 1:500,502,600:900}. Each command contains
+     * as many elements of the sequence set as fit into {@code lengthLimit}.
+     * </p>
+     */
     static List<String> splitCommand(String prefix, String suffix, GroupedIds groupedIds, int lengthLimit) {
         List<String> commands = new ArrayList<>();
-        Set<Long> workingIdSet = new TreeSet<>(groupedIds.ids);
-        List<ContiguousIdGroup> workingIdGroups = new ArrayList<>(groupedIds.idGroups);
 
         int suffixLength = suffix.length();
         int staticCommandLength = prefix.length() + suffixLength + 2;
-        while (!workingIdSet.isEmpty() || !workingIdGroups.isEmpty()) {
-            StringBuilder commandBuilder = new StringBuilder(prefix).append(' ');
-            int length = staticCommandLength;
-            while (length < lengthLimit) {
-                if (!workingIdSet.isEmpty()) {
-                    Long id = workingIdSet.iterator().next();
-                    String idString = Long.toString(id);
-
-                    length += idString.length() + 1;
-                    if (length >= lengthLimit) {
-                        break;
-                    }
-
-                    commandBuilder.append(idString).append(',');
-                    workingIdSet.remove(id);
-                } else if (!workingIdGroups.isEmpty()) {
-                    ContiguousIdGroup idGroup = workingIdGroups.iterator().next();
-                    String idGroupString = idGroup.toString();
-
-                    length += idGroupString.length() + 1;
-                    if (length >= lengthLimit) {
-                        break;
-                    }
-
-                    commandBuilder.append(idGroupString).append(',');
-                    workingIdGroups.remove(idGroup);
-                } else {
-                    break;
-                }
+
+        StringBuilder commandBuilder = null;
+        int length = 0;
+        for (String element : createSortedSequenceSetElements(groupedIds)) {
+            int elementLength = element.length() + 1;
+            if (commandBuilder != null && length + elementLength >= lengthLimit) {
+                commands.add(finishCommand(commandBuilder, suffix));
+                commandBuilder = null;
             }
 
-            if (suffixLength != 0) {
-                // Replace the last comma with a space
-                commandBuilder.setCharAt(commandBuilder.length() - 1, ' ');
-                commandBuilder.append(suffix);
+            if (commandBuilder == null) {
+                commandBuilder = new StringBuilder(lengthLimit).append(prefix).append(' ');
+                length = staticCommandLength;
             } else {
-                // Remove last comma
-                commandBuilder.setLength(commandBuilder.length() - 1);
+                commandBuilder.append(',');
             }
 
-            String command = commandBuilder.toString();
-            commands.add(command);
+            commandBuilder.append(element);
+            length += elementLength;
+        }
+
+        if (commandBuilder != null) {
+            commands.add(finishCommand(commandBuilder, suffix));
         }
 
         return commands;
     }
+
+    private static List<String> createSortedSequenceSetElements(GroupedIds groupedIds) {
+        Set<Long> ids = new TreeSet<>(groupedIds.ids);
+        List<String> elements = new ArrayList<>(ids.size() + groupedIds.idGroups.size());
+
+        Iterator<Long> idIterator = ids.iterator();
+        Iterator<ContiguousIdGroup> idGroupIterator = groupedIds.idGroups.iterator();
+        Long id = idIterator.hasNext() ? idIterator.next() : null;
+        ContiguousIdGroup idGroup = idGroupIterator.hasNext() ? idGroupIterator.next() : null;
+        while (id != null || idGroup != null) {
+            if (idGroup == null || (id != null && id < idGroup.start)) {
+                elements.add(Long.toString(id));
+                id = idIterator.hasNext() ? idIterator.next() : null;
+            } else {
+                elements.add(idGroup.toString());
+                idGroup = idGroupIterator.hasNext() ? idGroupIterator.next() : null;
+            }
+        }
+
+        return elements;
+    }
+
+    private static String finishCommand(StringBuilder commandBuilder, String suffix) {
+        if (!suffix.isEmpty()) {
+            commandBuilder.append(' ').append(suffix);
+        }
+
+        return commandBuilder.toString();
+    }
 }
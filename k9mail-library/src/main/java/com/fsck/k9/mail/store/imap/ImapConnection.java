@@ -87,11 +87,15 @@ class ImapConnection {
     private ImapResponseParser responseParser;
     private int nextCommandTag;
     private Set<String> capabilities = new HashSet<String>();
+    private ImapCapabilitySnapshot capabilitySnapshot;
+    private boolean capabilitiesFromSnapshot = false;
     private ImapSettings settings;
     private Exception stacktraceForClose;
     private boolean open = false;
     private boolean retryXoauth2WithNewToken = true;
     private int lineLengthLimit;
+    private Inflater inflater;
+    private ZOutputStream deflaterOutputStream;
 
 
     public ImapConnection(ImapSettings settings, TrustedSocketFactory socketFactory,
@@ -125,7 +129,9 @@ class ImapConnection {
 
         open = true;
         boolean authSuccess = false;
+        boolean openSuccess = false;
         nextCommandTag = 1;
+        capabilitySnapshot = settings.getCapabilitySnapshot();
 
         adjustDNSCacheTTL();
 
@@ -139,6 +145,8 @@ class ImapConnection {
 
             upgradeToTlsIfNecessary();
 
+            Set<String> preAuthCapabilities = capabilities;
+
             List<ImapResponse> responses = authenticate();
             authSuccess = true;
 
@@ -149,13 +157,21 @@ class ImapConnection {
             retrievePathPrefixIfNecessary();
             retrievePathDelimiterIfNecessary();
 
+            settings.setCapabilitySnapshot(new ImapCapabilitySnapshot(preAuthCapabilities, capabilities));
+            openSuccess = true;
         } catch (SSLException e) {
+            socketFactory.invalidateTlsSessions(settings.getHost(), settings.getPort(),
+                    settings.getClientCertificateAlias());
             handleSslException(e);
         } catch (ConnectException e) {
             handleConnectException(e);
         } catch (GeneralSecurityException e) {
             throw new MessagingException("Unable to open connection to IMAP server due to security error.", e);
         } finally {
+            if (!openSuccess) {
+                invalidateCapabilitySnapshot();
+            }
+
             if (!authSuccess) {
                 Timber.e("Failed to login, closing connection for %s", getLogId());
                 close();
@@ -252,9 +268,13 @@ class ImapConnection {
     }
 
     private void setUpStreamsAndParser(InputStream input, OutputStream output) {
+        setUpStreamsAndParser(input, output, BUFFER_SIZE);
+    }
+
+    private void setUpStreamsAndParser(InputStream input, OutputStream output, int outputBufferSize) {
         inputStream = new PeekableInputStream(new BufferedInputStream(input, BUFFER_SIZE));
         responseParser = new ImapResponseParser(inputStream);
-        outputStream = new BufferedOutputStream(output, BUFFER_SIZE);
+        outputStream = new BufferedOutputStream(output, outputBufferSize);
     }
 
     private void readInitialResponse() throws IOException {
@@ -284,6 +304,9 @@ class ImapConnection {
             Set<String> receivedCapabilities = capabilityResponse.getCapabilities();
             Timber.d("Saving %s capabilities for %s", receivedCapabilities, getLogId());
             capabilities = receivedCapabilities;
+        } else if (capabilitySnapshot != null) {
+            Timber.d("Did not get capabilities in post-auth banner, using cached capabilities for %s", getLogId());
+            useSnapshotCapabilities(capabilitySnapshot.getPostAuthCapabilities());
         } else {
             Timber.i("Did not get capabilities in post-auth banner, requesting CAPABILITY for %s", getLogId());
             requestCapabilities();
@@ -296,12 +319,32 @@ class ImapConnection {
         if (!capabilities.isEmpty()) {
             return;
         }
+        if (capabilitySnapshot != null) {
+            if (K9MailLib.isDebug()) {
+                Timber.d("Did not get capabilities in banner, using cached capabilities for %s", getLogId());
+            }
+            useSnapshotCapabilities(capabilitySnapshot.getPreAuthCapabilities());
+            return;
+        }
         if (K9MailLib.isDebug()) {
             Timber.i("Did not get capabilities in banner, requesting CAPABILITY for %s", getLogId());
         }
         requestCapabilities();
     }
 
+    private void useSnapshotCapabilities(Set<String> snapshotCapabilities) {
+        capabilities = snapshotCapabilities;
+        capabilitiesFromSnapshot = true;
+    }
+
+    private void invalidateCapabilitySnapshot() {
+        if (capabilitySnapshot != null) {
+            Timber.d("Discarding cached capabilities for %s", getLogId());
+            settings.setCapabilitySnapshot(null);
+            capabilitySnapshot = null;
+        }
+    }
+
     private void requestCapabilities() throws IOException, MessagingException {
         List<ImapResponse> responses = extractCapabilities(executeSimpleCommand(Commands.CAPABILITY));
         if (responses.size() != 2) {
@@ -316,7 +359,9 @@ class ImapConnection {
     }
 
     private void upgradeToTls() throws IOException, MessagingException, GeneralSecurityException {
-        if (!hasCapability(Capabilities.STARTTLS)) {
+        // Cached capabilities were recorded after the TLS upgrade and won't advertise STARTTLS. If the server no
+        // longer supports it the command fails, and the next connection goes through the full handshake.
+        if (!capabilitiesFromSnapshot && !hasCapability(Capabilities.STARTTLS)) {
             /*
              * This exception triggers a "Certificate error"
              * notification that takes the user to the incoming
@@ -341,7 +386,16 @@ class ImapConnection {
         configureSocket();
         setUpStreamsAndParserFromSocket();
 
-        // Per RFC 2595 (3.1):  Once TLS has been started, reissue CAPABILITY command
+        // Per RFC 2595 (3.1):  Once TLS has been started, reissue CAPABILITY command. Capabilities cached from a
+        // previous TLS session with this server are an acceptable substitute.
+        if (capabilitySnapshot != null) {
+            if (K9MailLib.isDebug()) {
+                Timber.i("Using cached capabilities after STARTTLS for %s", getLogId());
+            }
+            useSnapshotCapabilities(capabilitySnapshot.getPreAuthCapabilities());
+            return;
+        }
+
         if (K9MailLib.isDebug()) {
             Timber.i("Updating capabilities after STARTTLS for %s", getLogId());
         }
@@ -566,22 +620,33 @@ class ImapConnection {
     }
 
     private void enableCompressionIfRequested() throws IOException, MessagingException {
-        if (hasCapability(Capabilities.COMPRESS_DEFLATE) && shouldEnableCompression()) {
-            enableCompression();
+        if (!hasCapability(Capabilities.COMPRESS_DEFLATE)) {
+            return;
         }
-    }
 
-    private boolean shouldEnableCompression() {
-        boolean useCompression = true;
+        NetworkType networkType = getActiveNetworkType();
+        if (shouldEnableCompression(networkType)) {
+            enableCompression(CompressionParameters.forNetworkType(networkType));
+        }
+    }
 
+    private NetworkType getActiveNetworkType() {
         NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
-        if (networkInfo != null) {
-            int type = networkInfo.getType();
-            if (K9MailLib.isDebug()) {
-                Timber.d("On network type %s", type);
-            }
+        if (networkInfo == null) {
+            return null;
+        }
+
+        int type = networkInfo.getType();
+        if (K9MailLib.isDebug()) {
+            Timber.d("On network type %s", type);
+        }
 
-            NetworkType networkType = NetworkType.fromConnectivityManagerType(type);
+        return NetworkType.fromConnectivityManagerType(type);
+    }
+
+    private boolean shouldEnableCompression(NetworkType networkType) {
+        boolean useCompression = true;
+        if (networkType != null) {
             useCompression = settings.useCompression(networkType);
         }
 
@@ -592,7 +657,7 @@ class ImapConnection {
         return useCompression;
     }
 
-    private void enableCompression() throws IOException, MessagingException {
+    private void enableCompression(CompressionParameters parameters) throws IOException, MessagingException {
         try {
             executeSimpleCommand(Commands.COMPRESS_DEFLATE);
         } catch (NegativeImapResponseException e) {
@@ -601,14 +666,18 @@ class ImapConnection {
         }
 
         try {
-            InflaterInputStream input = new InflaterInputStream(socket.getInputStream(), new Inflater(true));
-            ZOutputStream output = new ZOutputStream(socket.getOutputStream(), JZlib.Z_BEST_SPEED, true);
+            Inflater inflater = new Inflater(true);
+            InflaterInputStream input = new InflaterInputStream(socket.getInputStream(), inflater,
+                    parameters.getInputBufferSize());
+            ZOutputStream output = new ZOutputStream(socket.getOutputStream(), parameters.getLevel(), true);
             output.setFlushMode(JZlib.Z_PARTIAL_FLUSH);
 
-            setUpStreamsAndParser(input, output);
+            setUpStreamsAndParser(input, output, parameters.getOutputBufferSize());
+            this.inflater = inflater;
+            deflaterOutputStream = output;
 
             if (K9MailLib.isDebug()) {
-                Timber.i("Compression enabled for %s", getLogId());
+                Timber.i("Compression enabled for %s (level %d)", getLogId(), parameters.getLevel());
             }
         } catch (IOException e) {
             close();
@@ -714,6 +783,19 @@ class ImapConnection {
         return capabilities.contains(Capabilities.UID_PLUS);
     }
 
+    /**
+     * Returns the byte counters of the compressed streams, or {@code null} if compression isn't enabled for this
+     * connection.
+     */
+    public CompressionStatistics getCompressionStatistics() {
+        if (inflater == null || deflaterOutputStream == null) {
+            return null;
+        }
+
+        return new CompressionStatistics(inflater.getBytesRead(), inflater.getBytesWritten(),
+                deflaterOutputStream.getTotalOut(), deflaterOutputStream.getTotalIn());
+    }
+
     public void close() {
         if (!open) {
             return;
@@ -722,6 +804,10 @@ class ImapConnection {
         open = false;
         stacktraceForClose = new Exception();
 
+        if (K9MailLib.isDebug() && inflater != null) {
+            Timber.d("Compression statistics for %s: %s", getLogId(), getCompressionStatistics());
+        }
+
         IOUtils.closeQuietly(inputStream);
         IOUtils.closeQuietly(outputStream);
         IOUtils.closeQuietly(socket);
@@ -21,6 +21,7 @@ import android.text.TextUtils;
 
 import com.fsck.k9.mail.Body;
 import com.fsck.k9.mail.BodyFactory;
+import com.fsck.k9.mail.DefaultBodyFactory;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
@@ -35,6 +36,7 @@ import com.fsck.k9.mail.internet.MimeHeader;
 import com.fsck.k9.mail.internet.MimeMessageHelper;
 import com.fsck.k9.mail.internet.MimeMultipart;
 import com.fsck.k9.mail.internet.MimeUtility;
+import com.fsck.k9.mail.store.imap.IdGrouper.GroupedIds;
 import timber.log.Timber;
 
 import static com.fsck.k9.mail.store.imap.ImapUtility.getLastResponse;
@@ -50,10 +52,18 @@ class ImapFolder extends Folder<ImapMessage> {
     };
     private static final int MORE_MESSAGES_WINDOW_SIZE = 500;
     private static final int FETCH_WINDOW_SIZE = 100;
+    private static final int MIN_FETCH_WINDOW_SIZE = 10;
+    private static final int FETCH_WINDOW_TARGET_BYTES = 2 * 1024 * 1024;
+    /**
+     * Number of {@code UID FETCH} commands that are sent before waiting for the tagged response of the first one.
+     * Keeping more than one window in flight hides the round-trip time between windows.
+     */
+    static final int FETCH_PIPELINE_DEPTH = 3;
 
 
     protected volatile int messageCount = -1;
     protected volatile long uidNext = -1L;
+    protected volatile long highestModSeq = UNKNOWN_MOD_SEQ;
     protected volatile ImapConnection connection;
     protected ImapStore store = null;
     protected Map<Long, String> msgSeqUidMap = new ConcurrentHashMap<Long, String>();
@@ -139,11 +149,13 @@ class ImapFolder extends Folder<ImapMessage> {
 
         try {
             msgSeqUidMap.clear();
+            highestModSeq = UNKNOWN_MOD_SEQ;
 
             String openCommand = mode == OPEN_MODE_RW ? "SELECT" : "EXAMINE";
             String encodedFolderName = folderNameCodec.encode(getPrefixedName());
             String escapedFolderName = ImapUtility.encodeString(encodedFolderName);
-            String command = String.format("%s %s", openCommand, escapedFolderName);
+            String condstoreParameter = connection.isCondstoreCapable() ? " (CONDSTORE)" : "";
+            String command = String.format("%s %s%s", openCommand, escapedFolderName, condstoreParameter);
             List<ImapResponse> responses = executeSimpleCommand(command);
 
             /*
@@ -636,18 +648,21 @@ class ImapFolder extends Folder<ImapMessage> {
     @Override
     public void fetch(List<ImapMessage> messages, FetchProfile fetchProfile,
             MessageRetrievalListener<ImapMessage> listener) throws MessagingException {
+        fetch(messages, fetchProfile, listener, new DefaultBodyFactory());
+    }
+
+    @Override
+    public void fetch(List<ImapMessage> messages, FetchProfile fetchProfile,
+            MessageRetrievalListener<ImapMessage> listener, BodyFactory bodyFactory) throws MessagingException {
         if (messages == null || messages.isEmpty()) {
             return;
         }
 
         checkOpen();
 
-        List<String> uids = new ArrayList<>(messages.size());
         HashMap<String, Message> messageMap = new HashMap<>();
         for (Message message : messages) {
-            String uid = message.getUid();
-            uids.add(uid);
-            messageMap.put(uid, message);
+            messageMap.put(message.getUid(), message);
         }
 
         Set<String> fetchFields = new LinkedHashSet<>();
@@ -683,84 +698,216 @@ class ImapFolder extends Folder<ImapMessage> {
 
         String spaceSeparatedFetchFields = ImapUtility.join(" ", fetchFields);
 
-        for (int windowStart = 0; windowStart < messages.size(); windowStart += (FETCH_WINDOW_SIZE)) {
-            int windowEnd = Math.min(windowStart + FETCH_WINDOW_SIZE, messages.size());
-            List<String> uidWindow = uids.subList(windowStart, windowEnd);
-
-            try {
-                String commaSeparatedUids = ImapUtility.join(",", uidWindow);
-                String command = String.format("UID FETCH %s (%s)", commaSeparatedUids, spaceSeparatedFetchFields);
-                connection.sendCommand(command, false);
+        ImapResponseCallback callback = null;
+        if (fetchProfile.contains(FetchProfile.Item.BODY) || fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
+            callback = new FetchBodyCallback(messageMap, bodyFactory);
+        }
 
-                ImapResponse response;
-                int messageNumber = 0;
+        int maximumBytesPerMessage = getMaximumExpectedBodySize(fetchProfile);
+        List<String> commands = createFetchCommands(messages, "(" + spaceSeparatedFetchFields + ")",
+                maximumBytesPerMessage);
+        List<String> pendingTags = new ArrayList<>(FETCH_PIPELINE_DEPTH);
+        int commandIndex = 0;
+        int messageNumber = 0;
 
-                ImapResponseCallback callback = null;
-                if (fetchProfile.contains(FetchProfile.Item.BODY) ||
-                        fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
-                    callback = new FetchBodyCallback(messageMap);
+        try {
+            while (commandIndex < commands.size() || !pendingTags.isEmpty()) {
+                while (commandIndex < commands.size() && pendingTags.size() < FETCH_PIPELINE_DEPTH) {
+                    pendingTags.add(connection.sendCommand(commands.get(commandIndex), false));
+                    commandIndex++;
                 }
 
-                do {
-                    response = connection.readResponse(callback);
-
-                    if (response.getTag() == null && ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
-                        ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
-                        String uid = fetchList.getKeyedString("UID");
-                        long msgSeq = response.getLong(0);
-                        if (uid != null) {
-                            try {
-                                msgSeqUidMap.put(msgSeq, uid);
-                                if (K9MailLib.isDebug()) {
-                                    Timber.v("Stored uid '%s' for msgSeq %d into map", uid, msgSeq);
-                                }
-                            } catch (Exception e) {
-                                Timber.e("Unable to store uid '%s' for msgSeq %d", uid, msgSeq);
-                            }
-                        }
+                ImapResponse response = connection.readResponse(callback);
 
-                        Message message = messageMap.get(uid);
-                        if (message == null) {
+                if (response.getTag() != null) {
+                    completeFetchWindow(pendingTags, response);
+                } else if (ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
+                    ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+                    String uid = fetchList.getKeyedString("UID");
+                    long msgSeq = response.getLong(0);
+                    if (uid != null) {
+                        try {
+                            msgSeqUidMap.put(msgSeq, uid);
                             if (K9MailLib.isDebug()) {
-                                Timber.d("Do not have message in messageMap for UID %s for %s", uid, getLogId());
+                                Timber.v("Stored uid '%s' for msgSeq %d into map", uid, msgSeq);
                             }
-
-                            handleUntaggedResponse(response);
-                            continue;
+                        } catch (Exception e) {
+                            Timber.e("Unable to store uid '%s' for msgSeq %d", uid, msgSeq);
                         }
+                    }
 
-                        if (listener != null) {
-                            listener.messageStarted(uid, messageNumber++, messageMap.size());
+                    Message message = messageMap.get(uid);
+                    if (message == null) {
+                        if (K9MailLib.isDebug()) {
+                            Timber.d("Do not have message in messageMap for UID %s for %s", uid, getLogId());
                         }
 
-                        ImapMessage imapMessage = (ImapMessage) message;
-                        Object literal = handleFetchResponse(imapMessage, fetchList);
-
-                        if (literal != null) {
-                            if (literal instanceof String) {
-                                String bodyString = (String) literal;
-                                InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
-                                imapMessage.parse(bodyStream);
-                            } else if (literal instanceof Integer) {
-                                // All the work was done in FetchBodyCallback.foundLiteral()
-                            } else {
-                                // This shouldn't happen
-                                throw new MessagingException("Got FETCH response with bogus parameters");
-                            }
-                        }
+                        handleUntaggedResponse(response);
+                        continue;
+                    }
 
-                        if (listener != null) {
-                            listener.messageFinished(imapMessage, messageNumber, messageMap.size());
+                    if (listener != null) {
+                        listener.messageStarted(uid, messageNumber++, messageMap.size());
+                    }
+
+                    ImapMessage imapMessage = (ImapMessage) message;
+                    Object literal = handleFetchResponse(imapMessage, fetchList);
+
+                    if (literal != null) {
+                        if (literal instanceof String) {
+                            String bodyString = (String) literal;
+                            InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
+                            imapMessage.parse(bodyStream, bodyFactory);
+                        } else if (literal instanceof Integer) {
+                            // All the work was done in FetchBodyCallback.foundLiteral()
+                        } else {
+                            // This shouldn't happen
+                            throw new MessagingException("Got FETCH response with bogus parameters");
                         }
-                    } else {
-                        handleUntaggedResponse(response);
                     }
 
-                } while (response.getTag() == null);
-            } catch (IOException ioe) {
-                throw ioExceptionHandler(connection, ioe);
+                    if (listener != null) {
+                        listener.messageFinished(imapMessage, messageNumber, messageMap.size());
+                    }
+                } else {
+                    handleUntaggedResponse(response);
+                }
+            }
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+    }
+
+    private int getMaximumExpectedBodySize(FetchProfile fetchProfile) {
+        if (fetchProfile.contains(FetchProfile.Item.BODY)) {
+            return Integer.MAX_VALUE;
+        } else if (fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
+            int maximumAutoDownloadMessageSize = store.getStoreConfig().getMaximumAutoDownloadMessageSize();
+            return maximumAutoDownloadMessageSize > 0 ? maximumAutoDownloadMessageSize : Integer.MAX_VALUE;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Creates the {@code UID FETCH} commands for the given messages.
+     *
+     * <p>The UIDs of each fetch window are compressed to a sequence set, e.g. {@code 1:100,105}. A window is only split
+     * into multiple commands if its sequence set doesn't fit into the line length limit of the server.</p>
+     */
+    private List<String> createFetchCommands(List<ImapMessage> messages, String commandSuffix,
+            int maximumBytesPerMessage) {
+        int lineLengthLimit = connection.getLineLengthLimit();
+
+        List<String> commands = new ArrayList<>();
+        int windowStart = 0;
+        while (windowStart < messages.size()) {
+            int windowEnd = findFetchWindowEnd(messages, windowStart, maximumBytesPerMessage);
+
+            Set<Long> uids = new HashSet<>(windowEnd - windowStart);
+            for (int i = windowStart; i < windowEnd; i++) {
+                uids.add(Long.parseLong(messages.get(i).getUid()));
+            }
+
+            GroupedIds groupedIds = IdGrouper.groupIds(uids);
+            commands.addAll(ImapCommandSplitter.splitCommand(Commands.UID_FETCH, commandSuffix, groupedIds,
+                    lineLengthLimit));
+
+            windowStart = windowEnd;
+        }
+
+        return commands;
+    }
+
+    /**
+     * Returns the (exclusive) end index of the fetch window starting at {@code windowStart}.
+     *
+     * <p>When no message bodies are fetched all messages end up in one window. Its sequence set is only limited by
+     * the line length limit of the server.</p>
+     *
+     * <p>When message bodies are fetched windows contain at most {@link #FETCH_WINDOW_SIZE} messages. The window is
+     * shrunk (down to {@link #MIN_FETCH_WINDOW_SIZE} messages) so that the known message sizes add up to roughly
+     * {@link #FETCH_WINDOW_TARGET_BYTES}. That way a pipelined window full of large messages doesn't delay the
+     * processing of the responses to the next window for too long.</p>
+     */
+    private int findFetchWindowEnd(List<ImapMessage> messages, int windowStart, int maximumBytesPerMessage) {
+        if (maximumBytesPerMessage == 0) {
+            return messages.size();
+        }
+
+        int maxWindowEnd = Math.min(windowStart + FETCH_WINDOW_SIZE, messages.size());
+
+        long expectedBytes = 0;
+        int windowEnd = windowStart;
+        while (windowEnd < maxWindowEnd) {
+            expectedBytes += Math.min(messages.get(windowEnd).getSize(), maximumBytesPerMessage);
+            windowEnd++;
+
+            if (expectedBytes >= FETCH_WINDOW_TARGET_BYTES && windowEnd - windowStart >= MIN_FETCH_WINDOW_SIZE) {
+                break;
             }
         }
+
+        return windowEnd;
+    }
+
+    private void completeFetchWindow(List<String> pendingTags, ImapResponse response) {
+        String tag = response.getTag();
+        if (!pendingTags.remove(tag)) {
+            Timber.w("Got unexpected tagged response %s while fetching for %s", response, getLogId());
+
+            // Tagged responses arrive in the order the commands were sent
+            pendingTags.remove(0);
+        }
+
+        if (response.size() < 1 || !ImapResponseParser.equalsIgnoreCase(response.get(0), Responses.OK)) {
+            Timber.w("UID FETCH command with tag %s failed for %s: %s", tag, getLogId(), response);
+        }
+    }
+
+    @Override
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
+    @Override
+    public List<ImapMessage> fetchChangedFlags(List<ImapMessage> messages, long modSeq) throws MessagingException {
+        checkOpen();
+
+        Map<String, ImapMessage> messageMap = new HashMap<>();
+        for (ImapMessage message : messages) {
+            messageMap.put(message.getUid(), message);
+        }
+
+        List<ImapMessage> changedMessages = new ArrayList<>();
+        try {
+            String command = String.format(Locale.US, "UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE %d)", modSeq);
+            List<ImapResponse> responses = executeSimpleCommand(command);
+
+            for (ImapResponse response : responses) {
+                if (response.getTag() != null ||
+                        !ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
+                    continue;
+                }
+
+                ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+                String uid = fetchList.getKeyedString("UID");
+                ImapMessage message = messageMap.get(uid);
+                if (message != null) {
+                    handleFetchResponse(message, fetchList);
+                    changedMessages.add(message);
+                }
+            }
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+
+        if (K9MailLib.isDebug()) {
+            Timber.d("Flags of %d out of %d messages changed since modseq %d for %s",
+                    changedMessages.size(), messages.size(), modSeq, getLogId());
+        }
+
+        return changedMessages;
     }
 
     @Override
@@ -943,6 +1090,21 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    private void handlePossibleHighestModSeq(ImapResponse response) {
+        if (!ImapResponseParser.equalsIgnoreCase(response.get(0), Responses.OK) || !response.isList(1)) {
+            return;
+        }
+
+        ImapList responseTextCode = response.getList(1);
+        if (responseTextCode.size() > 1 &&
+                ImapResponseParser.equalsIgnoreCase(responseTextCode.get(0), "HIGHESTMODSEQ")) {
+            highestModSeq = responseTextCode.getLong(1);
+            if (K9MailLib.isDebug()) {
+                Timber.d("Got HighestModSeq = %d for %s", highestModSeq, getLogId());
+            }
+        }
+    }
+
     /**
      * Handle an untagged response that the caller doesn't care to handle themselves.
      */
@@ -956,6 +1118,7 @@ class ImapFolder extends Folder<ImapMessage> {
             }
 
             handlePossibleUidNext(response);
+            handlePossibleHighestModSeq(response);
 
             if (ImapResponseParser.equalsIgnoreCase(response.get(1), "EXPUNGE") && messageCount > 0) {
                 messageCount--;
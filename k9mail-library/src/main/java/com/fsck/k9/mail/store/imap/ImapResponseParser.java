@@ -6,6 +6,8 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import android.support.annotation.VisibleForTesting;
+
 import com.fsck.k9.mail.K9MailLib;
 import com.fsck.k9.mail.filter.FixedLengthInputStream;
 import com.fsck.k9.mail.filter.PeekableInputStream;
@@ -15,9 +17,20 @@ import static com.fsck.k9.mail.K9MailLib.DEBUG_PROTOCOL_IMAP;
 
 
 class ImapResponseParser {
+    /**
+     * Literals up to this size are read into a buffer that is reused for all subsequent literals. Larger literals get
+     * a buffer of their own so the memory retained by the parser stays bounded.
+     */
+    @VisibleForTesting
+    static final int MAX_POOLED_LITERAL_SIZE = 64 * 1024;
+    private static final int INITIAL_LITERAL_BUFFER_SIZE = 4 * 1024;
+
+
     private PeekableInputStream inputStream;
     private ImapResponse response;
     private Exception exception;
+    private byte[] literalBuffer;
+    private int literalBufferAllocations;
 
 
     public ImapResponseParser(PeekableInputStream in) {
@@ -380,7 +393,7 @@ class ImapResponseParser {
             }
         }
 
-        byte[] data = new byte[size];
+        byte[] data = obtainLiteralBuffer(size);
         int read = 0;
         while (read != size) {
             int count = inputStream.read(data, read, size - read);
@@ -390,7 +403,34 @@ class ImapResponseParser {
             read += count;
         }
 
-        return new String(data, "US-ASCII");
+        return new String(data, 0, size, "US-ASCII");
+    }
+
+    private byte[] obtainLiteralBuffer(int size) {
+        if (size > MAX_POOLED_LITERAL_SIZE) {
+            literalBufferAllocations++;
+            return new byte[size];
+        }
+
+        if (literalBuffer == null || literalBuffer.length < size) {
+            int newSize = literalBuffer == null ? INITIAL_LITERAL_BUFFER_SIZE : literalBuffer.length;
+            while (newSize < size) {
+                newSize *= 2;
+            }
+
+            literalBuffer = new byte[Math.min(newSize, MAX_POOLED_LITERAL_SIZE)];
+            literalBufferAllocations++;
+        }
+
+        return literalBuffer;
+    }
+
+    /**
+     * Returns the number of byte arrays that were allocated to read literals not consumed by a callback.
+     */
+    @VisibleForTesting
+    int getLiteralBufferAllocations() {
+        return literalBufferAllocations;
     }
 
     private String parseQuoted() throws IOException {
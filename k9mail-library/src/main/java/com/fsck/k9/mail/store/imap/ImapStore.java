@@ -3,19 +3,21 @@ package com.fsck.k9.mail.store.imap;
 
 import java.io.IOException;
 import java.nio.charset.CharacterCodingException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import android.net.ConnectivityManager;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 
 import com.fsck.k9.mail.AuthType;
 import com.fsck.k9.mail.ConnectionSecurity;
@@ -40,6 +42,23 @@ import timber.log.Timber;
  * </pre>
  */
 public class ImapStore extends RemoteStore {
+    /**
+     * Idle connections that haven't been used for this long are closed instead of being reused. Servers are allowed
+     * to drop connections after 30 minutes of inactivity (RFC 3501, section 5.4).
+     * <p>
+     * Expired connections are closed lazily, the next time a connection is taken from or returned to the pool. There
+     * is no timer, so the connections of an account that isn't used anymore stay open until the server drops them.
+     * </p>
+     */
+    @VisibleForTesting
+    static final long MAXIMUM_CONNECTION_IDLE_TIME_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * Connections that have been used this recently are reused without checking their health with a NOOP command.
+     */
+    @VisibleForTesting
+    static final long CONNECTION_HEALTH_CHECK_INTERVAL_MILLIS = 5 * 1000;
+
     private Set<Flag> permanentFlagsIndex = EnumSet.noneOf(Flag.class);
     private ConnectivityManager connectivityManager;
     private OAuth2TokenProvider oauthTokenProvider;
@@ -54,7 +73,11 @@ public class ImapStore extends RemoteStore {
     private String pathPrefix;
     private String combinedPrefix = null;
     private String pathDelimiter = null;
-    private final Deque<ImapConnection> connections = new LinkedList<ImapConnection>();
+    private volatile ImapCapabilitySnapshot capabilitySnapshot = null;
+    private final Deque<PooledConnection> connections = new ArrayDeque<>();
+    private long connectionHitCount = 0;
+    private long connectionMissCount = 0;
+    private long connectionEvictionCount = 0;
     private FolderNameCodec folderNameCodec;
 
     /**
@@ -321,35 +344,132 @@ public class ImapStore extends RemoteStore {
     }
 
     ImapConnection getConnection() throws MessagingException {
-        ImapConnection connection;
-        while ((connection = pollConnection()) != null) {
+        PooledConnection pooledConnection;
+        while ((pooledConnection = pollConnection()) != null) {
+            ImapConnection connection = pooledConnection.connection;
+            long idleTime = getCurrentTimeMillis() - pooledConnection.lastUsedTimeMillis;
+            if (idleTime < CONNECTION_HEALTH_CHECK_INTERVAL_MILLIS && connection.isConnected()) {
+                recordConnectionHit();
+                return connection;
+            }
+
             try {
                 connection.executeSimpleCommand(Commands.NOOP);
-                break;
+                recordConnectionHit();
+                return connection;
             } catch (IOException ioe) {
+                recordConnectionEviction();
                 connection.close();
             }
         }
 
-        if (connection == null) {
-            connection = createImapConnection();
-        }
+        recordConnectionMiss();
 
-        return connection;
+        return createImapConnection();
     }
 
-    private ImapConnection pollConnection() {
+    private PooledConnection pollConnection() {
+        List<PooledConnection> expiredConnections = new ArrayList<>();
+        PooledConnection pooledConnection;
         synchronized (connections) {
-            return connections.poll();
+            removeExpiredConnections(getCurrentTimeMillis(), expiredConnections);
+            pooledConnection = connections.pollFirst();
         }
+
+        closeConnections(expiredConnections);
+
+        return pooledConnection;
     }
 
     void releaseConnection(ImapConnection connection) {
-        if (connection != null && connection.isConnected()) {
-            synchronized (connections) {
-                connections.offer(connection);
+        if (connection == null || !connection.isConnected()) {
+            return;
+        }
+
+        // Connections released while the pool is full are closed
+        int maximumPooledConnections = mStoreConfig.getMaximumPooledConnections();
+        List<PooledConnection> evictedConnections = new ArrayList<>();
+        synchronized (connections) {
+            long now = getCurrentTimeMillis();
+            removeExpiredConnections(now, evictedConnections);
+
+            connections.offerFirst(new PooledConnection(connection, now));
+            while (connections.size() > maximumPooledConnections) {
+                evictedConnections.add(connections.pollLast());
+                connectionEvictionCount++;
             }
         }
+
+        closeConnections(evictedConnections);
+    }
+
+    // Must be called while holding the lock on 'connections'
+    private void removeExpiredConnections(long now, List<PooledConnection> expiredConnections) {
+        while (!connections.isEmpty() &&
+                now - connections.peekLast().lastUsedTimeMillis >= MAXIMUM_CONNECTION_IDLE_TIME_MILLIS) {
+            expiredConnections.add(connections.pollLast());
+            connectionEvictionCount++;
+        }
+    }
+
+    private void closeConnections(List<PooledConnection> pooledConnections) {
+        if (pooledConnections.isEmpty()) {
+            return;
+        }
+
+        for (PooledConnection pooledConnection : pooledConnections) {
+            pooledConnection.connection.close();
+        }
+
+        synchronized (connections) {
+            Timber.d("Closed %d pooled connection(s) to %s (hits: %d, misses: %d, evictions: %d)",
+                    pooledConnections.size(), host, connectionHitCount, connectionMissCount,
+                    connectionEvictionCount);
+        }
+    }
+
+    private void recordConnectionHit() {
+        synchronized (connections) {
+            connectionHitCount++;
+        }
+    }
+
+    private void recordConnectionMiss() {
+        synchronized (connections) {
+            connectionMissCount++;
+        }
+    }
+
+    private void recordConnectionEviction() {
+        synchronized (connections) {
+            connectionEvictionCount++;
+        }
+    }
+
+    @VisibleForTesting
+    long getConnectionHitCount() {
+        synchronized (connections) {
+            return connectionHitCount;
+        }
+    }
+
+    @VisibleForTesting
+    long getConnectionMissCount() {
+        synchronized (connections) {
+            return connectionMissCount;
+        }
+    }
+
+    @VisibleForTesting
+    long getConnectionEvictionCount() {
+        synchronized (connections) {
+            return connectionEvictionCount;
+        }
+    }
+
+    @VisibleForTesting
+    long getCurrentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
     }
 
     ImapConnection createImapConnection() {
@@ -409,6 +529,16 @@ public class ImapStore extends RemoteStore {
     }
 
 
+    private static class PooledConnection {
+        final ImapConnection connection;
+        final long lastUsedTimeMillis;
+
+        PooledConnection(ImapConnection connection, long lastUsedTimeMillis) {
+            this.connection = connection;
+            this.lastUsedTimeMillis = lastUsedTimeMillis;
+        }
+    }
+
     private class StoreImapSettings implements ImapSettings {
         @Override
         public String getHost() {
@@ -479,5 +609,15 @@ public class ImapStore extends RemoteStore {
         public void setCombinedPrefix(String prefix) {
             combinedPrefix = prefix;
         }
+
+        @Override
+        public ImapCapabilitySnapshot getCapabilitySnapshot() {
+            return capabilitySnapshot;
+        }
+
+        @Override
+        public void setCapabilitySnapshot(ImapCapabilitySnapshot snapshot) {
+            capabilitySnapshot = snapshot;
+        }
     }
 }
@@ -88,6 +88,8 @@ class Pop3Connection {
 
             performAuthentication(settings.getAuthType(), serverGreeting);
         } catch (SSLException e) {
+            trustedSocketFactory.invalidateTlsSessions(settings.getHost(), settings.getPort(),
+                    settings.getClientCertificateAlias());
             if (e.getCause() instanceof CertificateException) {
                 throw new CertificateValidationException(e.getMessage(), e);
             } else {
@@ -222,6 +224,8 @@ class Pop3Connection {
                     capabilities.uidl = true;
                 } else if (response.equals(TOP_CAPABILITY)) {
                     capabilities.top = true;
+                } else if (response.equals(PIPELINING_CAPABILITY)) {
+                    capabilities.pipelining = true;
                 } else if (response.startsWith(SASL_CAPABILITY)) {
                     List<String> saslAuthMechanisms = Arrays.asList(response.split(" "));
                     if (saslAuthMechanisms.contains(AUTH_PLAIN_CAPABILITY)) {
@@ -329,10 +333,44 @@ class Pop3Connection {
     }
 
     private void writeLine(String s) throws IOException {
+        writeLineWithoutFlush(s);
+        out.flush();
+    }
+
+    private void writeLineWithoutFlush(String s) throws IOException {
         out.write(s.getBytes());
         out.write('\r');
         out.write('\n');
-        out.flush();
+    }
+
+    /**
+     * Sends the given commands in one go without waiting for any of the responses.
+     * <p>
+     * Only use this if the server advertised {@code PIPELINING}. The caller needs to read the responses in order
+     * using {@link #readCommandResponse()}.
+     * </p>
+     */
+    void sendPipelinedCommands(List<String> commands) throws MessagingException {
+        try {
+            for (String command : commands) {
+                if (K9MailLib.isDebug() && DEBUG_PROTOCOL_POP3) {
+                    Timber.d(">>> %s", command);
+                }
+
+                writeLineWithoutFlush(command);
+            }
+            out.flush();
+        } catch (IOException e) {
+            close();
+            throw new MessagingException("Unable to send POP3 commands", e);
+        }
+    }
+
+    /**
+     * Reads the status line of the response to a command sent earlier with {@link #sendPipelinedCommands(List)}.
+     */
+    String readCommandResponse() throws MessagingException {
+        return executeSimpleCommand(null);
     }
 
     String executeSimpleCommand(String command) throws MessagingException {
@@ -437,6 +475,10 @@ class Pop3Connection {
         return this.capabilities.uidl;
     }
 
+    boolean supportsPipelining() {
+        return this.capabilities.pipelining;
+    }
+
     InputStream getInputStream() {
         return in;
     }
@@ -33,6 +33,12 @@ import static com.fsck.k9.mail.store.pop3.Pop3Commands.*;
 class Pop3Folder extends Folder<Pop3Message> {
     static final String INBOX = "INBOX";
 
+    /**
+     * Maximum number of new messages whose unique IDs are requested one by one to update the UIDL listing of a
+     * previous session. With more new messages the complete listing is downloaded again when needed.
+     */
+    private static final int MAX_INCREMENTAL_UIDL_COMMANDS = 50;
+
 
     private Pop3Store pop3Store;
     private Map<String, Pop3Message> uidToMsgMap = new HashMap<>();
@@ -41,8 +47,21 @@ class Pop3Folder extends Folder<Pop3Message> {
     private Map<String, Integer> uidToMsgNumMap = new HashMap<>();
     private String name;
     private int messageCount;
+    private long mailboxSize;
     private Pop3Connection connection;
 
+    /**
+     * Complete UIDL listing of the maildrop. If not {@code null} it is valid for the current session and survives
+     * the end of the session so the next one can reuse it.
+     */
+    private Pop3UidlListing uidlListing;
+    private Set<Integer> deletedMessageNumbers = new HashSet<>();
+    /**
+     * Number of {@code TOP}/{@code RETR} commands kept in flight when the server supports {@code PIPELINING}. Read
+     * from the {@link com.fsck.k9.mail.store.StoreConfig} when the folder is opened.
+     */
+    private int fetchPipelineDepth;
+
     Pop3Folder(Pop3Store pop3Store, String name) {
         super();
         this.pop3Store = pop3Store;
@@ -59,16 +78,155 @@ class Pop3Folder extends Folder<Pop3Message> {
             throw new MessagingException("Folder does not exist");
         }
 
+        fetchPipelineDepth = Math.max(1, pop3Store.getConfig().getPop3FetchPipelineDepth());
+
         connection = pop3Store.createConnection();
         connection.open();
 
         String response = connection.executeSimpleCommand(STAT_COMMAND);
         String[] parts = response.split(" ");
         messageCount = Integer.parseInt(parts[1]);
+        mailboxSize = parseMailboxSize(parts);
 
         uidToMsgMap.clear();
         msgNumToMsgMap.clear();
         uidToMsgNumMap.clear();
+        deletedMessageNumbers.clear();
+
+        restoreUidlListing();
+    }
+
+    private static long parseMailboxSize(String[] statResponseParts) {
+        if (statResponseParts.length < 3) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(statResponseParts[2]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Checks whether the UIDL listing of the previous session is still valid.
+     * <p>
+     * Messages are only ever appended to a maildrop and unique IDs aren't reused. So if the message at the position
+     * of the previously last message still has the same unique ID, no message has been removed in the meantime. If
+     * the message count and mailbox size didn't change either, the listing can be used as is. If a few messages have
+     * been added, their unique IDs are requested individually.
+     * </p>
+     */
+    private void restoreUidlListing() throws MessagingException {
+        Pop3UidlListing listing = uidlListing;
+        uidlListing = null;
+        if (listing == null) {
+            return;
+        }
+
+        int previousMessageCount = listing.getMessageCount();
+        long previousMailboxSize = listing.getMailboxSize();
+        try {
+            if (messageCount == previousMessageCount) {
+                boolean mailboxSizeUnchanged = previousMailboxSize == -1 || previousMailboxSize == mailboxSize;
+                if (!mailboxSizeUnchanged || !isUidUnchanged(listing, messageCount)) {
+                    return;
+                }
+            } else if (messageCount > previousMessageCount &&
+                    messageCount - previousMessageCount <= MAX_INCREMENTAL_UIDL_COMMANDS) {
+                if (!isUidUnchanged(listing, previousMessageCount)) {
+                    return;
+                }
+
+                for (String uid : requestUids(previousMessageCount + 1, messageCount)) {
+                    listing.appendUid(uid);
+                }
+            } else {
+                return;
+            }
+        } catch (Pop3ErrorResponse e) {
+            Timber.d(e, "Unable to verify UIDL listing of previous session");
+            return;
+        }
+
+        if (K9MailLib.isDebug() && DEBUG_PROTOCOL_POP3) {
+            Timber.d("Reusing UIDL listing of previous session (%d messages, %d new)",
+                    previousMessageCount, messageCount - previousMessageCount);
+        }
+
+        listing.setMailboxSize(mailboxSize);
+        uidlListing = listing;
+    }
+
+    private boolean isUidUnchanged(Pop3UidlListing listing, int msgNum) throws MessagingException {
+        if (msgNum == 0) {
+            return true;
+        }
+
+        String uid = listing.getUid(msgNum);
+        return uid != null && uid.equals(requestUid(msgNum));
+    }
+
+    /**
+     * Requests the unique ID of a single message.
+     *
+     * @return The unique ID or {@code null} if the response was malformed.
+     */
+    private String requestUid(int msgNum) throws MessagingException {
+        String response = connection.executeSimpleCommand(UIDL_COMMAND + " " + msgNum);
+        return parseUidResponse(response);
+    }
+
+    /**
+     * Requests the unique IDs of the given range of messages. If the server supports {@code PIPELINING} all
+     * commands are sent at once.
+     *
+     * @return The unique IDs in order of their message numbers. An element is {@code null} if the response was
+     *         malformed.
+     */
+    private List<String> requestUids(int firstMsgNum, int lastMsgNum) throws MessagingException {
+        List<String> uids = new ArrayList<>(lastMsgNum - firstMsgNum + 1);
+        if (!connection.supportsPipelining()) {
+            for (int msgNum = firstMsgNum; msgNum <= lastMsgNum; msgNum++) {
+                uids.add(requestUid(msgNum));
+            }
+            return uids;
+        }
+
+        List<String> commands = new ArrayList<>(lastMsgNum - firstMsgNum + 1);
+        for (int msgNum = firstMsgNum; msgNum <= lastMsgNum; msgNum++) {
+            commands.add(UIDL_COMMAND + " " + msgNum);
+        }
+        connection.sendPipelinedCommands(commands);
+
+        // Read all responses, even after an error, so the connection stays usable.
+        Pop3ErrorResponse errorResponse = null;
+        for (int i = 0, count = commands.size(); i < count; i++) {
+            try {
+                uids.add(parseUidResponse(connection.readCommandResponse()));
+            } catch (Pop3ErrorResponse e) {
+                if (errorResponse == null) {
+                    errorResponse = e;
+                }
+            }
+        }
+
+        if (errorResponse != null) {
+            throw errorResponse;
+        }
+
+        return uids;
+    }
+
+    private static String parseUidResponse(String response) {
+        // response = "+OK msgNum msgUid"
+        String[] uidParts = response.split(" +");
+        if (uidParts.length < 3 || !"+OK".equals(uidParts[0])) {
+            Timber.e("ERR response: %s", response);
+            return null;
+        }
+
+        return uidParts[2];
     }
 
     @Override
@@ -83,9 +241,11 @@ class Pop3Folder extends Folder<Pop3Message> {
 
     @Override
     public void close() {
+        boolean deletionsCommitted = false;
         try {
             if (isOpen()) {
                 connection.executeSimpleCommand(QUIT_COMMAND);
+                deletionsCommitted = true;
             }
         } catch (Exception e) {
             /*
@@ -94,6 +254,16 @@ class Pop3Folder extends Folder<Pop3Message> {
              */
         }
 
+        if (uidlListing != null && !deletedMessageNumbers.isEmpty()) {
+            if (deletionsCommitted) {
+                uidlListing.removeMessages(deletedMessageNumbers);
+            } else {
+                // We don't know whether the server removed the messages
+                uidlListing = null;
+            }
+        }
+        deletedMessageNumbers.clear();
+
         if (connection != null) {
             connection.close();
             connection = null;
@@ -199,7 +369,15 @@ class Pop3Folder extends Folder<Pop3Message> {
         if (unindexedMessageCount == 0) {
             return;
         }
-        if (unindexedMessageCount < 50 && messageCount > 5000) {
+        if (uidlListing != null) {
+            // The listing is complete. Message numbers without a unique ID there don't have one on the server either.
+            for (int msgNum = start; msgNum <= end; msgNum++) {
+                String msgUid = uidlListing.getUid(msgNum);
+                if (msgNumToMsgMap.get(msgNum) == null && msgUid != null) {
+                    indexMessage(msgNum, new Pop3Message(msgUid, this));
+                }
+            }
+        } else if (unindexedMessageCount < 50 && messageCount > 5000) {
             /*
              * In extreme cases we'll do a UIDL command per message instead of a bulk
              * download.
@@ -207,62 +385,76 @@ class Pop3Folder extends Folder<Pop3Message> {
             for (int msgNum = start; msgNum <= end; msgNum++) {
                 Pop3Message message = msgNumToMsgMap.get(msgNum);
                 if (message == null) {
-                    String response = connection.executeSimpleCommand(UIDL_COMMAND + " " + msgNum);
-                    // response = "+OK msgNum msgUid"
-                    String[] uidParts = response.split(" +");
-                    if (uidParts.length < 3 || !"+OK".equals(uidParts[0])) {
-                        Timber.e("ERR response: %s", response);
+                    String msgUid = requestUid(msgNum);
+                    if (msgUid == null) {
                         return;
                     }
-                    String msgUid = uidParts[2];
                     message = new Pop3Message(msgUid, this);
                     indexMessage(msgNum, message);
                 }
             }
         } else {
-            connection.executeSimpleCommand(UIDL_COMMAND);
-            String response;
-            while ((response = connection.readLine()) != null) {
-                if (response.equals(".")) {
-                    break;
+            Pop3UidlListing listing = downloadUidlListing();
+            for (int msgNum = start; msgNum <= end; msgNum++) {
+                String msgUid = listing.getUid(msgNum);
+                if (msgNumToMsgMap.get(msgNum) == null && msgUid != null) {
+                    indexMessage(msgNum, new Pop3Message(msgUid, this));
                 }
+            }
+        }
+    }
+
+    /**
+     * Downloads the complete UIDL listing and remembers it for the rest of this and for following sessions.
+     */
+    private Pop3UidlListing downloadUidlListing() throws MessagingException, IOException {
+        List<String> uids = new ArrayList<>(Collections.<String>nCopies(messageCount, null));
+
+        connection.executeSimpleCommand(UIDL_COMMAND);
+        String response;
+        while ((response = connection.readLine()) != null) {
+            if (response.equals(".")) {
+                break;
+            }
+
+            /*
+             * Yet another work-around for buggy server software:
+             * split the response into message number and unique identifier, no matter how many spaces it has
+             *
+             * Example for a malformed response:
+             * 1   2011071307115510400ae3e9e00bmu9
+             *
+             * Note the three spaces between message number and unique identifier.
+             * See issue 3546
+             */
 
+            String[] uidParts = response.split(" +");
+            if ((uidParts.length >= 3) && "+OK".equals(uidParts[0])) {
                 /*
-                 * Yet another work-around for buggy server software:
-                 * split the response into message number and unique identifier, no matter how many spaces it has
+                 * At least one server software places a "+OK" in
+                 * front of every line in the unique-id listing.
                  *
-                 * Example for a malformed response:
-                 * 1   2011071307115510400ae3e9e00bmu9
-                 *
-                 * Note the three spaces between message number and unique identifier.
-                 * See issue 3546
+                 * Fix up the array if we detected this behavior.
+                 * See Issue 1237
                  */
+                uidParts[0] = uidParts[1];
+                uidParts[1] = uidParts[2];
+            }
 
-                String[] uidParts = response.split(" +");
-                if ((uidParts.length >= 3) && "+OK".equals(uidParts[0])) {
-                    /*
-                     * At least one server software places a "+OK" in
-                     * front of every line in the unique-id listing.
-                     *
-                     * Fix up the array if we detected this behavior.
-                     * See Issue 1237
-                     */
-                    uidParts[0] = uidParts[1];
-                    uidParts[1] = uidParts[2];
-                }
-                if (uidParts.length >= 2) {
-                    Integer msgNum = Integer.valueOf(uidParts[0]);
-                    String msgUid = uidParts[1];
-                    if (msgNum >= start && msgNum <= end) {
-                        Pop3Message message = msgNumToMsgMap.get(msgNum);
-                        if (message == null) {
-                            message = new Pop3Message(msgUid, this);
-                            indexMessage(msgNum, message);
-                        }
-                    }
+            // Ignore messages without a unique-id
+            if (uidParts.length >= 2) {
+                int msgNum = Integer.parseInt(uidParts[0]);
+                String msgUid = uidParts[1];
+                if (msgNum >= 1 && msgNum <= messageCount) {
+                    uids.set(msgNum - 1, msgUid);
+                } else {
+                    Timber.w("Ignoring UIDL response for message number outside of maildrop: %s", response);
                 }
             }
         }
+
+        uidlListing = new Pop3UidlListing(uids, mailboxSize);
+        return uidlListing;
     }
 
     private void indexUids(List<String> uids)
@@ -281,32 +473,18 @@ class Pop3Folder extends Folder<Pop3Message> {
         }
         /*
          * If we are missing uids in the cache the only sure way to
-         * get them is to do a full UIDL list. A possible optimization
-         * would be trying UIDL for the latest X messages and praying.
+         * get them is to do a full UIDL list, unless we still have a
+         * valid one from a previous session.
          */
-        connection.executeSimpleCommand(UIDL_COMMAND);
-        String response;
-        while ((response = connection.readLine()) != null) {
-            if (response.equals(".")) {
-                break;
-            }
-            String[] uidParts = response.split(" +");
-
-            // Ignore messages without a unique-id
-            if (uidParts.length >= 2) {
-                Integer msgNum = Integer.valueOf(uidParts[0]);
-                String msgUid = uidParts[1];
-                if (unindexedUids.contains(msgUid)) {
-                    if (K9MailLib.isDebug() && DEBUG_PROTOCOL_POP3) {
-                        Timber.d("Got msgNum %d for UID %s", msgNum, msgUid);
-                    }
-
-                    Pop3Message message = uidToMsgMap.get(msgUid);
-                    if (message == null) {
-                        message = new Pop3Message(msgUid, this);
-                    }
-                    indexMessage(msgNum, message);
+        Pop3UidlListing listing = (uidlListing != null) ? uidlListing : downloadUidlListing();
+        for (String msgUid : unindexedUids) {
+            Integer msgNum = listing.getMessageNumber(msgUid);
+            if (msgNum != null) {
+                if (K9MailLib.isDebug() && DEBUG_PROTOCOL_POP3) {
+                    Timber.d("Got msgNum %d for UID %s", msgNum, msgUid);
                 }
+
+                indexMessage(msgNum, new Pop3Message(msgUid, this));
             }
         }
     }
@@ -355,25 +533,35 @@ class Pop3Folder extends Folder<Pop3Message> {
         } catch (IOException ioe) {
             throw new MessagingException("fetch", ioe);
         }
+        int lines = -1;
+        if (!fp.contains(FetchProfile.Item.BODY) && fp.contains(FetchProfile.Item.BODY_SANE)) {
+            /*
+             * To convert the suggested download size we take the size
+             * divided by the maximum line size (76).
+             */
+            int maximumAutoDownloadMessageSize = pop3Store.getConfig().getMaximumAutoDownloadMessageSize();
+            if (maximumAutoDownloadMessageSize > 0) {
+                lines = maximumAutoDownloadMessageSize / 76;
+            }
+        }
+        boolean fetchBody = fp.contains(FetchProfile.Item.BODY) || fp.contains(FetchProfile.Item.BODY_SANE);
+        if (fetchBody && canPipelineBodyCommands(lines)) {
+            try {
+                fetchBodiesPipelined(messages, lines, fp, listener);
+            } catch (IOException ioe) {
+                throw new MessagingException("Unable to fetch message", ioe);
+            }
+            return;
+        }
+
         for (int i = 0, count = messages.size(); i < count; i++) {
             Pop3Message pop3Message = messages.get(i);
             try {
                 if (listener != null && !fp.contains(FetchProfile.Item.ENVELOPE)) {
                     listener.messageStarted(pop3Message.getUid(), i, count);
                 }
-                if (fp.contains(FetchProfile.Item.BODY)) {
-                    fetchBody(pop3Message, -1);
-                } else if (fp.contains(FetchProfile.Item.BODY_SANE)) {
-                    /*
-                     * To convert the suggested download size we take the size
-                     * divided by the maximum line size (76).
-                     */
-                    if (pop3Store.getConfig().getMaximumAutoDownloadMessageSize() > 0) {
-                        fetchBody(pop3Message,
-                                  (pop3Store.getConfig().getMaximumAutoDownloadMessageSize() / 76));
-                    } else {
-                        fetchBody(pop3Message, -1);
-                    }
+                if (fetchBody) {
+                    fetchBody(pop3Message, lines);
                 } else if (fp.contains(FetchProfile.Item.STRUCTURE)) {
                     /*
                      * If the user is requesting STRUCTURE we are required to set the body
@@ -390,6 +578,86 @@ class Pop3Folder extends Folder<Pop3Message> {
         }
     }
 
+    /**
+     * Pipelining is only used when we know in advance which command to send. That's always the case when the server
+     * advertised {@code PIPELINING}, since it then also supports {@code CAPA} and we don't have to probe for
+     * {@code TOP}.
+     */
+    private boolean canPipelineBodyCommands(int lines) {
+        return fetchPipelineDepth > 1 && connection.supportsPipelining() &&
+                (lines == -1 || connection.supportsTop() || connection.isTopNotAdvertised());
+    }
+
+    /**
+     * Fetches the bodies of the given messages while keeping up to {@link #fetchPipelineDepth} {@code TOP} or
+     * {@code RETR} commands in flight. Responses are parsed in the order the commands were sent.
+     */
+    private void fetchBodiesPipelined(List<Pop3Message> messages, int lines, FetchProfile fp,
+            MessageRetrievalListener<Pop3Message> listener) throws IOException, MessagingException {
+        int count = messages.size();
+        int sent = 0;
+        int received = 0;
+        try {
+            while (received < count) {
+                // Refill the window once half of it has been drained so we don't send one command per response.
+                if (sent < count && sent - received <= fetchPipelineDepth / 2) {
+                    int windowEnd = Math.min(received + fetchPipelineDepth, count);
+                    List<String> commands = new ArrayList<>(windowEnd - sent);
+                    for (; sent < windowEnd; sent++) {
+                        commands.add(getBodyCommand(messages.get(sent), lines));
+                    }
+                    connection.sendPipelinedCommands(commands);
+                }
+
+                int index = received++;
+                Pop3Message pop3Message = messages.get(index);
+                if (listener != null && !fp.contains(FetchProfile.Item.ENVELOPE)) {
+                    listener.messageStarted(pop3Message.getUid(), index, count);
+                }
+
+                connection.readCommandResponse();
+                parseBody(pop3Message, lines);
+
+                if (listener != null) {
+                    listener.messageFinished(pop3Message, index, count);
+                }
+            }
+        } catch (MessagingException e) {
+            skipPipelinedResponses(sent - received);
+            throw e;
+        }
+    }
+
+    private String getBodyCommand(Pop3Message message, int lines) {
+        int msgNum = uidToMsgNumMap.get(message.getUid());
+        if (lines != -1 && connection.supportsTop()) {
+            return String.format(Locale.US, TOP_COMMAND + " %d %d", msgNum, lines);
+        }
+
+        return String.format(Locale.US, RETR_COMMAND + " %d", msgNum);
+    }
+
+    /**
+     * Reads and discards the responses to commands that are still in flight so the connection can be used for other
+     * commands. If that fails the connection is closed.
+     */
+    private void skipPipelinedResponses(int responseCount) {
+        try {
+            for (int i = 0; i < responseCount; i++) {
+                try {
+                    connection.readCommandResponse();
+                } catch (Pop3ErrorResponse e) {
+                    continue;
+                }
+
+                skipResponse(new Pop3ResponseInputStream(connection.getInputStream()));
+            }
+        } catch (IOException | MessagingException e) {
+            Timber.w(e, "Unable to skip responses to pipelined commands. Closing connection.");
+            connection.close();
+        }
+    }
+
     private void fetchEnvelope(List<Pop3Message> messages,
                                MessageRetrievalListener<Pop3Message> listener)  throws IOException, MessagingException {
         int unsizedMessages = 0;
@@ -498,8 +766,13 @@ class Pop3Folder extends Folder<Pop3Message> {
                                  uidToMsgNumMap.get(message.getUid())));
         }
 
+        parseBody(message, lines);
+    }
+
+    private void parseBody(Pop3Message message, int lines) throws IOException, MessagingException {
+        Pop3ResponseInputStream responseStream = new Pop3ResponseInputStream(connection.getInputStream());
         try {
-            message.parse(new Pop3ResponseInputStream(connection.getInputStream()));
+            message.parse(responseStream);
 
             // TODO: if we've received fewer lines than requested we also have the complete message.
             if (lines == -1 || !connection.supportsTop()) {
@@ -513,9 +786,19 @@ class Pop3Folder extends Folder<Pop3Message> {
              * and can't parse it we need to let the user know.
              */
             if (lines == -1) {
+                skipResponse(responseStream);
                 throw me;
             }
         }
+
+        // Make sure the next response is read from the right position, even if parsing stopped early.
+        skipResponse(responseStream);
+    }
+
+    private static void skipResponse(Pop3ResponseInputStream responseStream) throws IOException {
+        while (responseStream.read() != -1) {
+            // Skip the rest of the multi-line response
+        }
     }
 
     @Override
@@ -572,6 +855,7 @@ class Pop3Folder extends Folder<Pop3Message> {
             }
             open(Folder.OPEN_MODE_RW);
             connection.executeSimpleCommand(String.format(DELE_COMMAND + " %s", msgNum));
+            deletedMessageNumbers.add(msgNum);
         }
     }
 
@@ -0,0 +1,94 @@
+package com.fsck.k9.mail.store.pop3;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * The unique IDs of all messages in a POP3 maildrop, as returned by a complete {@code UIDL} listing.
+ * <p>
+ * {@link Pop3Folder} keeps this around between sessions so it doesn't have to download the listing again as long
+ * as the maildrop didn't change, or only had messages appended to it.
+ * </p>
+ */
+class Pop3UidlListing {
+    /**
+     * The unique ID of message number {@code n} is stored at index {@code n - 1}. {@code null} if the server didn't
+     * report a unique ID for that message.
+     */
+    private final List<String> uids;
+    private Map<String, Integer> messageNumbers;
+    private long mailboxSize;
+
+
+    Pop3UidlListing(List<String> uids, long mailboxSize) {
+        this.uids = new ArrayList<>(uids);
+        this.mailboxSize = mailboxSize;
+    }
+
+    int getMessageCount() {
+        return uids.size();
+    }
+
+    /**
+     * @return The size of the maildrop in octets as reported by {@code STAT}, or {@code -1} if unknown.
+     */
+    long getMailboxSize() {
+        return mailboxSize;
+    }
+
+    void setMailboxSize(long mailboxSize) {
+        this.mailboxSize = mailboxSize;
+    }
+
+    String getUid(int msgNum) {
+        if (msgNum < 1 || msgNum > uids.size()) {
+            return null;
+        }
+
+        return uids.get(msgNum - 1);
+    }
+
+    Integer getMessageNumber(String uid) {
+        if (messageNumbers == null) {
+            messageNumbers = new HashMap<>(uids.size() * 2);
+            for (int i = 0, size = uids.size(); i < size; i++) {
+                String messageUid = uids.get(i);
+                if (messageUid != null) {
+                    messageNumbers.put(messageUid, i + 1);
+                }
+            }
+        }
+
+        return messageNumbers.get(uid);
+    }
+
+    void appendUid(String uid) {
+        uids.add(uid);
+        if (messageNumbers != null && uid != null) {
+            messageNumbers.put(uid, uids.size());
+        }
+    }
+
+    /**
+     * Removes the given messages and renumbers the remaining ones, like the server does when the deletions are
+     * committed at the end of a session.
+     */
+    void removeMessages(Set<Integer> msgNums) {
+        List<String> remainingUids = new ArrayList<>(uids.size());
+        for (int i = 0, size = uids.size(); i < size; i++) {
+            if (!msgNums.contains(i + 1)) {
+                remainingUids.add(uids.get(i));
+            }
+        }
+
+        uids.clear();
+        uids.addAll(remainingUids);
+        messageNumbers = null;
+        mailboxSize = -1;
+    }
+}
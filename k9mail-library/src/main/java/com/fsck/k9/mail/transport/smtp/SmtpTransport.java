@@ -302,6 +302,7 @@ public class SmtpTransport extends Transport {
             throw e;
         } catch (SSLException e) {
             close();
+            trustedSocketFactory.invalidateTlsSessions(host, port, clientCertificateAlias);
             throw new CertificateValidationException(e.getMessage(), e);
         } catch (GeneralSecurityException gse) {
             close();
@@ -4,6 +4,7 @@ package com.fsck.k9.mail;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
@@ -186,4 +187,53 @@ public class AddressTest {
         Address address = Address.parse("=?utf-8?b?invalid#?= <oops@example.com>")[0];
         assertEquals("oops@example.com", address.getAddress());
     }
+
+    @Test
+    public void pack_shouldSeparateAddressesAndPersonalNames() throws Exception {
+        Address[] addresses = new Address[] {
+                new Address("alice@example.org", "Alice \"Ally\" Example"),
+                new Address("bob@example.org")
+        };
+
+        String packed = Address.pack(addresses);
+
+        assertEquals("alice@example.org;\u0000Alice \"Ally\" Example,\u0000bob@example.org", packed);
+    }
+
+    @Test
+    public void unpack_withPackedList_shouldRestoreAddresses() throws Exception {
+        Address[] addresses = new Address[] {
+                new Address("alice@example.org", "Alice"),
+                new Address("bob@example.org"),
+                new Address("carol@example.org", "Carol, C.")
+        };
+
+        Address[] result = Address.unpack(Address.pack(addresses));
+
+        assertArrayEquals(addresses, result);
+        assertEquals("Carol, C.", result[2].getPersonal());
+        assertNull(result[1].getPersonal());
+    }
+
+    @Test
+    public void unpack_withNullOrEmptyList_shouldReturnEmptyArray() throws Exception {
+        assertEquals(0, Address.unpack(null).length);
+        assertEquals(0, Address.unpack("").length);
+    }
+
+    @Test
+    public void unpackFirst_shouldOnlyReturnFirstAddress() throws Exception {
+        String packed = "alice@example.org;\u0000Alice,\u0000bob@example.org;\u0000Bob";
+
+        Address result = Address.unpackFirst(packed);
+
+        assertEquals("alice@example.org", result.getAddress());
+        assertEquals("Alice", result.getPersonal());
+    }
+
+    @Test
+    public void unpackFirst_withEmptyList_shouldReturnNull() throws Exception {
+        assertNull(Address.unpackFirst(null));
+        assertNull(Address.unpackFirst(""));
+    }
 }
@@ -43,4 +43,8 @@ public class TestTrustedSocketFactory implements TrustedSocketFactory {
                 socket.getPort(),
                 true);
     }
+
+    @Override
+    public void invalidateTlsSessions(String host, int port, String clientCertificateAlias) {
+    }
 }
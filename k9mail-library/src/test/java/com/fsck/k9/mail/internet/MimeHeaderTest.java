@@ -0,0 +1,108 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayOutputStream;
+
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class MimeHeaderTest {
+    private MimeHeader header;
+
+
+    @Before
+    public void setUp() throws Exception {
+        header = new MimeHeader();
+    }
+
+    @Test
+    public void getFirstHeader_shouldIgnoreCase() throws Exception {
+        header.addHeader("Content-Type", "text/plain");
+
+        assertEquals("text/plain", header.getFirstHeader("content-type"));
+        assertEquals("text/plain", header.getFirstHeader("CONTENT-TYPE"));
+    }
+
+    @Test
+    public void getFirstHeader_withUnknownHeader_shouldReturnNull() throws Exception {
+        header.addHeader("Subject", "Hello");
+
+        assertNull(header.getFirstHeader("X-Unknown"));
+    }
+
+    @Test
+    public void getHeader_withMultipleFields_shouldReturnValuesInOrder() throws Exception {
+        header.addRawHeader("Received", "Received: from a");
+        header.addHeader("Subject", "Hello");
+        header.addRawHeader("received", "received: from b");
+
+        assertArrayEquals(new String[] { "from a", "from b" }, header.getHeader("Received"));
+    }
+
+    @Test
+    public void removeHeader_shouldKeepOrderOfRemainingFields() throws Exception {
+        header.addHeader("From", "alice@example.org");
+        header.addRawHeader("X-Custom", "X-Custom: 1");
+        header.addHeader("To", "bob@example.org");
+        header.addRawHeader("x-custom", "x-custom: 2");
+
+        header.removeHeader("X-CUSTOM");
+
+        assertEquals("From: alice@example.org\r\nTo: bob@example.org\r\n", header.toString());
+        assertNull(header.getFirstHeader("X-Custom"));
+    }
+
+    @Test
+    public void setHeader_shouldReplaceAllFieldsAndAppend() throws Exception {
+        header.addHeader("Subject", "one");
+        header.addHeader("From", "alice@example.org");
+        header.addHeader("subject", "two");
+
+        header.setHeader("Subject", "three");
+
+        assertArrayEquals(new String[] { "three" }, header.getHeader("SUBJECT"));
+        assertEquals("From: alice@example.org\r\nSubject: three\r\n", header.toString());
+    }
+
+    @Test
+    public void writeTo_shouldWriteRawDataUnchanged() throws Exception {
+        header.addRawHeader("Subject", "Subject: folded\r\n line");
+        header.addHeader("To", "bob@example.org");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        header.writeTo(out);
+
+        assertEquals("Subject: folded\r\n line\r\nTo: bob@example.org\r\n", out.toString("US-ASCII"));
+    }
+
+    @Test
+    public void clone_shouldNotShareIndex() throws Exception {
+        header.addHeader("Subject", "Hello");
+        MimeHeader clone = header.clone();
+
+        clone.removeHeader("Subject");
+        clone.addHeader("Subject", "Changed");
+
+        assertEquals("Hello", header.getFirstHeader("Subject"));
+        assertEquals("Changed", clone.getFirstHeader("Subject"));
+        assertEquals("Subject: Hello\r\n", header.toString());
+    }
+
+    @Test
+    public void clear_shouldRemoveAllFields() throws Exception {
+        header.addHeader("Subject", "Hello");
+
+        header.clear();
+
+        assertNull(header.getFirstHeader("Subject"));
+        assertEquals(0, header.getHeaderNames().size());
+    }
+}
@@ -0,0 +1,103 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.fsck.k9.mail.NetworkType;
+import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class CompressionParametersTest {
+    private static final String SYNC_SESSION_RESOURCE = "/imap/sync-session.txt";
+
+
+    private byte[] syncSession;
+
+
+    @Before
+    public void setUp() throws Exception {
+        InputStream inputStream = CompressionParametersTest.class.getResourceAsStream(SYNC_SESSION_RESOURCE);
+        try {
+            syncSession = IOUtils.toByteArray(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Test
+    public void forNetworkType_withMobile_shouldUseHigherLevelThanWifi() throws Exception {
+        CompressionParameters mobile = CompressionParameters.forNetworkType(NetworkType.MOBILE);
+        CompressionParameters wifi = CompressionParameters.forNetworkType(NetworkType.WIFI);
+
+        assertEquals(JZlib.Z_DEFAULT_COMPRESSION, mobile.getLevel());
+        assertEquals(JZlib.Z_BEST_SPEED, wifi.getLevel());
+        assertTrue(wifi.getInputBufferSize() > mobile.getInputBufferSize());
+    }
+
+    @Test
+    public void forNetworkType_withUnknownNetwork_shouldUseParametersForOther() throws Exception {
+        assertSame(CompressionParameters.forNetworkType(NetworkType.OTHER), CompressionParameters.forNetworkType(null));
+    }
+
+    @Test
+    public void deflate_syncSession_shouldRoundTripForAllNetworkTypes() throws Exception {
+        for (NetworkType networkType : NetworkType.values()) {
+            CompressionParameters parameters = CompressionParameters.forNetworkType(networkType);
+
+            byte[] compressed = deflate(syncSession, parameters);
+            byte[] uncompressed = inflate(compressed, parameters);
+
+            assertArrayEquals(syncSession, uncompressed);
+            assertTrue(networkType + " should at least halve the session size",
+                    compressed.length * 2 < syncSession.length);
+        }
+    }
+
+    @Test
+    public void deflate_syncSession_shouldCompressBetterOnMobile() throws Exception {
+        byte[] mobile = deflate(syncSession, CompressionParameters.forNetworkType(NetworkType.MOBILE));
+        byte[] wifi = deflate(syncSession, CompressionParameters.forNetworkType(NetworkType.WIFI));
+
+        assertTrue(mobile.length <= wifi.length);
+    }
+
+    private byte[] deflate(byte[] data, CompressionParameters parameters) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ZOutputStream output = new ZOutputStream(compressed, parameters.getLevel(), true);
+        output.setFlushMode(JZlib.Z_PARTIAL_FLUSH);
+
+        // Write line by line, flushing after each line like ImapConnection does after each command or response.
+        int start = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == '\n') {
+                output.write(data, start, i + 1 - start);
+                output.flush();
+                start = i + 1;
+            }
+        }
+        output.write(data, start, data.length - start);
+        output.close();
+
+        return compressed.toByteArray();
+    }
+
+    private byte[] inflate(byte[] data, CompressionParameters parameters) throws IOException {
+        InflaterInputStream input = new InflaterInputStream(new ByteArrayInputStream(data), new Inflater(true),
+                parameters.getInputBufferSize());
+        return IOUtils.toByteArray(input);
+    }
+}
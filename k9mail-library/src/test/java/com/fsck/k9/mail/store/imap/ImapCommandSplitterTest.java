@@ -46,10 +46,19 @@ public class ImapCommandSplitterTest {
 
         assertEquals(commands.size(), 2);
         assertCommandLengthLimit(commands, 980);
-        verifyCommandString(commands.get(0), Sets.union(
-                createNonContiguousIdSet(10000, 10298, 2),
-                createNonContiguousIdSet(10402, 10418, 2)));
-        verifyCommandString(commands.get(1), createNonContiguousIdSet(10420, 10500, 2), "10300:10400");
+        assertEquals(COMMAND_PREFIX + " " + joinSorted(createNonContiguousIdSet(10000, 10298, 2)) +
+                ",10300:10400," + joinSorted(createNonContiguousIdSet(10402, 10414, 2)) + " " + COMMAND_SUFFIX,
+                commands.get(0));
+        verifyCommandString(commands.get(1), createNonContiguousIdSet(10416, 10500, 2));
+    }
+
+    @Test
+    public void splitCommand_shouldWriteSequenceSetInAscendingOrder() throws Exception {
+        GroupedIds groupedIds = IdGrouper.groupIds(Sets.newHashSet(600L, 1L, 2L, 3L, 502L, 601L, 602L, 900L));
+
+        List<String> commands = ImapCommandSplitter.splitCommand(COMMAND_PREFIX, COMMAND_SUFFIX, groupedIds, 980);
+
+        assertEquals(singletonList("UID COPY 1:3,502,600:602,900 \"Destination\""), commands);
     }
 
     @Test
@@ -72,22 +81,12 @@ public class ImapCommandSplitterTest {
     }
 
     private void verifyCommandString(String actualCommand, Set<Long> ids) {
-        verifyCommandString(actualCommand, ids, null);
-    }
-
-    private void verifyCommandString(String actualCommand, Set<Long> ids, String idGroupString) {
-        Set<Long> sortedIds = new TreeSet<>(ids);
-        StringBuilder expectedCommandBuilder = new StringBuilder(COMMAND_PREFIX)
-                .append(" ")
-                .append(ImapUtility.join(",", sortedIds));
-
-        if (idGroupString != null) {
-            expectedCommandBuilder.append(',').append(idGroupString);
-        }
-
-        expectedCommandBuilder.append(" ").append(COMMAND_SUFFIX);
-        String expectedCommand = expectedCommandBuilder.toString();
+        String expectedCommand = COMMAND_PREFIX + " " + joinSorted(ids) + " " + COMMAND_SUFFIX;
 
         assertEquals(expectedCommand, actualCommand);
     }
+
+    private static String joinSorted(Set<Long> ids) {
+        return ImapUtility.join(",", new TreeSet<>(ids));
+    }
 }
@@ -3,6 +3,7 @@ package com.fsck.k9.mail.store.imap;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.Collections;
 import java.util.List;
 
 import android.app.Activity;
@@ -30,6 +31,7 @@ import org.robolectric.shadows.ShadowLog;
 import static org.hamcrest.core.StringContains.containsString;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -600,6 +602,64 @@ public class ImapConnectionTest {
         assertTrue(imapConnection.isIdleCapable());
     }
 
+    @Test
+    public void open_withCapabilitySnapshotFromPreviousConnection_shouldNotIssueCapabilityCommands()
+            throws Exception {
+        settings.setAuthType(AuthType.PLAIN);
+        MockImapServer firstServer = new MockImapServer();
+        preAuthenticationDialog(firstServer, "AUTH=PLAIN");
+        firstServer.expect("2 AUTHENTICATE PLAIN");
+        firstServer.output("+");
+        firstServer.expect(ByteString.encodeUtf8("\000" + USERNAME + "\000" + PASSWORD).base64());
+        firstServer.output("2 OK Success");
+        firstServer.expect("3 CAPABILITY");
+        firstServer.output("* CAPABILITY IDLE");
+        firstServer.output("3 OK CAPABILITY Completed");
+        simplePostAuthenticationDialog(firstServer, 4);
+        startServerAndCreateImapConnection(firstServer).open();
+        firstServer.verifyInteractionCompleted();
+
+        MockImapServer server = new MockImapServer();
+        server.output("* OK IMAP4rev1 Service Ready");
+        server.expect("1 AUTHENTICATE PLAIN");
+        server.output("+");
+        server.expect(ByteString.encodeUtf8("\000" + USERNAME + "\000" + PASSWORD).base64());
+        server.output("1 OK Success");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        imapConnection.open();
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+        assertTrue(imapConnection.isIdleCapable());
+    }
+
+    @Test
+    public void open_withAuthenticationFailureWhileUsingCapabilitySnapshot_shouldDiscardSnapshot() throws Exception {
+        settings.setAuthType(AuthType.PLAIN);
+        settings.setCapabilitySnapshot(new ImapCapabilitySnapshot(
+                Collections.singleton("AUTH=PLAIN"), Collections.singleton("IDLE")));
+        MockImapServer server = new MockImapServer();
+        server.output("* OK IMAP4rev1 Service Ready");
+        server.expect("1 AUTHENTICATE PLAIN");
+        server.output("+");
+        server.expect(ByteString.encodeUtf8("\000" + USERNAME + "\000" + PASSWORD).base64());
+        server.output("1 NO Login Failure");
+        server.expect("2 LOGIN \"" + USERNAME + "\" \"" + PASSWORD + "\"");
+        server.output("2 NO Go away");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        try {
+            imapConnection.open();
+            fail("Expected exception");
+        } catch (AuthenticationFailedException e) {
+            assertNull(settings.getCapabilitySnapshot());
+        }
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
     @Test
     public void open_withNamespaceCapability_shouldIssueNamespaceCommand() throws Exception {
         MockImapServer server = new MockImapServer();
@@ -729,6 +789,35 @@ public class ImapConnectionTest {
         server.verifyInteractionCompleted();
     }
 
+    @Test
+    public void getCompressionStatistics_withCompressionEnabled_shouldCountBytes() throws Exception {
+        settings.setUseCompression(true);
+        MockImapServer server = new MockImapServer();
+        simplePreAuthAndLoginDialog(server, "COMPRESS=DEFLATE");
+        server.expect("3 COMPRESS DEFLATE");
+        server.output("3 OK");
+        server.enableCompression();
+        simplePostAuthenticationDialog(server, 4);
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        imapConnection.open();
+
+        CompressionStatistics statistics = imapConnection.getCompressionStatistics();
+        server.verifyInteractionCompleted();
+        assertEquals("4 LIST \"\" \"\"\r\n".length(), statistics.getUncompressedBytesWritten());
+        assertTrue(statistics.getCompressedBytesWritten() > 0);
+        assertEquals("* LIST () \"/\" foo/bar\r\n4 OK\r\n".length(), statistics.getUncompressedBytesRead());
+        assertTrue(statistics.getCompressedBytesRead() > 0);
+    }
+
+    @Test
+    public void getCompressionStatistics_withoutCompression_shouldReturnNull() throws Exception {
+        MockImapServer server = new MockImapServer();
+        ImapConnection imapConnection = simpleOpen(server);
+
+        assertNull(imapConnection.getCompressionStatistics());
+    }
+
     @Test
     public void open_withNegativeResponseToCompressionCommand_shouldContinue() throws Exception {
         settings.setAuthType(AuthType.PLAIN);
@@ -32,6 +32,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.robolectric.RuntimeEnvironment;
@@ -56,6 +57,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -80,6 +82,7 @@ public class ImapFolderTest {
         when(imapStore.getStoreConfig()).thenReturn(storeConfig);
 
         imapConnection = mock(ImapConnection.class);
+        when(imapConnection.getLineLengthLimit()).thenReturn(980);
     }
 
     @Test
@@ -112,6 +115,33 @@ public class ImapFolderTest {
         assertEquals(23, imapFolder.getMessageCount());
     }
 
+    @Test
+    public void open_withCondstoreCapableServer_shouldEnableCondstoreAndStoreHighestModSeq() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        when(imapStore.getConnection()).thenReturn(imapConnection);
+        when(imapConnection.isCondstoreCapable()).thenReturn(true);
+        List<ImapResponse> selectResponses = asList(
+                createImapResponse("* 23 EXISTS"),
+                createImapResponse("* OK [HIGHESTMODSEQ 715194045007] Highest"),
+                createImapResponse("2 OK [READ-WRITE] Select completed.")
+        );
+        when(imapConnection.executeSimpleCommand("SELECT \"Folder\" (CONDSTORE)")).thenReturn(selectResponses);
+
+        imapFolder.open(OPEN_MODE_RW);
+
+        assertEquals(715194045007L, imapFolder.getHighestModSeq());
+    }
+
+    @Test
+    public void open_withoutHighestModSeqResponse_shouldReturnUnknownHighestModSeq() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+
+        imapFolder.open(OPEN_MODE_RW);
+
+        assertEquals(Folder.UNKNOWN_MOD_SEQ, imapFolder.getHighestModSeq());
+    }
+
     @Test
     public void open_readWrite_shouldMakeGetModeReturnReadWrite() throws Exception {
         ImapFolder imapFolder = createFolder("Folder");
@@ -916,6 +946,119 @@ public class ImapFolderTest {
         verify(imapMessage).setFlagInternal(Flag.SEEN, true);
     }
 
+    @Test
+    public void fetch_withMoreWindowsThanPipelineDepth_shouldSendNextWindowAfterFirstTaggedResponse()
+            throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        List<ImapMessage> messages = createImapMessages(createUids(1, 350));
+        FetchProfile fetchProfile = createFetchProfile(Item.BODY);
+        when(imapConnection.sendCommand(startsWith("UID FETCH"), eq(false))).thenReturn("3", "4", "5", "6");
+        when(imapConnection.readResponse(nullable(ImapResponseCallback.class)))
+                .thenReturn(createImapResponse("3 OK"))
+                .thenReturn(createImapResponse("4 OK"))
+                .thenReturn(createImapResponse("5 OK"))
+                .thenReturn(createImapResponse("6 OK"));
+
+        folder.fetch(messages, fetchProfile, null);
+
+        InOrder inOrder = inOrder(imapConnection);
+        inOrder.verify(imapConnection).sendCommand(createFetchCommand(1, 100, "BODY.PEEK[]"), false);
+        inOrder.verify(imapConnection).sendCommand(createFetchCommand(101, 200, "BODY.PEEK[]"), false);
+        inOrder.verify(imapConnection).sendCommand(createFetchCommand(201, 300, "BODY.PEEK[]"), false);
+        inOrder.verify(imapConnection).readResponse(nullable(ImapResponseCallback.class));
+        inOrder.verify(imapConnection).sendCommand(createFetchCommand(301, 350, "BODY.PEEK[]"), false);
+        inOrder.verify(imapConnection, times(3)).readResponse(nullable(ImapResponseCallback.class));
+    }
+
+    @Test
+    public void fetch_withPipelinedWindows_shouldProcessResponsesForAllWindows() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        List<ImapMessage> messages = createImapMessages(createUids(1, 150));
+        FetchProfile fetchProfile = createFetchProfile(Item.FLAGS, Item.BODY);
+        when(imapConnection.sendCommand(startsWith("UID FETCH"), eq(false))).thenReturn("3", "4");
+        when(imapConnection.readResponse(nullable(ImapResponseCallback.class)))
+                .thenReturn(createImapResponse("* 1 FETCH (FLAGS (\\Seen) UID 1)"))
+                .thenReturn(createImapResponse("3 OK"))
+                .thenReturn(createImapResponse("* 150 FETCH (FLAGS (\\Flagged) UID 150)"))
+                .thenReturn(createImapResponse("4 OK"));
+
+        folder.fetch(messages, fetchProfile, null);
+
+        verify(messages.get(0)).setFlagInternal(Flag.SEEN, true);
+        verify(messages.get(149)).setFlagInternal(Flag.FLAGGED, true);
+    }
+
+    @Test
+    public void fetch_withFlagsFetchProfile_shouldSendCompressedUidSetInSingleCommand() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        List<ImapMessage> messages = createImapMessages(createUids(1, 500));
+        messages.addAll(createImapMessages("502", "600"));
+        FetchProfile fetchProfile = createFetchProfile(Item.FLAGS);
+        when(imapConnection.sendCommand(startsWith("UID FETCH"), eq(false))).thenReturn("3");
+        when(imapConnection.readResponse(nullable(ImapResponseCallback.class)))
+                .thenReturn(createImapResponse("3 OK"));
+
+        folder.fetch(messages, fetchProfile, null);
+
+        verify(imapConnection).sendCommand("UID FETCH 1:500,502,600 (UID FLAGS)", false);
+    }
+
+    @Test
+    public void fetch_withBodyFetchProfileAndLargeMessages_shouldUseSmallerWindows() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        List<ImapMessage> messages = createImapMessages(createUids(1, 20));
+        for (ImapMessage message : messages) {
+            when(message.getSize()).thenReturn(1024L * 1024L);
+        }
+        FetchProfile fetchProfile = createFetchProfile(Item.BODY);
+        when(imapConnection.readResponse(nullable(ImapResponseCallback.class))).thenReturn(createImapResponse("x OK"));
+
+        folder.fetch(messages, fetchProfile, null);
+
+        verify(imapConnection).sendCommand(createFetchCommand(1, 10, "BODY.PEEK[]"), false);
+        verify(imapConnection).sendCommand(createFetchCommand(11, 20, "BODY.PEEK[]"), false);
+    }
+
+    @Test
+    public void fetchChangedFlags_shouldIssueUidFetchWithChangedSinceModifier() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        List<ImapMessage> messages = createImapMessages("1", "2");
+        when(imapConnection.executeSimpleCommand("UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE 12345)"))
+                .thenReturn(singletonList(createImapResponse("x OK")));
+
+        folder.fetchChangedFlags(messages, 12345L);
+
+        verify(imapConnection).executeSimpleCommand("UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE 12345)");
+    }
+
+    @Test
+    public void fetchChangedFlags_shouldOnlyReturnMessagesWithChangedFlags() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        List<ImapMessage> messages = createImapMessages("1", "2", "3");
+        when(imapConnection.executeSimpleCommand("UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE 12345)")).thenReturn(asList(
+                createImapResponse("* 2 FETCH (UID 2 FLAGS (\\Seen) MODSEQ (12346))"),
+                createImapResponse("* 4 FETCH (UID 4 FLAGS (\\Seen) MODSEQ (12347))"),
+                createImapResponse("x OK")
+        ));
+
+        List<ImapMessage> changedMessages = folder.fetchChangedFlags(messages, 12345L);
+
+        assertEquals(singletonList(messages.get(1)), changedMessages);
+        verify(messages.get(1)).setFlagInternal(Flag.SEEN, true);
+    }
+
     @Test
     public void fetchPart_withTextSection_shouldIssueRespectiveCommand() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -1210,6 +1353,19 @@ public class ImapFolderTest {
         return imapMessages;
     }
 
+    private String[] createUids(int first, int last) {
+        String[] uids = new String[last - first + 1];
+        for (int i = 0; i < uids.length; i++) {
+            uids[i] = Integer.toString(first + i);
+        }
+
+        return uids;
+    }
+
+    private String createFetchCommand(int firstUid, int lastUid, String fetchFields) {
+        return "UID FETCH " + firstUid + ":" + lastUid + " (UID " + fetchFields + ")";
+    }
+
     private Part createPart(String serverExtra) {
         Part part = mock(Part.class);
         when(part.getServerExtra()).thenReturn(serverExtra);
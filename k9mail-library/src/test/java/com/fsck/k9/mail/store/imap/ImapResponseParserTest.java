@@ -218,6 +218,65 @@ public class ImapResponseParserTest {
         assertEquals("", response.getString(0));
     }
 
+    @Test
+    public void readResponse_withManySmallLiterals_shouldReuseLiteralBuffer() throws Exception {
+        StringBuilder responses = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            responses.append("* ").append(i).append(" FETCH (UID ").append(i)
+                    .append(" BODY[HEADER] {").append(10 + i).append("}\r\n");
+            for (int j = 0; j < 10 + i; j++) {
+                responses.append('x');
+            }
+            responses.append(")\r\n");
+        }
+        ImapResponseParser parser = createParser(responses.toString());
+
+        for (int i = 0; i < 100; i++) {
+            ImapResponse response = parser.readResponse();
+            ImapList fetchList = response.getList(2);
+            assertEquals(10 + i, fetchList.getString(4).length());
+        }
+
+        assertEquals(1, parser.getLiteralBufferAllocations());
+        assertAllInputConsumed();
+    }
+
+    @Test
+    public void readResponse_withGrowingLiterals_shouldOnlyAllocateWhenBufferIsTooSmall() throws Exception {
+        String smallLiteral = createLiteralResponse(100);
+        String largerLiteral = createLiteralResponse(10000);
+        ImapResponseParser parser = createParser(smallLiteral + largerLiteral + smallLiteral + largerLiteral);
+
+        assertEquals(100, parser.readResponse().getString(0).length());
+        assertEquals(10000, parser.readResponse().getString(0).length());
+        assertEquals(100, parser.readResponse().getString(0).length());
+        assertEquals(10000, parser.readResponse().getString(0).length());
+
+        assertEquals(2, parser.getLiteralBufferAllocations());
+    }
+
+    @Test
+    public void readResponse_withLiteralsLargerThanPoolLimit_shouldNotRetainBuffer() throws Exception {
+        int size = ImapResponseParser.MAX_POOLED_LITERAL_SIZE + 1;
+        String largeLiteral = createLiteralResponse(size);
+        ImapResponseParser parser = createParser(largeLiteral + largeLiteral);
+
+        assertEquals(size, parser.readResponse().getString(0).length());
+        assertEquals(size, parser.readResponse().getString(0).length());
+
+        assertEquals(2, parser.getLiteralBufferAllocations());
+    }
+
+    @Test
+    public void readResponse_withLiteralConsumedByCallback_shouldNotAllocateLiteralBuffer() throws Exception {
+        ImapResponseParser parser = createParser("* {4}\r\ntest\r\n");
+        TestImapResponseCallback callback = TestImapResponseCallback.readBytesAndReturn(4, "cheeseburger");
+
+        parser.readResponse(callback);
+
+        assertEquals(0, parser.getLiteralBufferAllocations());
+    }
+
     @Test(expected = IOException.class)
     public void testParseLiteralToEndOfStream() throws Exception {
         ImapResponseParser parser = createParser("* {4}\r\nabc");
@@ -489,6 +548,16 @@ public class ImapResponseParserTest {
         return new ImapResponseParser(peekableInputStream);
     }
 
+    private String createLiteralResponse(int size) {
+        StringBuilder sb = new StringBuilder(size + 16);
+        sb.append("* {").append(size).append("}\r\n");
+        for (int i = 0; i < size; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        sb.append("\r\n");
+        return sb.toString();
+    }
+
     private void assertAllInputConsumed() throws IOException {
         assertEquals(0, peekableInputStream.available());
     }
@@ -17,6 +17,7 @@ class SimpleImapSettings implements ImapSettings {
     private String pathDelimiter;
     private String combinedPrefix;
     private boolean useCompression = false;
+    private ImapCapabilitySnapshot capabilitySnapshot;
 
 
     @Override
@@ -89,6 +90,16 @@ class SimpleImapSettings implements ImapSettings {
         combinedPrefix = prefix;
     }
 
+    @Override
+    public ImapCapabilitySnapshot getCapabilitySnapshot() {
+        return capabilitySnapshot;
+    }
+
+    @Override
+    public void setCapabilitySnapshot(ImapCapabilitySnapshot snapshot) {
+        capabilitySnapshot = snapshot;
+    }
+
     void setHost(String host) {
         this.host = host;
     }
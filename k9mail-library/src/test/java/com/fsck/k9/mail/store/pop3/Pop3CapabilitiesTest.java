@@ -13,7 +13,7 @@ public class Pop3CapabilitiesTest {
         String result = new Pop3Capabilities().toString();;
 
         assertEquals(
-                "CRAM-MD5 false, PLAIN false, STLS false, TOP false, UIDL false, EXTERNAL false",
+                "CRAM-MD5 false, PLAIN false, STLS false, TOP false, UIDL false, EXTERNAL false, PIPELINING false",
                 result);
     }
 }
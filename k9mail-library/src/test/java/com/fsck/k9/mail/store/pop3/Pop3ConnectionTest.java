@@ -135,6 +135,21 @@ public class Pop3ConnectionTest {
         connection.open();
     }
 
+    @Test
+    public void open_whenTrustedSocketFactoryThrowsSSLException_shouldInvalidateTlsSessions() throws Exception {
+        when(mockTrustedSocketFactory.createSocket(null, host, port, null)).thenThrow(new SSLException("handshake"));
+        addSettingsForValidMockSocket();
+        settings.setAuthType(AuthType.PLAIN);
+        Pop3Connection connection = new Pop3Connection(settings, mockTrustedSocketFactory);
+
+        try {
+            connection.open();
+            fail("Expected MessagingException");
+        } catch (MessagingException e) {
+            verify(mockTrustedSocketFactory).invalidateTlsSessions(host, port, null);
+        }
+    }
+
     @Test(expected = MessagingException.class)
     public void open_whenTrustedSocketFactoryThrowsCertificateException_throwMessagingException() throws Exception {
         when(mockTrustedSocketFactory.createSocket(null, host, port, null)).thenThrow(
@@ -6,6 +6,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.List;
 
 import com.fsck.k9.mail.FetchProfile;
@@ -24,6 +25,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -48,6 +50,7 @@ public class Pop3FolderTest {
         mockListener = mock(MessageRetrievalListener.class);
         when(mockStore.getConfig()).thenReturn(mockStoreConfig);
         when(mockStoreConfig.getInboxFolder()).thenReturn(Pop3Folder.INBOX);
+        when(mockStoreConfig.getPop3FetchPipelineDepth()).thenReturn(10);
         when(mockStore.createConnection()).thenReturn(mockConnection);
         when(mockConnection.executeSimpleCommand(Pop3Commands.STAT_COMMAND)).thenReturn("+OK 10 0");
         folder = new Pop3Folder(mockStore, Pop3Folder.INBOX);
@@ -320,8 +323,179 @@ public class Pop3FolderTest {
         assertEquals("this is some test text.", new String(bodyData.toByteArray(), "UTF-8"));
     }
 
+    @Test
+    public void fetch_withBodyProfileAndPipelining_sendsAllCommandsBeforeReadingResponses() throws Exception {
+        InputStream messageInputStream = new ByteArrayInputStream((
+                "Subject: First\r\n" +
+                "\r\n" +
+                "first\r\n" +
+                ".\r\n" +
+                "Subject: Second\r\n" +
+                "\r\n" +
+                "..second\r\n" +
+                ".\r\n").getBytes());
+        when(mockConnection.supportsPipelining()).thenReturn(true);
+        when(mockConnection.readCommandResponse()).thenReturn("+OK");
+        when(mockConnection.getInputStream()).thenReturn(messageInputStream);
+        folder.open(Folder.OPEN_MODE_RW);
+        List<Pop3Message> messageList = setupMessagesFromServer();
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(Item.BODY);
+
+        folder.fetch(messageList, fetchProfile, mockListener);
+
+        verify(mockConnection).sendPipelinedCommands(Arrays.asList("RETR 1", "RETR 2"));
+        verify(mockConnection, times(2)).readCommandResponse();
+        assertEquals("First", messageList.get(0).getSubject());
+        assertEquals("Second", messageList.get(1).getSubject());
+        ByteArrayOutputStream bodyData = new ByteArrayOutputStream();
+        messageList.get(1).getBody().writeTo(bodyData);
+        assertEquals(".second\r\n", new String(bodyData.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void fetch_withPipelineDepthOne_shouldNotPipelineCommands() throws Exception {
+        InputStream messageInputStream = new ByteArrayInputStream("Subject: Test\r\n\r\ntext\r\n.\r\n".getBytes());
+        when(mockConnection.supportsPipelining()).thenReturn(true);
+        when(mockConnection.getInputStream()).thenReturn(messageInputStream);
+        when(mockStoreConfig.getPop3FetchPipelineDepth()).thenReturn(1);
+        folder.open(Folder.OPEN_MODE_RW);
+        List<Pop3Message> messageList = setupMessageFromServer();
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(Item.BODY);
+
+        folder.fetch(messageList, fetchProfile, mockListener);
+
+        verify(mockConnection).executeSimpleCommand("RETR 1");
+        verify(mockConnection, never()).readCommandResponse();
+    }
+
+    @Test
+    public void fetch_withPipeliningAndErrorResponse_shouldSkipRemainingResponses() throws Exception {
+        InputStream messageInputStream = new ByteArrayInputStream("Subject: Second\r\n\r\ntext\r\n.\r\n".getBytes());
+        when(mockConnection.supportsPipelining()).thenReturn(true);
+        when(mockConnection.readCommandResponse())
+                .thenThrow(new Pop3ErrorResponse("-ERR no such message"))
+                .thenReturn("+OK");
+        when(mockConnection.getInputStream()).thenReturn(messageInputStream);
+        folder.open(Folder.OPEN_MODE_RW);
+        List<Pop3Message> messageList = setupMessagesFromServer();
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(Item.BODY);
+
+        try {
+            folder.fetch(messageList, fetchProfile, mockListener);
+            fail("Expected exception");
+        } catch (Pop3ErrorResponse e) {
+            assertEquals("-ERR no such message", e.getMessage());
+        }
+
+        verify(mockConnection, times(2)).readCommandResponse();
+        assertEquals(-1, messageInputStream.read());
+        verify(mockConnection, never()).close();
+    }
+
+    @Test
+    public void getMessages_inNextSessionWithAppendedMessagesAndPipelining_shouldRequestNewUidsInOneBatch()
+            throws Exception {
+        when(mockConnection.executeSimpleCommand(Pop3Commands.STAT_COMMAND)).thenReturn("+OK 2 100");
+        when(mockConnection.executeSimpleCommand("UIDL 2")).thenReturn("+OK 2 efgh");
+        openAndDownloadUidlListing();
+        when(mockConnection.executeSimpleCommand(Pop3Commands.STAT_COMMAND)).thenReturn("+OK 4 200");
+        when(mockConnection.supportsPipelining()).thenReturn(true);
+        when(mockConnection.readCommandResponse()).thenReturn("+OK 3 ijkl").thenReturn("+OK 4 mnop");
+
+        folder.open(Folder.OPEN_MODE_RW);
+        List<Pop3Message> result = folder.getMessages(1, 4, null, mockListener);
+
+        assertEquals("ijkl", result.get(2).getUid());
+        assertEquals("mnop", result.get(3).getUid());
+        verify(mockConnection).sendPipelinedCommands(Arrays.asList("UIDL 3", "UIDL 4"));
+        verify(mockConnection, times(1)).executeSimpleCommand(Pop3Commands.UIDL_COMMAND);
+    }
+
+    @Test
+    public void getMessages_inNextSessionWithUnchangedMaildrop_shouldReuseUidlListing() throws Exception {
+        when(mockConnection.executeSimpleCommand(Pop3Commands.STAT_COMMAND)).thenReturn("+OK 2 100");
+        when(mockConnection.executeSimpleCommand("UIDL 2")).thenReturn("+OK 2 efgh");
+        openAndDownloadUidlListing();
+
+        folder.open(Folder.OPEN_MODE_RW);
+        List<Pop3Message> result = folder.getMessages(1, 2, null, mockListener);
+
+        assertEquals(2, result.size());
+        assertEquals("abcd", result.get(0).getUid());
+        assertEquals("efgh", result.get(1).getUid());
+        verify(mockConnection, times(1)).executeSimpleCommand(Pop3Commands.UIDL_COMMAND);
+    }
+
+    @Test
+    public void getMessages_inNextSessionWithAppendedMessage_shouldOnlyRequestNewUid() throws Exception {
+        when(mockConnection.executeSimpleCommand(Pop3Commands.STAT_COMMAND)).thenReturn("+OK 2 100");
+        when(mockConnection.executeSimpleCommand("UIDL 2")).thenReturn("+OK 2 efgh");
+        when(mockConnection.executeSimpleCommand("UIDL 3")).thenReturn("+OK 3 ijkl");
+        openAndDownloadUidlListing();
+        when(mockConnection.executeSimpleCommand(Pop3Commands.STAT_COMMAND)).thenReturn("+OK 3 150");
+
+        folder.open(Folder.OPEN_MODE_RW);
+        List<Pop3Message> result = folder.getMessages(1, 3, null, mockListener);
+
+        assertEquals(3, result.size());
+        assertEquals("ijkl", result.get(2).getUid());
+        verify(mockConnection, times(1)).executeSimpleCommand(Pop3Commands.UIDL_COMMAND);
+    }
+
+    @Test
+    public void getMessages_inNextSessionWithChangedMaildrop_shouldDownloadUidlListingAgain() throws Exception {
+        when(mockConnection.executeSimpleCommand(Pop3Commands.STAT_COMMAND)).thenReturn("+OK 2 100");
+        when(mockConnection.executeSimpleCommand("UIDL 2")).thenReturn("+OK 2 ijkl");
+        openAndDownloadUidlListing();
+        when(mockConnection.readLine()).thenReturn("1 efgh").thenReturn("2 ijkl").thenReturn(".");
+
+        folder.open(Folder.OPEN_MODE_RW);
+        List<Pop3Message> result = folder.getMessages(1, 2, null, mockListener);
+
+        assertEquals("efgh", result.get(0).getUid());
+        assertEquals("ijkl", result.get(1).getUid());
+        verify(mockConnection, times(2)).executeSimpleCommand(Pop3Commands.UIDL_COMMAND);
+    }
+
+    @Test
+    public void getMessages_inNextSessionAfterDeletingMessage_shouldReuseUidlListing() throws Exception {
+        when(mockConnection.executeSimpleCommand(Pop3Commands.STAT_COMMAND)).thenReturn("+OK 2 100");
+        when(mockConnection.executeSimpleCommand("UIDL 1")).thenReturn("+OK 1 efgh");
+        folder.open(Folder.OPEN_MODE_RW);
+        when(mockConnection.readLine()).thenReturn("1 abcd").thenReturn("2 efgh").thenReturn(".");
+        List<Pop3Message> messages = folder.getMessages(1, 1, null, mockListener);
+        when(mockConnection.isOpen()).thenReturn(true);
+        folder.delete(messages, "Trash");
+        folder.close();
+        when(mockConnection.isOpen()).thenReturn(false);
+        when(mockConnection.executeSimpleCommand(Pop3Commands.STAT_COMMAND)).thenReturn("+OK 1 50");
+
+        folder.open(Folder.OPEN_MODE_RW);
+        List<Pop3Message> result = folder.getMessages(1, 1, null, mockListener);
+
+        assertEquals("efgh", result.get(0).getUid());
+        verify(mockConnection, times(1)).executeSimpleCommand(Pop3Commands.UIDL_COMMAND);
+    }
+
+    private void openAndDownloadUidlListing() throws IOException, MessagingException {
+        folder.open(Folder.OPEN_MODE_RW);
+        when(mockConnection.readLine()).thenReturn("1 abcd").thenReturn("2 efgh").thenReturn(".");
+        folder.getMessages(1, 2, null, mockListener);
+        when(mockConnection.isOpen()).thenReturn(true);
+        folder.close();
+        when(mockConnection.isOpen()).thenReturn(false);
+    }
+
     private List<Pop3Message> setupMessageFromServer() throws IOException, MessagingException {
         when(mockConnection.readLine()).thenReturn("1 abcd").thenReturn(".");
         return folder.getMessages(1, 1, null, mockListener);
     }
+
+    private List<Pop3Message> setupMessagesFromServer() throws IOException, MessagingException {
+        when(mockConnection.readLine()).thenReturn("1 abcd").thenReturn("2 efgh").thenReturn(".");
+        return folder.getMessages(1, 2, null, mockListener);
+    }
 }
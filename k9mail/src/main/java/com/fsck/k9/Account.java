@@ -102,6 +102,8 @@ public class Account implements BaseAccount, StoreConfig {
     public static final boolean DEFAULT_REPLY_AFTER_QUOTE = false;
     public static final boolean DEFAULT_STRIP_SIGNATURE = true;
     public static final int DEFAULT_REMOTE_SEARCH_NUM_RESULTS = 25;
+    public static final int DEFAULT_MAXIMUM_POOLED_CONNECTIONS = 3;
+    public static final int DEFAULT_POP3_FETCH_PIPELINE_DEPTH = 10;
 
     public static final String ACCOUNT_DESCRIPTION_KEY = "description";
     public static final String STORE_URI_KEY = "storeUri";
@@ -185,6 +187,8 @@ public class Account implements BaseAccount, StoreConfig {
     private Expunge expungePolicy = Expunge.EXPUNGE_IMMEDIATELY;
     private int maxPushFolders;
     private int idleRefreshMinutes;
+    private int maximumPooledConnections;
+    private int pop3FetchPipelineDepth;
     private boolean goToUnreadMessageSearch;
     private final Map<NetworkType, Boolean> compressionMap = new ConcurrentHashMap<>();
     private Searchable searchableFolders;
@@ -268,6 +272,8 @@ public class Account implements BaseAccount, StoreConfig {
         localStorageProviderId = StorageManager.getInstance(context).getDefaultProviderId();
         automaticCheckIntervalMinutes = -1;
         idleRefreshMinutes = 24;
+        maximumPooledConnections = DEFAULT_MAXIMUM_POOLED_CONNECTIONS;
+        pop3FetchPipelineDepth = DEFAULT_POP3_FETCH_PIPELINE_DEPTH;
         pushPollOnConnect = true;
         displayCount = K9.DEFAULT_VISIBLE_LIMIT;
         accountNumber = -1;
@@ -355,6 +361,10 @@ public class Account implements BaseAccount, StoreConfig {
         alwaysBcc = storage.getString(accountUuid + ".alwaysBcc", alwaysBcc);
         automaticCheckIntervalMinutes = storage.getInt(accountUuid + ".automaticCheckIntervalMinutes", -1);
         idleRefreshMinutes = storage.getInt(accountUuid + ".idleRefreshMinutes", 24);
+        maximumPooledConnections = Math.max(0, storage.getInt(accountUuid + ".maximumPooledConnections",
+                DEFAULT_MAXIMUM_POOLED_CONNECTIONS));
+        pop3FetchPipelineDepth = Math.max(1, storage.getInt(accountUuid + ".pop3FetchPipelineDepth",
+                DEFAULT_POP3_FETCH_PIPELINE_DEPTH));
         pushPollOnConnect = storage.getBoolean(accountUuid + ".pushPollOnConnect", true);
         displayCount = storage.getInt(accountUuid + ".displayCount", K9.DEFAULT_VISIBLE_LIMIT);
         if (displayCount < 0) {
@@ -485,6 +495,8 @@ public class Account implements BaseAccount, StoreConfig {
         editor.remove(accountUuid + ".automaticCheckIntervalMinutes");
         editor.remove(accountUuid + ".pushPollOnConnect");
         editor.remove(accountUuid + ".idleRefreshMinutes");
+        editor.remove(accountUuid + ".maximumPooledConnections");
+        editor.remove(accountUuid + ".pop3FetchPipelineDepth");
         editor.remove(accountUuid + ".lastAutomaticCheckTime");
         editor.remove(accountUuid + ".latestOldMessageSeenTime");
         editor.remove(accountUuid + ".notifyNewMail");
@@ -653,6 +665,8 @@ public class Account implements BaseAccount, StoreConfig {
         editor.putString(accountUuid + ".alwaysBcc", alwaysBcc);
         editor.putInt(accountUuid + ".automaticCheckIntervalMinutes", automaticCheckIntervalMinutes);
         editor.putInt(accountUuid + ".idleRefreshMinutes", idleRefreshMinutes);
+        editor.putInt(accountUuid + ".maximumPooledConnections", maximumPooledConnections);
+        editor.putInt(accountUuid + ".pop3FetchPipelineDepth", pop3FetchPipelineDepth);
         editor.putBoolean(accountUuid + ".pushPollOnConnect", pushPollOnConnect);
         editor.putInt(accountUuid + ".displayCount", displayCount);
         editor.putLong(accountUuid + ".latestOldMessageSeenTime", latestOldMessageSeenTime);
@@ -1368,6 +1382,31 @@ public class Account implements BaseAccount, StoreConfig {
         this.idleRefreshMinutes = idleRefreshMinutes;
     }
 
+    /**
+     * Returns the maximum number of idle connections to the incoming server that are kept open for reuse.
+     */
+    @Override
+    public synchronized int getMaximumPooledConnections() {
+        return maximumPooledConnections;
+    }
+
+    public synchronized void setMaximumPooledConnections(int maximumPooledConnections) {
+        this.maximumPooledConnections = maximumPooledConnections;
+    }
+
+    /**
+     * Returns the maximum number of {@code TOP}/{@code RETR} commands kept in flight when a POP3 server supports
+     * {@code PIPELINING}.
+     */
+    @Override
+    public synchronized int getPop3FetchPipelineDepth() {
+        return pop3FetchPipelineDepth;
+    }
+
+    public synchronized void setPop3FetchPipelineDepth(int pop3FetchPipelineDepth) {
+        this.pop3FetchPipelineDepth = pop3FetchPipelineDepth;
+    }
+
     public synchronized boolean isPushPollOnConnect() {
         return pushPollOnConnect;
     }
@@ -3,6 +3,9 @@ package com.fsck.k9.cache;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.Context;
 import android.content.Intent;
@@ -21,11 +24,10 @@ import com.fsck.k9.provider.EmailProvider;
 public class EmailProviderCache {
     public static final String ACTION_CACHE_UPDATED = "EmailProviderCache.ACTION_CACHE_UPDATED";
 
-    private static Context sContext;
-    private static Map<String, EmailProviderCache> sInstances =
-            new HashMap<String, EmailProviderCache>();
+    private static volatile Context sContext;
+    private static final ConcurrentMap<String, EmailProviderCache> sInstances = new ConcurrentHashMap<>();
 
-    public static synchronized EmailProviderCache getCache(String accountUuid, Context context) {
+    public static EmailProviderCache getCache(String accountUuid, Context context) {
 
         if (sContext == null) {
             sContext = context.getApplicationContext();
@@ -33,8 +35,11 @@ public class EmailProviderCache {
 
         EmailProviderCache instance = sInstances.get(accountUuid);
         if (instance == null) {
-            instance = new EmailProviderCache(accountUuid);
-            sInstances.put(accountUuid, instance);
+            EmailProviderCache newInstance = new EmailProviderCache(accountUuid);
+            instance = sInstances.putIfAbsent(accountUuid, newInstance);
+            if (instance == null) {
+                instance = newInstance;
+            }
         }
 
         return instance;
@@ -42,118 +47,135 @@ public class EmailProviderCache {
 
 
     private String mAccountUuid;
-    private final Map<Long, Map<String, String>> mMessageCache = new HashMap<Long, Map<String, String>>();
-    private final Map<Long, Map<String, String>> mThreadCache = new HashMap<Long, Map<String, String>>();
-    private final Map<Long, Long> mHiddenMessageCache = new HashMap<Long, Long>();
+
+    /*
+     * Overridden values are stored per column so a lookup for a column without overrides, the common case while
+     * scrolling the message list, doesn't have to look at the message ID at all.
+     */
+    private final ConcurrentMap<String, StripedLongMap<String>> mMessageCache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, StripedLongMap<String>> mThreadCache = new ConcurrentHashMap<>();
+    private final StripedLongMap<Long> mHiddenMessageCache = new StripedLongMap<>();
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
 
 
     private EmailProviderCache(String accountUuid) {
         mAccountUuid = accountUuid;
     }
 
-    public String getValueForMessage(Long messageId, String columnName) {
-        synchronized (mMessageCache) {
-            Map<String, String> map = mMessageCache.get(messageId);
-            return (map == null) ? null : map.get(columnName);
-        }
+    public String getValueForMessage(long messageId, String columnName) {
+        return getValue(mMessageCache, messageId, columnName);
     }
 
-    public String getValueForThread(Long threadRootId, String columnName) {
-        synchronized (mThreadCache) {
-            Map<String, String> map = mThreadCache.get(threadRootId);
-            return (map == null) ? null : map.get(columnName);
-        }
+    public String getValueForThread(long threadRootId, String columnName) {
+        return getValue(mThreadCache, threadRootId, columnName);
+    }
+
+    /**
+     * Returns {@code true} if values of the given column are overridden for any message or thread.
+     */
+    public boolean hasValuesForColumn(String columnName) {
+        return hasValues(mMessageCache, columnName) || hasValues(mThreadCache, columnName);
     }
 
     public void setValueForMessages(List<Long> messageIds, String columnName, String value) {
-        synchronized (mMessageCache) {
-            for (Long messageId : messageIds) {
-                Map<String, String> map = mMessageCache.get(messageId);
-                if (map == null) {
-                    map = new HashMap<String, String>();
-                    mMessageCache.put(messageId, map);
-                }
-                map.put(columnName, value);
-            }
-        }
+        getOrCreateColumn(mMessageCache, columnName).putAll(messageIds, value);
 
         notifyChange();
     }
 
     public void setValueForThreads(List<Long> threadRootIds, String columnName, String value) {
-        synchronized (mThreadCache) {
-            for (Long threadRootId : threadRootIds) {
-                Map<String, String> map = mThreadCache.get(threadRootId);
-                if (map == null) {
-                    map = new HashMap<String, String>();
-                    mThreadCache.put(threadRootId, map);
-                }
-                map.put(columnName, value);
-            }
-        }
+        getOrCreateColumn(mThreadCache, columnName).putAll(threadRootIds, value);
 
         notifyChange();
     }
 
     public void removeValueForMessages(List<Long> messageIds, String columnName) {
-        synchronized (mMessageCache) {
-            for (Long messageId : messageIds) {
-                Map<String, String> map = mMessageCache.get(messageId);
-                if (map != null) {
-                    map.remove(columnName);
-                    if (map.isEmpty()) {
-                        mMessageCache.remove(messageId);
-                    }
-                }
-            }
+        StripedLongMap<String> column = mMessageCache.get(columnName);
+        if (column != null) {
+            column.removeAll(messageIds);
         }
     }
 
     public void removeValueForThreads(List<Long> threadRootIds, String columnName) {
-        synchronized (mThreadCache) {
-            for (Long threadRootId : threadRootIds) {
-                Map<String, String> map = mThreadCache.get(threadRootId);
-                if (map != null) {
-                    map.remove(columnName);
-                    if (map.isEmpty()) {
-                        mThreadCache.remove(threadRootId);
-                    }
-                }
-            }
+        StripedLongMap<String> column = mThreadCache.get(columnName);
+        if (column != null) {
+            column.removeAll(threadRootIds);
         }
     }
 
     public void hideMessages(List<LocalMessage> messages) {
-        synchronized (mHiddenMessageCache) {
-            for (LocalMessage message : messages) {
-                long messageId = message.getDatabaseId();
-                mHiddenMessageCache.put(messageId, message.getFolder().getDatabaseId());
-            }
+        Map<Long, Long> hiddenMessages = new HashMap<>(messages.size());
+        for (LocalMessage message : messages) {
+            long messageId = message.getDatabaseId();
+            hiddenMessages.put(messageId, message.getFolder().getDatabaseId());
         }
+        mHiddenMessageCache.putAll(hiddenMessages);
 
         notifyChange();
     }
 
-    public boolean isMessageHidden(Long messageId, long folderId) {
-        synchronized (mHiddenMessageCache) {
-            Long hiddenInFolder = mHiddenMessageCache.get(messageId);
-            return (hiddenInFolder != null && hiddenInFolder == folderId);
-        }
+    public boolean hasHiddenMessages() {
+        return !mHiddenMessageCache.isEmpty();
+    }
+
+    public boolean isMessageHidden(long messageId, long folderId) {
+        Long hiddenInFolder = mHiddenMessageCache.get(messageId);
+        return (hiddenInFolder != null && hiddenInFolder == folderId);
     }
 
     public void unhideMessages(List<? extends Message> messages) {
-        synchronized (mHiddenMessageCache) {
-            for (Message message : messages) {
-                LocalMessage localMessage = (LocalMessage) message;
-                long messageId = localMessage.getDatabaseId();
-                long folderId = localMessage.getFolder().getDatabaseId();
-                Long hiddenInFolder = mHiddenMessageCache.get(messageId);
-
-                if (hiddenInFolder != null && hiddenInFolder == folderId) {
-                    mHiddenMessageCache.remove(messageId);
-                }
+        Map<Long, Long> hiddenMessages = new HashMap<>(messages.size());
+        for (Message message : messages) {
+            LocalMessage localMessage = (LocalMessage) message;
+            long messageId = localMessage.getDatabaseId();
+            long folderId = localMessage.getFolder().getDatabaseId();
+            hiddenMessages.put(messageId, folderId);
+        }
+
+        // Only unhide messages that are still hidden in the folder they were in when hidden
+        mHiddenMessageCache.removeAll(hiddenMessages);
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    private String getValue(Map<String, StripedLongMap<String>> cache, long id, String columnName) {
+        StripedLongMap<String> column = cache.get(columnName);
+        String value = (column == null) ? null : column.get(id);
+
+        if (value != null) {
+            mHitCount.incrementAndGet();
+        } else {
+            mMissCount.incrementAndGet();
+        }
+
+        return value;
+    }
+
+    private static boolean hasValues(Map<String, StripedLongMap<String>> cache, String columnName) {
+        StripedLongMap<String> column = cache.get(columnName);
+        return column != null && !column.isEmpty();
+    }
+
+    private static StripedLongMap<String> getOrCreateColumn(ConcurrentMap<String, StripedLongMap<String>> cache,
+            String columnName) {
+        StripedLongMap<String> column = cache.get(columnName);
+        if (column == null) {
+            StripedLongMap<String> newColumn = new StripedLongMap<>();
+            column = cache.putIfAbsent(columnName, newColumn);
+            if (column == null) {
+                column = newColumn;
             }
         }
+
+        return column;
     }
 
     /**
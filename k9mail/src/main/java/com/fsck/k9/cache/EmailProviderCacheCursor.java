@@ -43,11 +43,13 @@ public class EmailProviderCacheCursor extends CursorWrapper {
                     ", " + ThreadColumns.ROOT);
         }
 
-        while (cursor.moveToNext()) {
-            long messageId = cursor.getLong(mMessageIdColumn);
-            long folderId = cursor.getLong(mFolderIdColumn);
-            if (mCache.isMessageHidden(messageId, folderId)) {
-                mHiddenRows.add(cursor.getPosition());
+        if (mCache.hasHiddenMessages()) {
+            while (cursor.moveToNext()) {
+                long messageId = cursor.getLong(mMessageIdColumn);
+                long folderId = cursor.getLong(mFolderIdColumn);
+                if (mCache.isMessageHidden(messageId, folderId)) {
+                    mHiddenRows.add(cursor.getPosition());
+                }
             }
         }
 
@@ -58,10 +60,14 @@ public class EmailProviderCacheCursor extends CursorWrapper {
 
     @Override
     public int getInt(int columnIndex) {
+        String columnName = getColumnName(columnIndex);
+        if (!mCache.hasValuesForColumn(columnName)) {
+            return super.getInt(columnIndex);
+        }
+
         long messageId = getLong(mMessageIdColumn);
         long threadRootId = getLong(mThreadRootColumn);
 
-        String columnName = getColumnName(columnIndex);
         String value = mCache.getValueForMessage(messageId, columnName);
 
         if (value != null) {
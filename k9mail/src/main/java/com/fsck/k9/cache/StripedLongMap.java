@@ -0,0 +1,272 @@
+package com.fsck.k9.cache;
+
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A concurrent map with primitive {@code long} keys.
+ * <p>
+ * Keys are spread over a fixed number of stripes. Each stripe holds an open addressing hash table that is never
+ * modified once it has been published. Readers only perform a volatile read and never block. Writers copy the table
+ * of each stripe they touch once per batch and swap it in while holding that stripe's lock, so bulk updates of
+ * thousands of keys neither block readers nor contend with updates of other stripes.
+ * </p>
+ */
+class StripedLongMap<V> {
+    private static final int STRIPE_COUNT = 16;
+    private static final int STRIPE_MASK = STRIPE_COUNT - 1;
+
+
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+    private final AtomicInteger size = new AtomicInteger(0);
+
+
+    StripedLongMap() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        if (size.get() == 0) {
+            return null;
+        }
+
+        int hash = hash(key);
+        return (V) stripes[hash & STRIPE_MASK].table.get(key, hash);
+    }
+
+    boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    void putAll(Collection<Long> keys, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value == null");
+        }
+
+        long[] keyArray = toArray(keys);
+        Object[] valueArray = new Object[keyArray.length];
+        for (int i = 0; i < valueArray.length; i++) {
+            valueArray[i] = value;
+        }
+
+        update(keyArray, valueArray, false);
+    }
+
+    void putAll(Map<Long, V> entries) {
+        long[] keyArray = new long[entries.size()];
+        Object[] valueArray = new Object[entries.size()];
+        int i = 0;
+        for (Entry<Long, V> entry : entries.entrySet()) {
+            if (entry.getValue() == null) {
+                throw new IllegalArgumentException("value == null");
+            }
+
+            keyArray[i] = entry.getKey();
+            valueArray[i] = entry.getValue();
+            i++;
+        }
+
+        update(keyArray, valueArray, false);
+    }
+
+    void removeAll(Collection<Long> keys) {
+        long[] keyArray = toArray(keys);
+        update(keyArray, new Object[keyArray.length], true);
+    }
+
+    /**
+     * Removes the given keys, but only those currently mapped to the value they are associated with in
+     * {@code entries}.
+     */
+    void removeAll(Map<Long, V> entries) {
+        long[] keyArray = new long[entries.size()];
+        Object[] valueArray = new Object[entries.size()];
+        int i = 0;
+        for (Entry<Long, V> entry : entries.entrySet()) {
+            keyArray[i] = entry.getKey();
+            valueArray[i] = entry.getValue();
+            i++;
+        }
+
+        update(keyArray, valueArray, true);
+    }
+
+    private static long[] toArray(Collection<Long> keys) {
+        long[] keyArray = new long[keys.size()];
+        int i = 0;
+        for (Long key : keys) {
+            keyArray[i++] = key;
+        }
+
+        return keyArray;
+    }
+
+    /**
+     * Groups the changes by stripe and applies them with one table copy per affected stripe.
+     *
+     * @param values
+     *         The new values when adding. When removing, the value a key has to be mapped to in order to be removed,
+     *         or {@code null} to remove it unconditionally.
+     */
+    private void update(long[] keys, Object[] values, boolean remove) {
+        int count = keys.length;
+        if (count == 0) {
+            return;
+        }
+
+        int[] hashes = new int[count];
+        int[] stripeStart = new int[STRIPE_COUNT + 1];
+        for (int i = 0; i < count; i++) {
+            hashes[i] = hash(keys[i]);
+            stripeStart[(hashes[i] & STRIPE_MASK) + 1]++;
+        }
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripeStart[i + 1] += stripeStart[i];
+        }
+
+        int[] order = new int[count];
+        int[] fill = new int[STRIPE_COUNT];
+        for (int i = 0; i < count; i++) {
+            int stripeIndex = hashes[i] & STRIPE_MASK;
+            order[stripeStart[stripeIndex] + fill[stripeIndex]++] = i;
+        }
+
+        for (int stripeIndex = 0; stripeIndex < STRIPE_COUNT; stripeIndex++) {
+            int start = stripeStart[stripeIndex];
+            int end = stripeStart[stripeIndex + 1];
+            if (start == end) {
+                continue;
+            }
+
+            Stripe stripe = stripes[stripeIndex];
+            synchronized (stripe) {
+                Table oldTable = stripe.table;
+                if (remove && oldTable.size == 0) {
+                    continue;
+                }
+
+                int expectedSize = remove ? oldTable.size : oldTable.size + (end - start);
+                Table newTable = oldTable.copy(expectedSize);
+                for (int i = start; i < end; i++) {
+                    int index = order[i];
+                    if (remove) {
+                        newTable.remove(keys[index], hashes[index], values[index]);
+                    } else {
+                        newTable.put(keys[index], hashes[index], values[index]);
+                    }
+                }
+
+                stripe.table = newTable;
+                size.addAndGet(newTable.size - oldTable.size);
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+
+    private static class Stripe {
+        volatile Table table = Table.EMPTY;
+    }
+
+    /**
+     * Open addressing hash table using linear probing. A slot is empty if its value is {@code null}.
+     */
+    private static class Table {
+        static final Table EMPTY = new Table(1);
+
+        final long[] keys;
+        final Object[] values;
+        final int mask;
+        int size;
+
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+
+        Object get(long key, int hash) {
+            for (int slot = hash & mask; values[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+
+            return null;
+        }
+
+        Table copy(int expectedSize) {
+            int capacity = 2;
+            while (capacity < expectedSize * 2) {
+                capacity <<= 1;
+            }
+
+            Table table = new Table(capacity);
+            for (int slot = 0; slot < values.length; slot++) {
+                if (values[slot] != null) {
+                    table.put(keys[slot], hash(keys[slot]), values[slot]);
+                }
+            }
+
+            return table;
+        }
+
+        void put(long key, int hash, Object value) {
+            int slot = hash & mask;
+            while (values[slot] != null) {
+                if (keys[slot] == key) {
+                    values[slot] = value;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+        }
+
+        void remove(long key, int hash, Object expectedValue) {
+            int slot = hash & mask;
+            while (values[slot] != null && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+
+            if (values[slot] == null || (expectedValue != null && !expectedValue.equals(values[slot]))) {
+                return;
+            }
+
+            values[slot] = null;
+            size--;
+
+            // Shift back entries of the following cluster so lookups don't stop at the new gap
+            int gap = slot;
+            for (int next = (gap + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+                int home = hash(keys[next]) & mask;
+                boolean canMove = (gap <= next) ? (home <= gap || home > next) : (home <= gap && home > next);
+                if (canMove) {
+                    keys[gap] = keys[next];
+                    values[gap] = values[next];
+                    values[next] = null;
+                    gap = next;
+                }
+            }
+        }
+    }
+}
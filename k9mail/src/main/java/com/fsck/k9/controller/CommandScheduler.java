@@ -0,0 +1,156 @@
+package com.fsck.k9.controller;
+
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+
+/**
+ * Hands out queued {@link Command}s to a bounded number of worker threads.
+ * <p>
+ * Commands are ordered by priority (foreground before background) and then by the order in which they were queued.
+ * Commands sharing the same serialization key (usually the account UUID) never run concurrently, so a slow account
+ * only delays its own commands. Commands without a key share a single lane of their own. A command can also ask to
+ * wait until every command queued before it has completed, e.g. to report the end of a mail check.
+ * </p>
+ */
+class CommandScheduler {
+    private static final AtomicInteger sequencing = new AtomicInteger(0);
+
+
+    private final TreeSet<Command> queuedCommands = new TreeSet<>();
+    private final Set<String> busyKeys = new HashSet<>();
+    private final Set<Command> runningCommands = new HashSet<>();
+    /**
+     * Sequence numbers of all queued and running commands, so the oldest one can be looked up without iterating
+     * over all commands.
+     */
+    private final TreeSet<Integer> unfinishedSequences = new TreeSet<>();
+
+    private long startedCommandCount = 0;
+    private long totalWaitTimeNanos = 0;
+    private long maxWaitTimeNanos = 0;
+
+
+    synchronized void put(Command command) {
+        command.enqueueTimeNanos = System.nanoTime();
+        queuedCommands.add(command);
+        unfinishedSequences.add(command.sequence);
+        notifyAll();
+    }
+
+    /**
+     * Waits for the highest priority command whose serialization key isn't in use by another command.
+     * <p>
+     * The caller has to call {@link #finished(Command)} once the command has been executed.
+     * </p>
+     */
+    synchronized Command take() throws InterruptedException {
+        while (true) {
+            Command command = pollRunnableCommand();
+            if (command != null) {
+                return command;
+            }
+
+            wait();
+        }
+    }
+
+    /**
+     * Like {@link #take()} but returns {@code null} instead of waiting when no command can be run right now.
+     */
+    @VisibleForTesting
+    synchronized Command poll() {
+        return pollRunnableCommand();
+    }
+
+    private Command pollRunnableCommand() {
+        if (queuedCommands.isEmpty()) {
+            return null;
+        }
+
+        int oldestSequence = unfinishedSequences.first();
+        Iterator<Command> iterator = queuedCommands.iterator();
+        while (iterator.hasNext()) {
+            Command command = iterator.next();
+            if (!busyKeys.contains(command.serializationKey) &&
+                    !isWaitingForPreviousCommands(command, oldestSequence)) {
+                iterator.remove();
+                busyKeys.add(command.serializationKey);
+                runningCommands.add(command);
+                recordWaitTime(System.nanoTime() - command.enqueueTimeNanos);
+                return command;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isWaitingForPreviousCommands(Command command, int oldestSequence) {
+        return command.waitForPreviousCommands && oldestSequence < command.sequence;
+    }
+
+    private void recordWaitTime(long waitTimeNanos) {
+        startedCommandCount++;
+        totalWaitTimeNanos += waitTimeNanos;
+        maxWaitTimeNanos = Math.max(maxWaitTimeNanos, waitTimeNanos);
+    }
+
+    synchronized void finished(Command command) {
+        busyKeys.remove(command.serializationKey);
+        runningCommands.remove(command);
+        unfinishedSequences.remove(command.sequence);
+        notifyAll();
+    }
+
+    synchronized int getQueuedCommandCount() {
+        return queuedCommands.size();
+    }
+
+    synchronized int getRunningCommandCount() {
+        return runningCommands.size();
+    }
+
+    synchronized long getAverageWaitTimeMillis() {
+        if (startedCommandCount == 0) {
+            return 0;
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitTimeNanos / startedCommandCount);
+    }
+
+    synchronized long getMaxWaitTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitTimeNanos);
+    }
+
+
+    static class Command implements Comparable<Command> {
+        public Runnable runnable;
+        public MessagingListener listener;
+        public String description;
+        String serializationKey;
+        boolean isForegroundPriority;
+        boolean waitForPreviousCommands;
+
+        int sequence = sequencing.getAndIncrement();
+        long enqueueTimeNanos;
+
+        @Override
+        public int compareTo(@NonNull Command other) {
+            if (other.isForegroundPriority && !isForegroundPriority) {
+                return 1;
+            } else if (!other.isForegroundPriority && isForegroundPriority) {
+                return -1;
+            } else {
+                return (sequence - other.sequence);
+            }
+        }
+    }
+}
@@ -16,14 +16,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import android.annotation.SuppressLint;
@@ -31,7 +29,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.PowerManager;
 import android.os.Process;
-import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
@@ -48,6 +45,7 @@ import com.fsck.k9.activity.ActivityListener;
 import com.fsck.k9.activity.MessageReference;
 import com.fsck.k9.activity.setup.AccountSetupCheckSettings.CheckDirection;
 import com.fsck.k9.cache.EmailProviderCache;
+import com.fsck.k9.controller.CommandScheduler.Command;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingAppend;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingCommand;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingEmptyTrash;
@@ -55,6 +53,7 @@ import com.fsck.k9.controller.MessagingControllerCommands.PendingExpunge;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingMarkAllAsRead;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingMoveOrCopy;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingSetFlag;
+import com.fsck.k9.controller.PendingCommandCoalescer.CoalescedCommand;
 import com.fsck.k9.controller.ProgressBodyFactory.ProgressListener;
 import com.fsck.k9.controller.imap.ImapMessageStore;
 import com.fsck.k9.helper.Contacts;
@@ -100,9 +99,9 @@ import static com.fsck.k9.mail.Flag.X_REMOTE_COPY_STARTED;
 
 
 /**
- * Starts a long running (application) Thread that will run through commands
- * that require remote mailbox access. This class is used to serialize and
- * prioritize these commands. Each method that will submit a command requires a
+ * Starts long running (application) Threads that will run through commands
+ * that require remote mailbox access. This class is used to serialize (per
+ * account) and prioritize these commands. Each method that will submit a command requires a
  * MessagingListener instance to be provided. It is expected that that listener
  * has also been added as a registered listener using addListener(). When a
  * command is to be executed, if the listener that was provided with the command
@@ -117,6 +116,11 @@ public class MessagingController {
 
     public static final Set<Flag> SYNC_FLAGS = EnumSet.of(Flag.SEEN, Flag.FLAGGED, Flag.ANSWERED, Flag.FORWARDED);
 
+    /**
+     * Number of threads executing queued commands. Commands of the same account are always run one after another.
+     */
+    private static final int COMMAND_THREAD_COUNT = 4;
+
 
     private static MessagingController inst = null;
 
@@ -125,9 +129,9 @@ public class MessagingController {
     private final Contacts contacts;
     private final NotificationController notificationController;
 
-    private final Thread controllerThread;
+    private final Thread[] controllerThreads = new Thread[COMMAND_THREAD_COUNT];
 
-    private final BlockingQueue<Command> queuedCommands = new PriorityBlockingQueue<>();
+    private final CommandScheduler commandScheduler = new CommandScheduler();
     private final Set<MessagingListener> listeners = new CopyOnWriteArraySet<>();
     private final ConcurrentHashMap<String, AtomicInteger> sendCount = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Account, Pusher> pushers = new ConcurrentHashMap<>();
@@ -166,22 +170,29 @@ public class MessagingController {
         this.transportProvider = transportProvider;
         this.accountStatsCollector = accountStatsCollector;
 
-        controllerThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                runInBackground();
-            }
-        });
-        controllerThread.setName("MessagingController");
-        controllerThread.start();
+        for (int i = 0; i < COMMAND_THREAD_COUNT; i++) {
+            Thread controllerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runInBackground();
+                }
+            });
+            controllerThread.setName("MessagingController-" + i);
+            controllerThread.start();
+            controllerThreads[i] = controllerThread;
+        }
         addListener(memorizingMessagingListener);
     }
 
     @VisibleForTesting
     void stop() throws InterruptedException {
         stopped = true;
-        controllerThread.interrupt();
-        controllerThread.join(1000L);
+        for (Thread controllerThread : controllerThreads) {
+            controllerThread.interrupt();
+        }
+        for (Thread controllerThread : controllerThreads) {
+            controllerThread.join(1000L);
+        }
     }
 
     private void runInBackground() {
@@ -189,76 +200,99 @@ public class MessagingController {
         while (!stopped) {
             String commandDescription = null;
             try {
-                final Command command = queuedCommands.take();
+                final Command command = commandScheduler.take();
+                commandDescription = command.description;
+
+                Timber.i("Running command '%s', seq = %s (%s priority), %d queued, %d running, " +
+                                "wait time avg/max = %d/%d ms",
+                        command.description,
+                        command.sequence,
+                        command.isForegroundPriority ? "foreground" : "background",
+                        commandScheduler.getQueuedCommandCount(),
+                        commandScheduler.getRunningCommandCount(),
+                        commandScheduler.getAverageWaitTimeMillis(),
+                        commandScheduler.getMaxWaitTimeMillis());
 
-                if (command != null) {
-                    commandDescription = command.description;
-
-                    Timber.i("Running command '%s', seq = %s (%s priority)",
-                            command.description,
-                            command.sequence,
-                            command.isForegroundPriority ? "foreground" : "background");
-
-                    try {
-                        command.runnable.run();
-                    } catch (UnavailableAccountException e) {
-                        // retry later
-                        new Thread() {
-                            @Override
-                            public void run() {
-                                try {
-                                    sleep(30 * 1000);
-                                    queuedCommands.put(command);
-                                } catch (InterruptedException e) {
-                                    Timber.e("Interrupted while putting a pending command for an unavailable account " +
-                                            "back into the queue. THIS SHOULD NEVER HAPPEN.");
-                                }
-                            }
-                        }.start();
-                    }
-
-                    Timber.i(" Command '%s' completed", command.description);
+                try {
+                    command.runnable.run();
+                } catch (UnavailableAccountException e) {
+                    // retry later
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            sleep30SecondsAndRequeue(command);
+                        }
+                    }.start();
+                } finally {
+                    commandScheduler.finished(command);
                 }
+
+                Timber.i(" Command '%s' completed", command.description);
+            } catch (InterruptedException e) {
+                Timber.d("Interrupted while waiting for a command");
             } catch (Exception e) {
                 Timber.e(e, "Error running command '%s'", commandDescription);
             }
         }
     }
 
+    private void sleep30SecondsAndRequeue(Command command) {
+        try {
+            Thread.sleep(30 * 1000);
+            commandScheduler.put(command);
+        } catch (InterruptedException e) {
+            Timber.e("Interrupted while putting a pending command for an unavailable account " +
+                    "back into the queue. THIS SHOULD NEVER HAPPEN.");
+        }
+    }
+
     private void put(String description, MessagingListener listener, Runnable runnable) {
-        putCommand(queuedCommands, description, listener, runnable, true);
+        putCommand(null, description, listener, runnable, true);
+    }
+
+    private void put(Account account, String description, MessagingListener listener, Runnable runnable) {
+        putCommand(account, description, listener, runnable, true);
     }
 
     private void putBackground(String description, MessagingListener listener, Runnable runnable) {
-        putCommand(queuedCommands, description, listener, runnable, false);
+        putCommand(null, description, listener, runnable, false);
+    }
+
+    private void putBackground(Account account, String description, MessagingListener listener,
+            Runnable runnable) {
+        putCommand(account, description, listener, runnable, false);
+    }
+
+    /**
+     * Queues a background command that will only run after all commands queued before it have completed.
+     */
+    private void putBackgroundAfterQueuedCommands(String description, Runnable runnable) {
+        Command command = createCommand(null, description, null, runnable, false);
+        command.waitForPreviousCommands = true;
+        commandScheduler.put(command);
     }
 
-    private void putCommand(BlockingQueue<Command> queue, String description, MessagingListener listener,
+    private void putCommand(Account account, String description, MessagingListener listener, Runnable runnable,
+            boolean isForeground) {
+        commandScheduler.put(createCommand(account, description, listener, runnable, isForeground));
+    }
+
+    private Command createCommand(Account account, String description, MessagingListener listener,
             Runnable runnable, boolean isForeground) {
-        int retries = 10;
-        Exception e = null;
-        while (retries-- > 0) {
-            try {
-                Command command = new Command();
-                command.listener = listener;
-                command.runnable = runnable;
-                command.description = description;
-                command.isForegroundPriority = isForeground;
-                queue.put(command);
-                return;
-            } catch (InterruptedException ie) {
-                SystemClock.sleep(200);
-                e = ie;
-            }
-        }
-        throw new Error(e);
+        Command command = new Command();
+        command.listener = listener;
+        command.runnable = runnable;
+        command.description = description;
+        command.serializationKey = (account != null) ? account.getUuid() : null;
+        command.isForegroundPriority = isForeground;
+        return command;
     }
 
     private RemoteMessageStore getRemoteMessageStore(Account account) {
         return account.getStoreUri().startsWith("imap") ? getImapMessageStore() : null;
     }
 
-    private ImapMessageStore getImapMessageStore() {
+    private synchronized ImapMessageStore getImapMessageStore() {
         if (imapMessageStore == null) {
             imapMessageStore = new ImapMessageStore(notificationController, this, context);
         }
@@ -420,7 +454,7 @@ public class MessagingController {
     }
 
     private void doRefreshRemote(final Account account, final MessagingListener listener) {
-        put("doRefreshRemote", listener, new Runnable() {
+        put(account, "doRefreshRemote", listener, new Runnable() {
             @Override
             public void run() {
                 refreshRemoteSynchronous(account, listener);
@@ -721,7 +755,7 @@ public class MessagingController {
      */
     public void synchronizeMailbox(final Account account, final String folder, final MessagingListener listener,
             final Folder providedRemoteFolder) {
-        putBackground("synchronizeMailbox", listener, new Runnable() {
+        putBackground(account, "synchronizeMailbox", listener, new Runnable() {
             @Override
             public void run() {
                 synchronizeMailboxSynchronous(account, folder, listener, providedRemoteFolder);
@@ -1572,7 +1606,7 @@ public class MessagingController {
     }
 
     private void processPendingCommands(final Account account) {
-        putBackground("processPendingCommands", null, new Runnable() {
+        putBackground(account, "processPendingCommands", null, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -1595,7 +1629,18 @@ public class MessagingController {
 
     public void processPendingCommandsSynchronous(Account account) throws MessagingException {
         LocalStore localStore = account.getLocalStore();
-        List<PendingCommand> commands = localStore.getPendingCommands();
+        List<PendingCommand> pendingCommands = localStore.getPendingCommands();
+        if (pendingCommands.isEmpty()) {
+            return;
+        }
+
+        PendingCommandCoalescer.Result coalescerResult = PendingCommandCoalescer.coalesce(pendingCommands);
+        List<CoalescedCommand> commands = coalescerResult.getCommands();
+        if (coalescerResult.getSavedCommandCount() > 0) {
+            Timber.d("Coalesced %d pending commands into %d (saved %d)", pendingCommands.size(), commands.size(),
+                    coalescerResult.getSavedCommandCount());
+        }
+        localStore.removePendingCommands(coalescerResult.getDroppedCommands());
 
         int progress = 0;
         int todo = commands.size();
@@ -1609,8 +1654,16 @@ public class MessagingController {
         }
 
         PendingCommand processingCommand = null;
+        List<PendingCommand> replayedCommands = null;
         try {
-            for (PendingCommand command : commands) {
+            for (CoalescedCommand coalescedCommand : commands) {
+                if (coalescedCommand.originalCommands == replayedCommands) {
+                    // Another command created from the same run failed and the original commands were replayed
+                    progress++;
+                    continue;
+                }
+
+                PendingCommand command = coalescedCommand.command;
                 processingCommand = command;
                 Timber.d("Processing pending command '%s'", command);
 
@@ -1625,16 +1678,24 @@ public class MessagingController {
                 try {
                     command.execute(this, account);
 
-                    localStore.removePendingCommand(command);
+                    localStore.removePendingCommands(coalescedCommand.sourceCommands);
 
                     Timber.d("Done processing pending command '%s'", command);
                 } catch (MessagingException me) {
-                    if (me.isPermanentFailure()) {
-                        Timber.e("Failure of command '%s' was permanent, removing command from queue", command);
-                        localStore.removePendingCommand(processingCommand);
-                    } else {
+                    if (!me.isPermanentFailure()) {
                         throw me;
                     }
+
+                    List<PendingCommand> originalCommands = coalescedCommand.originalCommands;
+                    if (originalCommands.size() > 1) {
+                        Timber.w("Failure of merged command '%s' was permanent, replaying %d original commands",
+                                command, originalCommands.size());
+                        replayedCommands = originalCommands;
+                        replayPendingCommands(account, localStore, originalCommands);
+                    } else {
+                        Timber.e("Failure of command '%s' was permanent, removing command from queue", command);
+                        localStore.removePendingCommands(originalCommands);
+                    }
                 } finally {
                     progress++;
                     for (MessagingListener l : getListeners()) {
@@ -1654,6 +1715,26 @@ public class MessagingController {
         }
     }
 
+    /**
+     * Executes stored commands one by one, removing each one once it was executed or failed permanently.
+     */
+    private void replayPendingCommands(Account account, LocalStore localStore, List<PendingCommand> commands)
+            throws MessagingException {
+        for (PendingCommand command : commands) {
+            Timber.d("Replaying pending command '%s'", command);
+            try {
+                command.execute(this, account);
+            } catch (MessagingException me) {
+                if (!me.isPermanentFailure()) {
+                    throw me;
+                }
+                Timber.e("Failure of command '%s' was permanent, removing command from queue", command);
+            }
+
+            localStore.removePendingCommands(Collections.singletonList(command));
+        }
+    }
+
     /**
      * Process a pending append message command. This command uploads a local message to the
      * server, first checking to be sure that the server message is not newer than
@@ -1919,7 +2000,7 @@ public class MessagingController {
 
     private void queueSetFlag(final Account account, final String folderServerId,
             final boolean newState, final Flag flag, final List<String> uids) {
-        putBackground("queueSetFlag " + account.getDescription() + ":" + folderServerId, null, new Runnable() {
+        putBackground(account, "queueSetFlag " + account.getDescription() + ":" + folderServerId, null, new Runnable() {
             @Override
             public void run() {
                 PendingCommand command = PendingSetFlag.create(folderServerId, newState, flag, uids);
@@ -1966,7 +2047,7 @@ public class MessagingController {
     }
 
     private void queueExpunge(final Account account, final String folderServerId) {
-        putBackground("queueExpunge " + account.getDescription() + ":" + folderServerId, null, new Runnable() {
+        putBackground(account, "queueExpunge " + account.getDescription() + ":" + folderServerId, null, new Runnable() {
             @Override
             public void run() {
                 PendingCommand command = PendingExpunge.create(folderServerId);
@@ -2006,13 +2087,7 @@ public class MessagingController {
         try {
             LocalStore localStore = account.getLocalStore();
             localFolder = localStore.getFolder(folder);
-            localFolder.open(Folder.OPEN_MODE_RW);
-            List<? extends Message> messages = localFolder.getMessages(null, false);
-            for (Message message : messages) {
-                if (!message.isSet(Flag.SEEN)) {
-                    message.setFlag(Flag.SEEN, true);
-                }
-            }
+            localFolder.markAllMessagesAsRead();
 
             for (MessagingListener l : getListeners()) {
                 l.folderStatusChanged(account, folder, 0);
@@ -2084,27 +2159,20 @@ public class MessagingController {
             return;
         }
 
-        // Update affected messages in the database. This should be as fast as possible so the UI
-        // can be updated with the new state.
+        // Update affected messages in the database and read folder name and UID of the messages in one
+        // transaction. This should be as fast as possible so the UI can be updated with the new state.
+        Map<String, List<String>> folderMap;
         try {
+            folderMap = localStore.setFlagAndGetFoldersAndUids(ids, threadedList, flag, newState);
+        } catch (MessagingException e) {
+            Timber.e(e, "Couldn't set flags in local database");
+            return;
+        } finally {
             if (threadedList) {
-                localStore.setFlagForThreads(ids, flag, newState);
                 removeFlagForThreadsFromCache(account, ids, flag);
             } else {
-                localStore.setFlag(ids, flag, newState);
                 removeFlagFromCache(account, ids, flag);
             }
-        } catch (MessagingException e) {
-            Timber.e(e, "Couldn't set flags in local database");
-        }
-
-        // Read folder name and UID of messages from the database
-        Map<String, List<String>> folderMap;
-        try {
-            folderMap = localStore.getFoldersAndUids(ids, threadedList);
-        } catch (MessagingException e) {
-            Timber.e(e, "Couldn't get folder name and UID of messages");
-            return;
         }
 
         // Loop over all folders
@@ -2126,6 +2194,9 @@ public class MessagingController {
 
             // Send flag change to server
             queueSetFlag(account, folderServerId, newState, flag, entry.getValue());
+        }
+
+        if (!folderMap.isEmpty()) {
             processPendingCommands(account);
         }
     }
@@ -2239,7 +2310,7 @@ public class MessagingController {
 
     public void loadMessageRemotePartial(final Account account, final String folder,
             final String uid, final MessagingListener listener) {
-        put("loadMessageRemotePartial", listener, new Runnable() {
+        put(account, "loadMessageRemotePartial", listener, new Runnable() {
             @Override
             public void run() {
                 loadMessageRemoteSynchronous(account, folder, uid, listener, true);
@@ -2250,7 +2321,7 @@ public class MessagingController {
     //TODO: Fix the callback mess. See GH-782
     public void loadMessageRemote(final Account account, final String folder,
             final String uid, final MessagingListener listener) {
-        put("loadMessageRemote", listener, new Runnable() {
+        put(account, "loadMessageRemote", listener, new Runnable() {
             @Override
             public void run() {
                 loadMessageRemoteSynchronous(account, folder, uid, listener, false);
@@ -2377,7 +2448,7 @@ public class MessagingController {
     public void loadAttachment(final Account account, final LocalMessage message, final Part part,
             final MessagingListener listener) {
 
-        put("loadAttachment", listener, new Runnable() {
+        put(account, "loadAttachment", listener, new Runnable() {
             @Override
             public void run() {
                 Folder remoteFolder = null;
@@ -2466,7 +2537,7 @@ public class MessagingController {
      */
     public void sendPendingMessages(final Account account,
             MessagingListener listener) {
-        putBackground("sendPendingMessages", listener, new Runnable() {
+        putBackground(account, "sendPendingMessages", listener, new Runnable() {
             @Override
             public void run() {
                 if (!account.isAvailable(context)) {
@@ -2765,7 +2836,7 @@ public class MessagingController {
         };
 
 
-        put("getFolderUnread:" + account.getDescription() + ":" + folderServerId, l, unreadRunnable);
+        put(account, "getFolderUnread:" + account.getDescription() + ":" + folderServerId, l, unreadRunnable);
     }
 
     public int getFolderUnreadMessageCount(Account account, String folderServerId) throws MessagingException {
@@ -2810,7 +2881,7 @@ public class MessagingController {
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
                 suppressMessages(account, messages);
 
-                putBackground("moveMessages", null, new Runnable() {
+                putBackground(account, "moveMessages", null, new Runnable() {
                     @Override
                     public void run() {
                         moveOrCopyMessageSynchronous(account, srcFolder, messages, destFolder, false);
@@ -2827,7 +2898,7 @@ public class MessagingController {
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
                 suppressMessages(account, messages);
 
-                putBackground("moveMessagesInThread", null, new Runnable() {
+                putBackground(account, "moveMessagesInThread", null, new Runnable() {
                     @Override
                     public void run() {
                         try {
@@ -2852,7 +2923,7 @@ public class MessagingController {
         actOnMessageGroup(srcAccount, srcFolder, messageReferences, new MessageActor() {
             @Override
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
-                putBackground("copyMessages", null, new Runnable() {
+                putBackground(account, "copyMessages", null, new Runnable() {
                     @Override
                     public void run() {
                         moveOrCopyMessageSynchronous(srcAccount, srcFolder, messages, destFolder, true);
@@ -2867,7 +2938,7 @@ public class MessagingController {
         actOnMessageGroup(srcAccount, srcFolder, messageReferences, new MessageActor() {
             @Override
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
-                putBackground("copyMessagesInThread", null, new Runnable() {
+                putBackground(account, "copyMessagesInThread", null, new Runnable() {
                     @Override
                     public void run() {
                         try {
@@ -2983,7 +3054,7 @@ public class MessagingController {
     }
 
     public void expunge(final Account account, final String folder) {
-        putBackground("expunge", null, new Runnable() {
+        putBackground(account, "expunge", null, new Runnable() {
             @Override
             public void run() {
                 queueExpunge(account, folder);
@@ -3017,7 +3088,7 @@ public class MessagingController {
                     final List<LocalMessage> accountMessages) {
                 suppressMessages(account, accountMessages);
 
-                putBackground("deleteThreads", null, new Runnable() {
+                putBackground(account, "deleteThreads", null, new Runnable() {
                     @Override
                     public void run() {
                         deleteThreadsSynchronous(account, messageFolder.getServerId(), accountMessages);
@@ -3069,7 +3140,7 @@ public class MessagingController {
                     final List<LocalMessage> accountMessages) {
                 suppressMessages(account, accountMessages);
 
-                putBackground("deleteMessages", null, new Runnable() {
+                putBackground(account, "deleteMessages", null, new Runnable() {
                     @Override
                     public void run() {
                         deleteMessagesSynchronous(account, messageFolder.getServerId(), accountMessages, listener);
@@ -3092,7 +3163,7 @@ public class MessagingController {
             public void act(final Account account, final LocalFolder messageFolder,
                     final List<LocalMessage> accountMessages) {
 
-                putBackground("debugClearLocalMessages", null, new Runnable() {
+                putBackground(account, "debugClearLocalMessages", null, new Runnable() {
                     @Override
                     public void run() {
                         for (LocalMessage message : accountMessages) {
@@ -3234,7 +3305,7 @@ public class MessagingController {
     }
 
     public void emptyTrash(final Account account, MessagingListener listener) {
-        putBackground("emptyTrash", listener, new Runnable() {
+        putBackground(account, "emptyTrash", listener, new Runnable() {
             @Override
             public void run() {
                 LocalFolder localFolder = null;
@@ -3272,7 +3343,7 @@ public class MessagingController {
     }
 
     public void clearFolder(final Account account, final String folderServerId, final ActivityListener listener) {
-        putBackground("clearFolder", listener, new Runnable() {
+        putBackground(account, "clearFolder", listener, new Runnable() {
             @Override
             public void run() {
                 clearFolderSynchronous(account, folderServerId, listener);
@@ -3408,7 +3479,7 @@ public class MessagingController {
                 } catch (Exception e) {
                     Timber.e(e, "Unable to synchronize mail");
                 }
-                putBackground("finalize sync", null, new Runnable() {
+                putBackgroundAfterQueuedCommands("finalize sync", new Runnable() {
                             @Override
                             public void run() {
 
@@ -3487,7 +3558,7 @@ public class MessagingController {
         } catch (MessagingException e) {
             Timber.e(e, "Unable to synchronize account %s", account.getName());
         } finally {
-            putBackground("clear notification flag for " + account.getDescription(), null, new Runnable() {
+            putBackground(account, "clear notification flag for " + account.getDescription(), null, new Runnable() {
                         @Override
                         public void run() {
                             Timber.v("Clearing notification flag for %s", account.getDescription());
@@ -3525,7 +3596,7 @@ public class MessagingController {
             return;
         }
 
-        putBackground("sync" + folder.getServerId(), null, new Runnable() {
+        putBackground(account, "sync" + folder.getServerId(), null, new Runnable() {
                     @Override
                     public void run() {
                         LocalFolder tLocalFolder = null;
@@ -3576,7 +3647,7 @@ public class MessagingController {
 
 
     public void compact(final Account account, final MessagingListener ml) {
-        putBackground("compact:" + account.getDescription(), ml, new Runnable() {
+        putBackground(account, "compact:" + account.getDescription(), ml, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -3598,7 +3669,7 @@ public class MessagingController {
     }
 
     public void clear(final Account account, final MessagingListener ml) {
-        putBackground("clear:" + account.getDescription(), ml, new Runnable() {
+        putBackground(account, "clear:" + account.getDescription(), ml, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -3626,7 +3697,7 @@ public class MessagingController {
     }
 
     public void recreate(final Account account, final MessagingListener ml) {
-        putBackground("recreate:" + account.getDescription(), ml, new Runnable() {
+        putBackground(account, "recreate:" + account.getDescription(), ml, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -3797,28 +3868,6 @@ public class MessagingController {
                 fMode == Folder.FolderClass.SECOND_CLASS);
     }
 
-    private static AtomicInteger sequencing = new AtomicInteger(0);
-
-    private static class Command implements Comparable<Command> {
-        public Runnable runnable;
-        public MessagingListener listener;
-        public String description;
-        boolean isForegroundPriority;
-
-        int sequence = sequencing.getAndIncrement();
-
-        @Override
-        public int compareTo(@NonNull Command other) {
-            if (other.isForegroundPriority && !isForegroundPriority) {
-                return 1;
-            } else if (!other.isForegroundPriority && isForegroundPriority) {
-                return -1;
-            } else {
-                return (sequence - other.sequence);
-            }
-        }
-    }
-
     public MessagingListener getCheckMailListener() {
         return checkMailListener;
     }
@@ -3947,7 +3996,7 @@ public class MessagingController {
                 account.getDescription(), remoteFolder.getServerId());
 
         final CountDownLatch latch = new CountDownLatch(1);
-        putBackground("Push messageArrived of account " + account.getDescription()
+        putBackground(account, "Push messageArrived of account " + account.getDescription()
                 + ", folder " + remoteFolder.getServerId(), null, new Runnable() {
             @Override
             public void run() {
@@ -0,0 +1,287 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.fsck.k9.controller.MessagingControllerCommands.PendingCommand;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingExpunge;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingMarkAllAsRead;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingMoveOrCopy;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingSetFlag;
+import com.fsck.k9.mail.Flag;
+
+
+/**
+ * Merges adjacent pending commands before they are replayed, so a long offline period doesn't result in thousands of
+ * round trips to the server.
+ * <p>
+ * Only runs of adjacent commands are merged, so the order of commands that might depend on each other is retained:
+ * <ul>
+ * <li>{@link PendingSetFlag}: Only the last state of a flag is sent for each message. The remaining UIDs are grouped
+ * into at most two commands (set/unset) per folder and flag.</li>
+ * <li>{@link PendingMoveOrCopy}: Commands with the same source folder, destination folder and operation are merged.
+ * </li>
+ * <li>{@link PendingExpunge} and {@link PendingMarkAllAsRead}: Only one command per folder is kept.</li>
+ * </ul>
+ * {@link PendingSetFlag} commands without UIDs have no effect and are dropped.
+ * </p>
+ */
+class PendingCommandCoalescer {
+    private PendingCommandCoalescer() { }
+
+    static Result coalesce(List<PendingCommand> pendingCommands) {
+        Result result = new Result(pendingCommands.size());
+
+        int index = 0;
+        int size = pendingCommands.size();
+        while (index < size) {
+            PendingCommand command = pendingCommands.get(index);
+            if (isNoOp(command)) {
+                result.dropCommand(command);
+                index++;
+                continue;
+            }
+
+            int end = index + 1;
+            while (end < size && canMerge(command, pendingCommands.get(end))) {
+                end++;
+            }
+
+            List<PendingCommand> run = pendingCommands.subList(index, end);
+            if (run.size() == 1) {
+                result.addCommand(command, Collections.singletonList(command));
+            } else if (command instanceof PendingSetFlag) {
+                coalesceSetFlagCommands(run, result);
+            } else if (command instanceof PendingMoveOrCopy) {
+                coalesceMoveOrCopyCommands(run, result);
+            } else {
+                coalescePerFolderCommands(run, result);
+            }
+
+            index = end;
+        }
+
+        return result;
+    }
+
+    private static boolean isNoOp(PendingCommand command) {
+        return command instanceof PendingSetFlag && ((PendingSetFlag) command).uids.isEmpty();
+    }
+
+    private static boolean canMerge(PendingCommand first, PendingCommand command) {
+        if (first instanceof PendingSetFlag) {
+            return command instanceof PendingSetFlag;
+        } else if (first instanceof PendingMoveOrCopy) {
+            return command instanceof PendingMoveOrCopy && isSameMoveOrCopy((PendingMoveOrCopy) first,
+                    (PendingMoveOrCopy) command);
+        } else if (first instanceof PendingExpunge) {
+            return command instanceof PendingExpunge;
+        } else if (first instanceof PendingMarkAllAsRead) {
+            return command instanceof PendingMarkAllAsRead;
+        }
+
+        return false;
+    }
+
+    private static boolean isSameMoveOrCopy(PendingMoveOrCopy first, PendingMoveOrCopy command) {
+        return first.srcFolder.equals(command.srcFolder) && first.destFolder.equals(command.destFolder) &&
+                first.isCopy == command.isCopy && (first.newUidMap == null) == (command.newUidMap == null);
+    }
+
+    private static void coalesceSetFlagCommands(List<PendingCommand> run, Result result) {
+        Map<FlagTarget, Map<String, Boolean>> statesByTarget = new LinkedHashMap<>();
+        for (PendingCommand command : run) {
+            PendingSetFlag setFlag = (PendingSetFlag) command;
+            FlagTarget target = new FlagTarget(setFlag.folder, setFlag.flag);
+
+            Map<String, Boolean> states = statesByTarget.get(target);
+            if (states == null) {
+                states = new LinkedHashMap<>();
+                statesByTarget.put(target, states);
+            }
+
+            for (String uid : setFlag.uids) {
+                states.put(uid, setFlag.newState);
+            }
+        }
+
+        List<PendingCommand> mergedCommands = new ArrayList<>();
+        for (Entry<FlagTarget, Map<String, Boolean>> entry : statesByTarget.entrySet()) {
+            FlagTarget target = entry.getKey();
+
+            List<String> setUids = new ArrayList<>();
+            List<String> unsetUids = new ArrayList<>();
+            for (Entry<String, Boolean> state : entry.getValue().entrySet()) {
+                if (state.getValue()) {
+                    setUids.add(state.getKey());
+                } else {
+                    unsetUids.add(state.getKey());
+                }
+            }
+
+            if (!setUids.isEmpty()) {
+                mergedCommands.add(PendingSetFlag.create(target.folder, true, target.flag, setUids));
+            }
+            if (!unsetUids.isEmpty()) {
+                mergedCommands.add(PendingSetFlag.create(target.folder, false, target.flag, unsetUids));
+            }
+        }
+
+        result.addCommands(mergedCommands, run);
+    }
+
+    private static void coalesceMoveOrCopyCommands(List<PendingCommand> run, Result result) {
+        PendingMoveOrCopy first = (PendingMoveOrCopy) run.get(0);
+
+        PendingMoveOrCopy mergedCommand;
+        if (first.newUidMap != null) {
+            Map<String, String> uidMap = new LinkedHashMap<>();
+            for (PendingCommand command : run) {
+                uidMap.putAll(((PendingMoveOrCopy) command).newUidMap);
+            }
+            mergedCommand = PendingMoveOrCopy.create(first.srcFolder, first.destFolder, first.isCopy, uidMap);
+        } else {
+            List<String> uids = new ArrayList<>();
+            for (PendingCommand command : run) {
+                uids.addAll(((PendingMoveOrCopy) command).uids);
+            }
+            mergedCommand = PendingMoveOrCopy.create(first.srcFolder, first.destFolder, first.isCopy, uids);
+        }
+
+        result.addCommand(mergedCommand, run);
+    }
+
+    private static void coalescePerFolderCommands(List<PendingCommand> run, Result result) {
+        Map<String, List<PendingCommand>> commandsByFolder = new LinkedHashMap<>();
+        for (PendingCommand command : run) {
+            String folder = getFolder(command);
+
+            List<PendingCommand> folderCommands = commandsByFolder.get(folder);
+            if (folderCommands == null) {
+                folderCommands = new ArrayList<>();
+                commandsByFolder.put(folder, folderCommands);
+            }
+            folderCommands.add(command);
+        }
+
+        for (List<PendingCommand> folderCommands : commandsByFolder.values()) {
+            result.addCommand(folderCommands.get(0), folderCommands);
+        }
+    }
+
+    private static String getFolder(PendingCommand command) {
+        if (command instanceof PendingExpunge) {
+            return ((PendingExpunge) command).folder;
+        } else if (command instanceof PendingMarkAllAsRead) {
+            return ((PendingMarkAllAsRead) command).folder;
+        }
+
+        throw new IllegalArgumentException("Unsupported command: " + command.getCommandName());
+    }
+
+
+    static class Result {
+        private final int originalCommandCount;
+        private final List<CoalescedCommand> commands = new ArrayList<>();
+        private final List<PendingCommand> droppedCommands = new ArrayList<>();
+
+
+        private Result(int originalCommandCount) {
+            this.originalCommandCount = originalCommandCount;
+        }
+
+        private void addCommand(PendingCommand command, List<PendingCommand> sourceCommands) {
+            List<PendingCommand> originalCommands = new ArrayList<>(sourceCommands);
+            commands.add(new CoalescedCommand(command, originalCommands, originalCommands));
+        }
+
+        /**
+         * The source commands are only attached to the last command, so they are not removed from the database
+         * before all commands created from them have been executed.
+         */
+        private void addCommands(List<PendingCommand> mergedCommands, List<PendingCommand> sourceCommands) {
+            List<PendingCommand> originalCommands = new ArrayList<>(sourceCommands);
+            int lastIndex = mergedCommands.size() - 1;
+            for (int i = 0; i < lastIndex; i++) {
+                commands.add(new CoalescedCommand(mergedCommands.get(i), Collections.<PendingCommand>emptyList(),
+                        originalCommands));
+            }
+            commands.add(new CoalescedCommand(mergedCommands.get(lastIndex), originalCommands, originalCommands));
+        }
+
+        private void dropCommand(PendingCommand command) {
+            droppedCommands.add(command);
+        }
+
+        List<CoalescedCommand> getCommands() {
+            return commands;
+        }
+
+        /**
+         * @return Commands that turned out to have no effect and can be removed without executing anything.
+         */
+        List<PendingCommand> getDroppedCommands() {
+            return droppedCommands;
+        }
+
+        int getSavedCommandCount() {
+            return originalCommandCount - commands.size();
+        }
+    }
+
+    static class CoalescedCommand {
+        final PendingCommand command;
+        /**
+         * The stored commands that may be removed from the database once {@link #command} was executed.
+         */
+        final List<PendingCommand> sourceCommands;
+        /**
+         * All stored commands that were merged into {@link #command} and the other commands created from the same
+         * run. This is the same instance for all commands of a run. If one of them fails permanently, these commands
+         * are replayed one by one instead, so a single bad command doesn't discard the others.
+         */
+        final List<PendingCommand> originalCommands;
+
+
+        CoalescedCommand(PendingCommand command, List<PendingCommand> sourceCommands,
+                List<PendingCommand> originalCommands) {
+            this.command = command;
+            this.sourceCommands = sourceCommands;
+            this.originalCommands = originalCommands;
+        }
+    }
+
+    private static class FlagTarget {
+        final String folder;
+        final Flag flag;
+
+
+        FlagTarget(String folder, Flag flag) {
+            this.folder = folder;
+            this.flag = flag;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FlagTarget)) {
+                return false;
+            }
+
+            FlagTarget that = (FlagTarget) o;
+            return folder.equals(that.folder) && flag == that.flag;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * folder.hashCode() + flag.hashCode();
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -24,7 +25,6 @@ import com.fsck.k9.controller.MessagingListener;
 import com.fsck.k9.controller.UidReverseComparator;
 import com.fsck.k9.mail.AuthenticationFailedException;
 import com.fsck.k9.mail.BodyFactory;
-import com.fsck.k9.mail.DefaultBodyFactory;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
@@ -39,6 +39,7 @@ import com.fsck.k9.mailstore.LocalFolder;
 import com.fsck.k9.mailstore.LocalFolder.MoreMessages;
 import com.fsck.k9.mailstore.LocalMessage;
 import com.fsck.k9.mailstore.LocalStore;
+import com.fsck.k9.mailstore.LocalStoreBodyFactory;
 import com.fsck.k9.mailstore.MessageRemovalListener;
 import com.fsck.k9.notification.NotificationController;
 import timber.log.Timber;
@@ -47,6 +48,12 @@ import static com.fsck.k9.helper.ExceptionHelper.getRootCauseMessage;
 
 
 class ImapSync {
+    /**
+     * Number of downloaded small messages that are written to the database in one transaction.
+     */
+    private static final int SMALL_MESSAGE_STORE_BATCH_SIZE = 50;
+
+
     private final NotificationController notificationController;
     private final MessagingController controller;
     private final Context context;
@@ -247,7 +254,13 @@ class ImapSync {
             /*
              * Now we download the actual content of messages.
              */
-            int newMessages = downloadMessages(account, remoteFolder, localFolder, remoteMessages, false, true);
+            // A folder provided by the pusher may have been opened a long time ago, so its HIGHESTMODSEQ can't be
+            // trusted
+            long highestModSeq = providedRemoteFolder == null ?
+                    remoteFolder.getHighestModSeq() : Folder.UNKNOWN_MOD_SEQ;
+
+            int newMessages = downloadMessages(account, remoteFolder, localFolder, remoteMessages, false, true,
+                    highestModSeq);
 
             int unreadMessageCount = localFolder.getUnreadMessageCount();
             for (MessagingListener l : getListeners()) {
@@ -336,6 +349,9 @@ class ImapSync {
      *         Only flags will be fetched from the remote store if this is {@code true}.
      * @param purgeToVisibleLimit
      *         If true, local messages will be purged down to the limit of visible messages.
+     * @param highestModSeq
+     *         The current HIGHESTMODSEQ value of the remote folder or {@code -1} if it's not known. If present, only the
+     *         flags of messages that changed since the last sync will be fetched.
      *
      * @return The number of downloaded messages that are not flagged as {@link Flag#SEEN}.
      *
@@ -343,7 +359,7 @@ class ImapSync {
      */
     int downloadMessages(final Account account, final Folder remoteFolder,
             final LocalFolder localFolder, List<Message> inputMessages,
-            boolean flagSyncOnly, boolean purgeToVisibleLimit) throws MessagingException {
+            boolean flagSyncOnly, boolean purgeToVisibleLimit, long highestModSeq) throws MessagingException {
 
         final Date earliestDate = account.getEarliestPollDate();
         Date downloadStarted = new Date(); // now
@@ -445,7 +461,7 @@ class ImapSync {
          * download.
          */
 
-        refreshLocalMessageFlags(account, remoteFolder, localFolder, syncFlagMessages, progress, todo);
+        refreshLocalMessageFlags(account, remoteFolder, localFolder, syncFlagMessages, progress, todo, highestModSeq);
 
         Timber.d("SYNC: Synced remote messages for folder %s, %d new messages", folder, newMessages.get());
 
@@ -593,51 +609,22 @@ class ImapSync {
 
         Timber.d("SYNC: Fetching %d small messages for folder %s", smallMessages.size(), folder);
 
+        final List<T> messagesToStore = new ArrayList<>(SMALL_MESSAGE_STORE_BATCH_SIZE);
         remoteFolder.fetch(smallMessages,
                 fp, new MessageRetrievalListener<T>() {
                     @Override
                     public void messageFinished(final T message, int number, int ofTotal) {
-                        try {
-
-                            if (!shouldImportMessage(message, earliestDate)) {
-                                progress.incrementAndGet();
-
-                                return;
-                            }
-
-                            // Store the updated message locally
-                            final LocalMessage localMessage = localFolder.storeSmallMessage(message, new Runnable() {
-                                @Override
-                                public void run() {
-                                    progress.incrementAndGet();
-                                }
-                            });
-
-                            // Increment the number of "new messages" if the newly downloaded message is
-                            // not marked as read.
-                            if (!localMessage.isSet(Flag.SEEN)) {
-                                newMessages.incrementAndGet();
-                            }
+                        if (!shouldImportMessage(message, earliestDate)) {
+                            progress.incrementAndGet();
 
-                            Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
-                                    account, folder, message.getUid());
-
-                            // Update the listener with what we've found
-                            for (MessagingListener l : getListeners()) {
-                                l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
-                                if (!localMessage.isSet(Flag.SEEN)) {
-                                    l.synchronizeMailboxNewMessage(account, folder, localMessage);
-                                }
-                            }
-                            // Send a notification of this message
-
-                            if (shouldNotifyForMessage(account, localFolder, message)) {
-                                // Notify with the localMessage so that we don't have to recalculate the content preview.
-                                notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
-                            }
+                            return;
+                        }
 
-                        } catch (MessagingException me) {
-                            Timber.e(me, "SYNC: fetch small messages");
+                        messagesToStore.add(message);
+                        if (messagesToStore.size() >= SMALL_MESSAGE_STORE_BATCH_SIZE) {
+                            storeSmallMessages(account, localFolder, messagesToStore, progress, unreadBeforeStart,
+                                    newMessages, todo);
+                            messagesToStore.clear();
                         }
                     }
 
@@ -648,11 +635,79 @@ class ImapSync {
                     @Override
                     public void messagesFinished(int total) {
                     }
-                });
+                }, new LocalStoreBodyFactory());
+
+        storeSmallMessages(account, localFolder, messagesToStore, progress, unreadBeforeStart, newMessages, todo);
 
         Timber.d("SYNC: Done fetching small messages for folder %s", folder);
     }
 
+    private <T extends Message> void storeSmallMessages(Account account, LocalFolder localFolder, List<T> messages,
+            AtomicInteger progress, int unreadBeforeStart, AtomicInteger newMessages, int todo) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        List<LocalMessage> localMessages;
+        try {
+            localMessages = localFolder.storeSmallMessages(messages);
+        } catch (MessagingException e) {
+            Timber.e(e, "SYNC: Error storing %d small messages, falling back to storing them one by one",
+                    messages.size());
+            localMessages = storeSmallMessagesIndividually(localFolder, messages);
+        }
+
+        String folder = localFolder.getServerId();
+        for (int i = 0, count = localMessages.size(); i < count; i++) {
+            LocalMessage localMessage = localMessages.get(i);
+            if (localMessage == null) {
+                continue;
+            }
+
+            Message message = messages.get(i);
+            progress.incrementAndGet();
+
+            // Increment the number of "new messages" if the newly downloaded message is
+            // not marked as read.
+            if (!localMessage.isSet(Flag.SEEN)) {
+                newMessages.incrementAndGet();
+            }
+
+            Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
+                    account, folder, message.getUid());
+
+            // Update the listener with what we've found
+            for (MessagingListener l : getListeners()) {
+                l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
+                if (!localMessage.isSet(Flag.SEEN)) {
+                    l.synchronizeMailboxNewMessage(account, folder, localMessage);
+                }
+            }
+            // Send a notification of this message
+
+            if (shouldNotifyForMessage(account, localFolder, message)) {
+                // Notify with the localMessage so that we don't have to recalculate the content preview.
+                notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
+            }
+        }
+    }
+
+    private <T extends Message> List<LocalMessage> storeSmallMessagesIndividually(LocalFolder localFolder,
+            List<T> messages) {
+        List<LocalMessage> localMessages = new ArrayList<>(messages.size());
+        for (T message : messages) {
+            LocalMessage localMessage = null;
+            try {
+                localMessage = localFolder.storeSmallMessages(Collections.singletonList(message)).get(0);
+            } catch (MessagingException me) {
+                Timber.e(me, "SYNC: fetch small messages");
+            }
+            localMessages.add(localMessage);
+        }
+
+        return localMessages;
+    }
+
     private <T extends Message> void downloadLargeMessages(final Account account, final Folder<T> remoteFolder,
             final LocalFolder localFolder,
             List<T> largeMessages,
@@ -712,7 +767,8 @@ class ImapSync {
             final LocalFolder localFolder,
             List<Message> syncFlagMessages,
             final AtomicInteger progress,
-            final int todo
+            final int todo,
+            long highestModSeq
     ) throws MessagingException {
 
         final String folder = remoteFolder.getServerId();
@@ -728,7 +784,32 @@ class ImapSync {
             }
         }
 
-        remoteFolder.fetch(undeletedMessages, fp, null);
+        long lastHighestModSeq = localFolder.getHighestModSeq();
+        boolean useModSeq = highestModSeq != Folder.UNKNOWN_MOD_SEQ && lastHighestModSeq != Folder.UNKNOWN_MOD_SEQ &&
+                lastHighestModSeq <= highestModSeq;
+        if (useModSeq) {
+            List<Message> changedMessages;
+            if (lastHighestModSeq == highestModSeq) {
+                Timber.d("SYNC: HIGHESTMODSEQ of folder %s is unchanged; skipping flag sync", folder);
+                changedMessages = Collections.emptyList();
+            } else {
+                changedMessages = remoteFolder.fetchChangedFlags(undeletedMessages, lastHighestModSeq);
+            }
+
+            Set<Message> changedMessageSet = new HashSet<>(changedMessages);
+            List<Message> messagesToSync = new ArrayList<>();
+            for (Message message : syncFlagMessages) {
+                if (message.isSet(Flag.DELETED) || changedMessageSet.contains(message)) {
+                    messagesToSync.add(message);
+                }
+            }
+
+            progress.addAndGet(syncFlagMessages.size() - messagesToSync.size());
+            syncFlagMessages = messagesToSync;
+        } else {
+            remoteFolder.fetch(undeletedMessages, fp, null);
+        }
+
         for (Message remoteMessage : syncFlagMessages) {
             LocalMessage localMessage = localFolder.getMessage(remoteMessage.getUid());
             boolean messageChanged = syncFlags(localMessage, remoteMessage);
@@ -755,6 +836,10 @@ class ImapSync {
                 l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
             }
         }
+
+        if (highestModSeq != Folder.UNKNOWN_MOD_SEQ) {
+            localFolder.setHighestModSeq(highestModSeq);
+        }
     }
 
     private void downloadSaneBody(Account account, Folder remoteFolder, LocalFolder localFolder, Message message)
@@ -773,7 +858,7 @@ class ImapSync {
                  *  they equal we can mark this SYNCHRONIZED instead of PARTIALLY_SYNCHRONIZED
                  */
 
-        remoteFolder.fetch(Collections.singletonList(message), fp, null);
+        remoteFolder.fetch(Collections.singletonList(message), fp, null, new LocalStoreBodyFactory());
 
         // Store the updated message locally
         localFolder.appendMessages(Collections.singletonList(message));
@@ -795,7 +880,7 @@ class ImapSync {
         /*
          * Now download the parts we're interested in storing.
          */
-        BodyFactory bodyFactory = new DefaultBodyFactory();
+        BodyFactory bodyFactory = new LocalStoreBodyFactory();
         for (Part part : viewables) {
             remoteFolder.fetchPart(message, part, null, bodyFactory);
         }
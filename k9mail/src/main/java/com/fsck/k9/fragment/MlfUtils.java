@@ -37,8 +37,8 @@ public class MlfUtils {
 
     static String getSenderAddressFromCursor(Cursor cursor) {
         String fromList = cursor.getString(SENDER_LIST_COLUMN);
-        Address[] fromAddrs = Address.unpack(fromList);
-        return (fromAddrs.length > 0) ? fromAddrs[0].getAddress() : null;
+        Address fromAddress = Address.unpackFirst(fromList);
+        return (fromAddress != null) ? fromAddress.getAddress() : null;
     }
 
     static String buildSubject(String subjectFromCursor, String emptySubject, int threadCount) {
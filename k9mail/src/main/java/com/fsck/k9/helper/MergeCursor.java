@@ -32,6 +32,12 @@ import android.os.Bundle;
 
 /**
  * This class can be used to combine multiple {@link Cursor}s into one.
+ *
+ * <p>
+ * The individual cursors have to be sorted according to the comparator. They are merged using a binary heap. The
+ * merged order is computed incrementally, only as far as the rows that have been accessed, and is remembered as
+ * (cursor, row) pairs. So moving to a position that has been visited before doesn't involve any comparisons.
+ * </p>
  */
 public class MergeCursor implements Cursor {
     /**
@@ -66,6 +72,39 @@ public class MergeCursor implements Cursor {
      */
     private final Comparator<Cursor> mComparator;
 
+    /**
+     * The index of the cursor in {@link #mCursors} providing the row at a given position of the merged cursor.
+     *
+     * <p>
+     * Only the first {@link #mMergedCount} entries are valid.
+     * </p>
+     */
+    private int[] mMergedCursorIndices;
+
+    /**
+     * The position in the cursor providing the row at a given position of the merged cursor.
+     *
+     * @see #mMergedCursorIndices
+     */
+    private int[] mMergedRows;
+
+    /**
+     * The number of positions whose row has already been determined.
+     */
+    private int mMergedCount;
+
+    /**
+     * Binary min-heap of the indices of all cursors that have rows that haven't been merged yet.
+     */
+    private int[] mHeap;
+
+    private int mHeapSize;
+
+    /**
+     * The position of the first row of each cursor that hasn't been merged yet.
+     */
+    private int[] mHeadRows;
+
 
     /**
      * Constructor
@@ -86,6 +125,8 @@ public class MergeCursor implements Cursor {
         mActiveCursorIndex = -1;
         mActiveCursor = null;
         mPosition = -1;
+        mMergedCount = 0;
+        mHeap = null;
 
         for (int i = 0, len = mCursors.length; i < len; i++) {
             Cursor cursor = mCursors[i];
@@ -286,50 +327,7 @@ public class MergeCursor implements Cursor {
 
     @Override
     public boolean moveToNext() {
-        int count = getCount();
-        if (mPosition == count) {
-            return false;
-        }
-
-        if (mPosition == count - 1) {
-            mActiveCursor.moveToNext();
-            mPosition++;
-            return false;
-        }
-
-        int smallest = -1;
-        for (int i = 0, len = mCursors.length; i < len; i++) {
-            if (mCursors[i] == null || mCursors[i].getCount() == 0 || mCursors[i].isLast()) {
-                continue;
-            }
-
-            if (smallest == -1) {
-                smallest = i;
-                mCursors[smallest].moveToNext();
-                continue;
-            }
-
-            Cursor left = mCursors[smallest];
-            Cursor right = mCursors[i];
-
-            right.moveToNext();
-
-            int result = mComparator.compare(left, right);
-            if (result > 0) {
-                smallest = i;
-                left.moveToPrevious();
-            } else {
-                right.moveToPrevious();
-            }
-        }
-
-        mPosition++;
-        if (smallest != -1) {
-            mActiveCursorIndex = smallest;
-            mActiveCursor = mCursors[mActiveCursorIndex];
-        }
-
-        return true;
+        return moveToPosition(mPosition + 1);
     }
 
     @Override
@@ -352,63 +350,109 @@ public class MergeCursor implements Cursor {
             return true;
         }
 
-        if (position > mPosition) {
-            for (int i = 0, end = position - mPosition; i < end; i++) {
-                if (!moveToNext()) {
-                    return false;
-                }
-            }
-        } else {
-            for (int i = 0, end = mPosition - position; i < end; i++) {
-                if (!moveToPrevious()) {
-                    return false;
-                }
-            }
-        }
+        mergeUpTo(position);
+
+        mPosition = position;
+        mActiveCursorIndex = mMergedCursorIndices[position];
+        mActiveCursor = mCursors[mActiveCursorIndex];
 
-        return true;
+        return mActiveCursor.moveToPosition(mMergedRows[position]);
     }
 
     @Override
     public boolean moveToPrevious() {
-        if (mPosition < 0) {
-            return false;
+        return moveToPosition(mPosition - 1);
+    }
+
+    /**
+     * Extend the merged order until it includes the given position.
+     */
+    private void mergeUpTo(int position) {
+        if (position < mMergedCount) {
+            return;
         }
 
-        mActiveCursor.moveToPrevious();
+        if (mHeap == null) {
+            initializeMerge();
+        } else {
+            // Reading rows moves the cursors away from their first unmerged row
+            for (int i = 0; i < mHeapSize; i++) {
+                int cursorIndex = mHeap[i];
+                mCursors[cursorIndex].moveToPosition(mHeadRows[cursorIndex]);
+            }
+        }
 
-        if (mPosition == 0) {
-            mPosition = -1;
-            return false;
+        while (mMergedCount <= position && mHeapSize > 0) {
+            int cursorIndex = mHeap[0];
+            mMergedCursorIndices[mMergedCount] = cursorIndex;
+            mMergedRows[mMergedCount] = mHeadRows[cursorIndex];
+            mMergedCount++;
+
+            mHeadRows[cursorIndex]++;
+            if (mCursors[cursorIndex].moveToNext()) {
+                siftDown(0);
+            } else {
+                mHeapSize--;
+                if (mHeapSize > 0) {
+                    mHeap[0] = mHeap[mHeapSize];
+                    siftDown(0);
+                }
+            }
         }
+    }
+
+    private void initializeMerge() {
+        int count = getCount();
+        mMergedCursorIndices = new int[count];
+        mMergedRows = new int[count];
+        mMergedCount = 0;
+
+        mHeap = new int[mCursors.length];
+        mHeapSize = 0;
+        mHeadRows = new int[mCursors.length];
 
-        int greatest = -1;
         for (int i = 0, len = mCursors.length; i < len; i++) {
-            if (mCursors[i] == null || mCursors[i].isBeforeFirst()) {
-                continue;
+            Cursor cursor = mCursors[i];
+            if (cursor != null && cursor.moveToFirst()) {
+                mHeap[mHeapSize++] = i;
             }
+        }
 
-            if (greatest == -1) {
-                greatest = i;
-                continue;
+        for (int i = mHeapSize / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    private void siftDown(int heapIndex) {
+        int cursorIndex = mHeap[heapIndex];
+        while (true) {
+            int child = 2 * heapIndex + 1;
+            if (child >= mHeapSize) {
+                break;
             }
 
-            Cursor left = mCursors[greatest];
-            Cursor right = mCursors[i];
+            if (child + 1 < mHeapSize && compareHeads(mHeap[child + 1], mHeap[child]) < 0) {
+                child++;
+            }
 
-            int result = mComparator.compare(left, right);
-            if (result <= 0) {
-                greatest = i;
+            if (compareHeads(cursorIndex, mHeap[child]) <= 0) {
+                break;
             }
-        }
 
-        mPosition--;
-        if (greatest != -1) {
-            mActiveCursorIndex = greatest;
-            mActiveCursor = mCursors[mActiveCursorIndex];
+            mHeap[heapIndex] = mHeap[child];
+            heapIndex = child;
         }
 
-        return true;
+        mHeap[heapIndex] = cursorIndex;
+    }
+
+    /**
+     * Compare the first unmerged rows of two cursors. Ties are broken by cursor index so rows of the cursor that
+     * comes first in {@link #mCursors} are returned first.
+     */
+    private int compareHeads(int leftCursorIndex, int rightCursorIndex) {
+        int result = mComparator.compare(mCursors[leftCursorIndex], mCursors[rightCursorIndex]);
+        return (result != 0) ? result : leftCursorIndex - rightCursorIndex;
     }
 
     @Override
@@ -433,6 +477,10 @@ public class MergeCursor implements Cursor {
             success &= cursor.requery();
         }
 
+        // The rows might have changed, so the merged order has to be computed again
+        mCount = -1;
+        resetCursors();
+
         return success;
     }
 
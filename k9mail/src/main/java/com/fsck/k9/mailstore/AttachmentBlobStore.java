@@ -0,0 +1,195 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.Nullable;
+
+import com.fsck.k9.helper.FileHelper;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.filter.Hex;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import timber.log.Timber;
+
+
+/**
+ * Stores the data of message parts that is too large for the database in files named after the SHA-256 hash of the
+ * content. That way an attachment that is part of several messages is only stored once.
+ * <p>
+ * The {@code attachment_blobs} table keeps track of how many rows of {@code message_parts} reference a file via
+ * their {@code blob_hash} column. The reference counts are maintained by triggers on {@code message_parts}. Files
+ * are only deleted by {@link #deleteUnreferencedBlobs(Collection)} and {@link #deleteAllUnreferencedBlobs()}.
+ * </p>
+ */
+class AttachmentBlobStore {
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int HASH_LENGTH = 64;
+
+
+    private final LocalStore localStore;
+
+
+    AttachmentBlobStore(LocalStore localStore) {
+        this.localStore = localStore;
+    }
+
+    /**
+     * Adds the content of the given file to the store. The file is moved into the store or deleted if the store
+     * already contains the same data.
+     * <p>
+     * Needs to be called inside the transaction that writes the {@code message_parts} row referencing the returned
+     * hash. Otherwise the blob could be deleted as unreferenced in between.
+     * </p>
+     *
+     * @return The hash to store in the {@code blob_hash} column.
+     */
+    String storeBlob(SQLiteDatabase db, File file) throws IOException {
+        String hash = computeHash(file);
+        File blobFile = localStore.getAttachmentFile(hash);
+
+        if (isKnownBlob(db, hash) && blobFile.exists()) {
+            if (!file.delete()) {
+                Timber.d("Couldn't delete duplicate of attachment blob: %s", file.getAbsolutePath());
+            }
+        } else {
+            FileHelper.renameOrMoveByCopying(file, blobFile);
+            db.execSQL("INSERT OR IGNORE INTO attachment_blobs (hash, ref_count) VALUES (?, 0)",
+                    new Object[] { hash });
+        }
+
+        return hash;
+    }
+
+    /**
+     * Returns the hash of the given file if it is part of this store, e.g. because it backs the body of a message part
+     * loaded from the database. Such bodies can be referenced again without copying any data.
+     */
+    @Nullable
+    String getBlobHash(SQLiteDatabase db, File file) {
+        String name = file.getName();
+        if (name.length() != HASH_LENGTH || !file.equals(localStore.getAttachmentFile(name)) || !file.exists()) {
+            return null;
+        }
+
+        return isKnownBlob(db, name) ? name : null;
+    }
+
+    File getBlobFile(String hash) {
+        return localStore.getAttachmentFile(hash);
+    }
+
+    /**
+     * Deletes the files of those of the given blobs that are no longer referenced by any message part.
+     * <p>
+     * When called inside a transaction the files are only deleted after it has been committed. That way a rollback
+     * can't leave message parts referencing deleted files.
+     * </p>
+     */
+    void deleteUnreferencedBlobs(Collection<String> hashes) {
+        if (hashes.isEmpty()) {
+            return;
+        }
+
+        final List<String> candidates = new ArrayList<>(hashes);
+        localStore.getDatabase().runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    deleteBlobsIfUnreferenced(candidates);
+                } catch (MessagingException e) {
+                    Timber.e(e, "Error deleting unreferenced attachment blobs");
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes all files no longer referenced by any message part, e.g. those left behind when the app was killed
+     * before {@link #deleteUnreferencedBlobs(Collection)} was done.
+     */
+    void deleteAllUnreferencedBlobs() throws MessagingException {
+        List<String> hashes = localStore.getDatabase().execute(false, new DbCallback<List<String>>() {
+            @Override
+            public List<String> doDbWork(SQLiteDatabase db) {
+                Cursor cursor = db.query("attachment_blobs", new String[] { "hash" }, "ref_count <= 0",
+                        null, null, null, null);
+                try {
+                    List<String> hashes = new ArrayList<>(cursor.getCount());
+                    while (cursor.moveToNext()) {
+                        hashes.add(cursor.getString(0));
+                    }
+                    return hashes;
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+
+        deleteBlobsIfUnreferenced(hashes);
+    }
+
+    private void deleteBlobsIfUnreferenced(final List<String> hashes) throws MessagingException {
+        // Files are deleted inside the transaction so no other transaction can start referencing a blob in between.
+        // Should the transaction be rolled back, storeBlob() recreates the file of a known blob if it's missing.
+        localStore.getDatabase().execute(true, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                for (String hash : hashes) {
+                    int deletedCount = db.delete("attachment_blobs", "hash = ? AND ref_count <= 0",
+                            new String[] { hash });
+                    if (deletedCount == 0) {
+                        continue;
+                    }
+
+                    File file = localStore.getAttachmentFile(hash);
+                    if (file.exists() && !file.delete()) {
+                        Timber.d("Couldn't delete attachment blob: %s", file.getAbsolutePath());
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    private static boolean isKnownBlob(SQLiteDatabase db, String hash) {
+        Cursor cursor = db.query("attachment_blobs", new String[] { "hash" }, "hash = ?", new String[] { hash },
+                null, null, null);
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    static String computeHash(File file) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, count);
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        return Hex.encodeHex(messageDigest.digest());
+    }
+}
@@ -11,7 +11,6 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 import android.support.annotation.Nullable;
-import android.support.annotation.VisibleForTesting;
 import timber.log.Timber;
 
 import com.fsck.k9.mail.MessagingException;
@@ -42,7 +41,6 @@ public class DeferredFileBody implements RawDataBody, SizeAware {
         this(DEFAULT_MEMORY_BACKED_THRESHOLD, fileFactory, transferEncoding);
     }
 
-    @VisibleForTesting
     DeferredFileBody(int memoryBackedThreshold, FileFactory fileFactory,
             String transferEncoding) {
         this.fileFactory = fileFactory;
@@ -128,7 +126,11 @@ public class DeferredFileBody implements RawDataBody, SizeAware {
     @Override
     public void writeTo(OutputStream out) throws IOException, MessagingException {
         InputStream inputStream = getInputStream();
-        IOUtils.copy(inputStream, out);
+        try {
+            IOUtils.copy(inputStream, out);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
     }
 
     @Override
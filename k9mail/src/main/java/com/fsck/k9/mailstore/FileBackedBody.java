@@ -57,4 +57,8 @@ public class FileBackedBody implements Body, SizeAware, RawDataBody {
     public String getEncoding() {
         return encoding;
     }
+
+    public File getFile() {
+        return file;
+    }
 }
@@ -0,0 +1,76 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Thread-safe histogram of durations using power-of-two millisecond buckets.
+ * <p>
+ * Bucket {@code 0} counts durations below 1 ms, bucket {@code n} durations from 2<sup>n-1</sup> ms to below
+ * 2<sup>n</sup> ms. The last bucket counts everything from 2<sup>{@link #BUCKET_COUNT}-2</sup> ms upwards.
+ * </p>
+ */
+class LatencyHistogram {
+    static final int BUCKET_COUNT = 14;
+
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    void record(long durationNanos) {
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        buckets.incrementAndGet(getBucketIndex(durationMillis));
+    }
+
+    static int getBucketIndex(long durationMillis) {
+        if (durationMillis <= 0) {
+            return 0;
+        }
+
+        int bucketIndex = 64 - Long.numberOfLeadingZeros(durationMillis);
+        return Math.min(bucketIndex, BUCKET_COUNT - 1);
+    }
+
+    long getBucketCount(int bucketIndex) {
+        return buckets.get(bucketIndex);
+    }
+
+    long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += buckets.get(i);
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns something like {@code "lock wait: <1ms=120 <2ms=3 <4ms=1"}, omitting empty buckets.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name).append(':');
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = buckets.get(i);
+            if (count == 0) {
+                continue;
+            }
+
+            if (i == BUCKET_COUNT - 1) {
+                sb.append(" >=").append(1L << (i - 1));
+            } else {
+                sb.append(" <").append(1L << i);
+            }
+            sb.append("ms=").append(count);
+        }
+
+        return sb.toString();
+    }
+}
@@ -30,7 +30,6 @@ import com.fsck.k9.Account;
 import com.fsck.k9.K9;
 import com.fsck.k9.activity.MessageReference;
 import com.fsck.k9.activity.Search;
-import com.fsck.k9.helper.FileHelper;
 import com.fsck.k9.helper.Utility;
 import com.fsck.k9.mail.Address;
 import com.fsck.k9.mail.Body;
@@ -57,7 +56,6 @@ import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
 import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
 import com.fsck.k9.message.extractors.AttachmentCounter;
 import com.fsck.k9.message.extractors.AttachmentInfoExtractor;
-import com.fsck.k9.message.extractors.MessageFulltextCreator;
 import com.fsck.k9.message.extractors.MessagePreviewCreator;
 import com.fsck.k9.message.extractors.PreviewResult;
 import com.fsck.k9.message.extractors.PreviewResult.PreviewType;
@@ -69,7 +67,7 @@ import timber.log.Timber;
 
 
 public class LocalFolder extends Folder<LocalMessage> {
-    private static final int MAX_BODY_SIZE_FOR_DATABASE = 16 * 1024;
+    static final int MAX_BODY_SIZE_FOR_DATABASE = 16 * 1024;
     private static final long INVALID_MESSAGE_PART_ID = -1;
 
 
@@ -89,6 +87,7 @@ public class LocalFolder extends Folder<LocalMessage> {
     private FolderClass notifyClass = FolderClass.INHERITED;
 
     private String pushState = null;
+    private long highestModSeq = UNKNOWN_MOD_SEQ;
     private boolean isInTopGroup = false;
     private boolean isIntegrate = false;
 
@@ -153,9 +152,24 @@ public class LocalFolder extends Folder<LocalMessage> {
                     Cursor cursor = null;
                     try {
                         String baseQuery = "SELECT " + LocalStore.GET_FOLDER_COLS + " FROM folders ";
+                        int folderIdCacheGeneration = localStore.getFolderIdCacheGeneration();
 
                         if (serverId != null) {
-                            cursor = db.rawQuery(baseQuery + "where folders.server_id = ?", new String[] { serverId });
+                            Long cachedFolderId = localStore.getCachedFolderId(serverId);
+                            if (cachedFolderId != null) {
+                                cursor = db.rawQuery(baseQuery + "where folders.id = ? and folders.server_id = ?",
+                                        new String[] { Long.toString(cachedFolderId), serverId });
+                                if (!cursor.moveToFirst()) {
+                                    cursor.close();
+                                    cursor = null;
+                                    localStore.invalidateFolderId(serverId);
+                                }
+                            }
+
+                            if (cursor == null) {
+                                cursor = db.rawQuery(baseQuery + "where folders.server_id = ?",
+                                        new String[] { serverId });
+                            }
                         } else {
                             cursor = db.rawQuery(baseQuery + "where folders.id = ?", new String[] { Long.toString(
                                     databaseId) });
@@ -165,6 +179,7 @@ public class LocalFolder extends Folder<LocalMessage> {
                             int folderId = cursor.getInt(LocalStore.FOLDER_ID_INDEX);
                             if (folderId > 0) {
                                 open(cursor);
+                                localStore.cacheFolderId(serverId, databaseId, folderIdCacheGeneration);
                             }
                         } else {
                             throw new MessagingException("LocalFolder.open(): Folder not found: " +
@@ -207,6 +222,8 @@ public class LocalFolder extends Folder<LocalMessage> {
         String moreMessagesValue = cursor.getString(LocalStore.MORE_MESSAGES_INDEX);
         moreMessages = MoreMessages.fromDatabaseName(moreMessagesValue);
         name = cursor.getString(LocalStore.FOLDER_NAME_INDEX);
+        long storedHighestModSeq = cursor.getLong(LocalStore.FOLDER_HIGHEST_MOD_SEQ_INDEX);
+        highestModSeq = storedHighestModSeq > 0 ? storedHighestModSeq : UNKNOWN_MOD_SEQ;
     }
 
     @Override
@@ -508,6 +525,21 @@ public class LocalFolder extends Folder<LocalMessage> {
         return pushState;
     }
 
+    /**
+     * Returns the highest mod-sequence value of the remote folder at the time flags were last synchronized.
+     *
+     * @return the stored mod-sequence value or {@link #UNKNOWN_MOD_SEQ} if it is unknown.
+     */
+    @Override
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
+    public void setHighestModSeq(long highestModSeq) throws MessagingException {
+        this.highestModSeq = highestModSeq;
+        updateFolderColumn("highest_mod_seq", highestModSeq);
+    }
+
     @Override
     public FolderClass getDisplayClass() {
         return displayClass;
@@ -743,6 +775,7 @@ public class LocalFolder extends Folder<LocalMessage> {
                 "boundary",             // 13
                 "content_id",           // 14
                 "server_extra",         // 15
+                "blob_hash",            // 16
         };
         Cursor cursor = db.query("message_parts", columns, "root = ?",
                 new String[] { String.valueOf(message.getMessagePartId()) }, null, null, "seq");
@@ -815,8 +848,12 @@ public class LocalFolder extends Folder<LocalMessage> {
             part.setBody(body);
         } else if (dataLocation == DataLocation.ON_DISK) {
             String encoding = cursor.getString(7);
+            String blobHash = cursor.getString(16);
+            if (blobHash == null) {
+                return;
+            }
 
-            File file = localStore.getAttachmentFile(Long.toString(id));
+            File file = localStore.getAttachmentBlobStore().getBlobFile(blobHash);
             if (file.exists()) {
                 Body body = new FileBackedBody(file, encoding);
                 part.setBody(body);
@@ -1093,7 +1130,7 @@ public class LocalFolder extends Folder<LocalMessage> {
                             uidMap.put(oldUID, newUid);
 
                             // Message threading in the target folder
-                            ThreadInfo threadInfo = lDestFolder.doMessageThreading(db, message);
+                            ThreadInfo threadInfo = lDestFolder.doMessageThreading(db, message, null);
 
                             /*
                              * "Move" the message into the new folder
@@ -1213,6 +1250,81 @@ public class LocalFolder extends Folder<LocalMessage> {
         });
     }
 
+    /**
+     * Stores multiple messages and sets them as fully downloaded using a single database transaction.
+     *
+     * @param messages Messages to store. Never <code>null</code>.
+     * @return The local versions of the stored messages, in the order of {@code messages}. Never <code>null</code>.
+     */
+    public List<LocalMessage> storeSmallMessages(final List<? extends Message> messages) throws MessagingException {
+        try {
+            return this.localStore.getDatabase().execute(true, new DbCallback<List<LocalMessage>>() {
+                @Override
+                public List<LocalMessage> doDbWork(final SQLiteDatabase db) throws WrappedException,
+                        UnavailableStorageException {
+                    try {
+                        appendMessages(messages);
+
+                        List<String> uids = new ArrayList<>(messages.size());
+                        for (Message message : messages) {
+                            uids.add(message.getUid());
+                        }
+
+                        Map<String, LocalMessage> localMessages = loadMessagesByUids(uids);
+
+                        List<LocalMessage> result = new ArrayList<>(messages.size());
+                        for (String uid : uids) {
+                            LocalMessage localMessage = localMessages.get(uid);
+                            if (localMessage == null) {
+                                throw new MessagingException("Stored message not found: " + uid);
+                            }
+
+                            // Set a flag indicating this message has now be fully downloaded
+                            localMessage.setFlag(Flag.X_DOWNLOADED_FULL, true);
+                            result.add(localMessage);
+                        }
+
+                        return result;
+                    } catch (MessagingException e) {
+                        throw new WrappedException(e);
+                    }
+                }
+            });
+        } catch (WrappedException e) {
+            throw (MessagingException) e.getCause();
+        }
+    }
+
+    private Map<String, LocalMessage> loadMessagesByUids(List<String> uids) throws MessagingException {
+        Map<String, LocalMessage> messages = new HashMap<>(uids.size());
+
+        for (int start = 0; start < uids.size(); start += LocalStore.UID_CHECK_BATCH_SIZE) {
+            int end = Math.min(uids.size(), start + LocalStore.UID_CHECK_BATCH_SIZE);
+            List<String> batch = uids.subList(start, end);
+
+            StringBuilder query = new StringBuilder();
+            query.append("SELECT ").append(LocalStore.GET_MESSAGES_COLS)
+                    .append("FROM messages ")
+                    .append("LEFT JOIN message_parts ON (message_parts.id = messages.message_part_id) ")
+                    .append("LEFT JOIN threads ON (threads.message_id = messages.id) ")
+                    .append("WHERE folder_id = ? AND uid IN (");
+
+            String[] selectionArgs = new String[batch.size() + 1];
+            selectionArgs[0] = Long.toString(databaseId);
+            for (int i = 0; i < batch.size(); i++) {
+                query.append(i == 0 ? "?" : ",?");
+                selectionArgs[i + 1] = batch.get(i);
+            }
+            query.append(")");
+
+            for (LocalMessage message : localStore.getMessages(null, this, query.toString(), selectionArgs)) {
+                messages.put(message.getUid(), message);
+            }
+        }
+
+        return messages;
+    }
+
     /**
      * The method differs slightly from the contract; If an incoming message already has a uid
      * assigned and it matches the uid of an existing message then this message will replace the
@@ -1249,11 +1361,26 @@ public class LocalFolder extends Folder<LocalMessage> {
         }
     }
 
-    private ThreadInfo getThreadInfo(SQLiteDatabase db, String messageId, boolean onlyEmpty) {
+    /**
+     * Looks up the thread container of the message with the given Message-ID in this folder.
+     *
+     * @param threadInfoCache
+     *         Used to answer lookups that aren't restricted to empty messages. Can be {@code null}.
+     */
+    private ThreadInfo getThreadInfo(SQLiteDatabase db, String messageId, boolean onlyEmpty,
+            ThreadInfoCache threadInfoCache) {
         if (messageId == null) {
             return null;
         }
 
+        boolean useCache = !onlyEmpty && threadInfoCache != null;
+        if (useCache) {
+            ThreadInfo cachedThreadInfo = threadInfoCache.get(messageId);
+            if (cachedThreadInfo != null) {
+                return cachedThreadInfo;
+            }
+        }
+
         String sql = "SELECT t.id, t.message_id, t.root, t.parent " +
                 "FROM messages m " +
                 "LEFT JOIN threads t ON (t.message_id = m.id) " +
@@ -1272,7 +1399,12 @@ public class LocalFolder extends Folder<LocalMessage> {
                     long rootId = (cursor.isNull(2)) ? -1 : cursor.getLong(2);
                     long parentId = (cursor.isNull(3)) ? -1 : cursor.getLong(3);
 
-                    return new ThreadInfo(threadId, msgId, messageId, rootId, parentId);
+                    ThreadInfo threadInfo = new ThreadInfo(threadId, msgId, messageId, rootId, parentId);
+                    if (useCache) {
+                        threadInfoCache.put(threadInfo);
+                    }
+
+                    return threadInfo;
                 }
             } finally {
                 cursor.close();
@@ -1303,8 +1435,9 @@ public class LocalFolder extends Folder<LocalMessage> {
                 @Override
                 public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
                     try {
+                        ThreadInfoCache threadInfoCache = new ThreadInfoCache();
                         for (Message message : messages) {
-                            saveMessage(db, message, copy, uidMap);
+                            saveMessage(db, message, copy, uidMap, threadInfoCache);
                         }
                     } catch (MessagingException e) {
                         throw new WrappedException(e);
@@ -1314,6 +1447,7 @@ public class LocalFolder extends Folder<LocalMessage> {
             });
 
             this.localStore.notifyChange();
+            this.localStore.getMessageFulltextIndexer().scheduleIndexing();
 
             return uidMap;
         } catch (WrappedException e) {
@@ -1321,8 +1455,8 @@ public class LocalFolder extends Folder<LocalMessage> {
         }
     }
 
-    private void saveMessage(SQLiteDatabase db, Message message, boolean copy, Map<String, String> uidMap)
-            throws MessagingException {
+    private void saveMessage(SQLiteDatabase db, Message message, boolean copy, Map<String, String> uidMap,
+            ThreadInfoCache threadInfoCache) throws MessagingException {
         if (!(message instanceof MimeMessage)) {
             throw new Error("LocalStore can only store Messages that extend MimeMessage");
         }
@@ -1344,13 +1478,20 @@ public class LocalFolder extends Folder<LocalMessage> {
             // The message will be saved with the newly generated UID
             uid = randomLocalUid;
         } else {
-            LocalMessage oldMessage = getMessage(uid);
+            Cursor cursor = db.rawQuery("SELECT id, message_part_id FROM messages WHERE uid = ? AND folder_id = ?",
+                    new String[] { uid, Long.toString(databaseId) });
+            try {
+                if (cursor.moveToFirst()) {
+                    oldMessageId = cursor.getLong(0);
 
-            if (oldMessage != null) {
-                oldMessageId = oldMessage.getDatabaseId();
+                    // The Message-ID of the existing row might change
+                    threadInfoCache.removeByMessageDatabaseId(oldMessageId);
 
-                long oldRootMessagePartId = oldMessage.getMessagePartId();
-                deleteMessagePartsAndDataFromDisk(oldRootMessagePartId);
+                    long oldRootMessagePartId = cursor.getLong(1);
+                    deleteMessagePartsAndDataFromDisk(oldRootMessagePartId);
+                }
+            } finally {
+                cursor.close();
             }
         }
 
@@ -1360,7 +1501,7 @@ public class LocalFolder extends Folder<LocalMessage> {
 
         if (oldMessageId == -1) {
             // This is a new message. Do the message threading.
-            ThreadInfo threadInfo = doMessageThreading(db, message);
+            ThreadInfo threadInfo = doMessageThreading(db, message, threadInfoCache);
             oldMessageId = threadInfo.msgId;
             rootId = threadInfo.rootId;
             parentId = threadInfo.parentId;
@@ -1372,9 +1513,6 @@ public class LocalFolder extends Folder<LocalMessage> {
             PreviewType previewType = previewResult.getPreviewType();
             DatabasePreviewType databasePreviewType = DatabasePreviewType.fromPreviewType(previewType);
 
-            MessageFulltextCreator fulltextCreator = localStore.getMessageFulltextCreator();
-            String fulltext = fulltextCreator.createFulltext(message);
-
             AttachmentCounter attachmentCounter = localStore.getAttachmentCounter();
             int attachmentCount = attachmentCounter.getAttachmentCount(message);
 
@@ -1436,12 +1574,10 @@ public class LocalFolder extends Folder<LocalMessage> {
                 db.update("messages", cv, "id = ?", new String[] { Long.toString(oldMessageId) });
             }
 
-            if (fulltext != null) {
-                cv.clear();
-                cv.put("docid", msgId);
-                cv.put("fulltext", fulltext);
-                db.replace("messages_fulltext", null, cv);
-            }
+            // The fulltext index entry is created by MessageFulltextIndexer outside of this transaction
+            cv.clear();
+            cv.put("message_id", msgId);
+            db.replace("messages_fulltext_pending", null, cv);
         } catch (Exception e) {
             throw new MessagingException("Error appending message: " + message.getSubject(), e);
         }
@@ -1481,11 +1617,6 @@ public class LocalFolder extends Folder<LocalMessage> {
         return updateOrInsertMessagePart(db, cv, part, INVALID_MESSAGE_PART_ID);
     }
 
-    private void moveTemporaryFile(File tempFile, String messagePartId) throws IOException {
-        File destinationFile = localStore.getAttachmentFile(messagePartId);
-        FileHelper.renameOrMoveByCopying(tempFile, destinationFile);
-    }
-
     private long updateOrInsertMessagePart(SQLiteDatabase db, ContentValues cv, Part part, long existingMessagePartId)
             throws IOException, MessagingException {
         byte[] headerBytes = getHeaderBytes(part);
@@ -1494,7 +1625,6 @@ public class LocalFolder extends Folder<LocalMessage> {
         cv.put("header", headerBytes);
         cv.put("type", MessagePartType.UNKNOWN);
 
-        File file = null;
         Body body = part.getBody();
         if (body instanceof Multipart) {
             multipartToContentValues(cv, (Multipart) body);
@@ -1503,7 +1633,7 @@ public class LocalFolder extends Folder<LocalMessage> {
         } else if (body instanceof Message) {
             messageMarkerToContentValues(cv);
         } else {
-            file = leafPartToContentValues(cv, part, body);
+            leafPartToContentValues(db, cv, part, body);
         }
 
         long messagePartId;
@@ -1514,10 +1644,6 @@ public class LocalFolder extends Folder<LocalMessage> {
             messagePartId = db.insertOrThrow("message_parts", null, cv);
         }
 
-        if (file != null) {
-            moveTemporaryFile(file, Long.toString(messagePartId));
-        }
-
         return messagePartId;
     }
 
@@ -1543,7 +1669,7 @@ public class LocalFolder extends Folder<LocalMessage> {
         cv.put("data_location", DataLocation.CHILD_PART_CONTAINS_DATA);
     }
 
-    private File leafPartToContentValues(ContentValues cv, Part part, Body body)
+    private void leafPartToContentValues(SQLiteDatabase db, ContentValues cv, Part part, Body body)
             throws MessagingException, IOException {
         AttachmentViewInfo attachment = attachmentInfoExtractor.extractAttachmentInfoForDatabase(part);
         cv.put("display_name", attachment.displayName);
@@ -1557,15 +1683,29 @@ public class LocalFolder extends Folder<LocalMessage> {
         SizeAware sizeAwareBody = (SizeAware) body;
         long fileSize = sizeAwareBody.getSize();
 
-        File file = null;
         int dataLocation;
         if (fileSize > MAX_BODY_SIZE_FOR_DATABASE) {
             dataLocation = DataLocation.ON_DISK;
 
-            file = writeBodyToDiskIfNecessary(part);
+            AttachmentBlobStore attachmentBlobStore = localStore.getAttachmentBlobStore();
+            String blobHash = null;
+            if (body instanceof FileBackedBody) {
+                // Body loaded from the database, e.g. when copying a message. Just add another reference.
+                blobHash = attachmentBlobStore.getBlobHash(db, ((FileBackedBody) body).getFile());
+            }
 
-            long size = decodeAndCountBytes(file, encoding, fileSize);
-            cv.put("decoded_body_size", size);
+            if (blobHash == null) {
+                File file = writeBodyToDiskIfNecessary(part);
+                long size = decodeAndCountBytes(file, encoding, fileSize);
+                cv.put("decoded_body_size", size);
+
+                blobHash = attachmentBlobStore.storeBlob(db, file);
+            } else {
+                File file = attachmentBlobStore.getBlobFile(blobHash);
+                long size = decodeAndCountBytes(file, encoding, fileSize);
+                cv.put("decoded_body_size", size);
+            }
+            cv.put("blob_hash", blobHash);
         } else {
             dataLocation = DataLocation.IN_DATABASE;
 
@@ -1578,14 +1718,14 @@ public class LocalFolder extends Folder<LocalMessage> {
         cv.put("data_location", dataLocation);
         cv.put("encoding", encoding);
         cv.put("content_id", part.getContentId());
-
-        return file;
     }
 
     private File writeBodyToDiskIfNecessary(Part part) throws MessagingException, IOException {
         Body body = part.getBody();
         if (body instanceof BinaryTempFileBody) {
             return ((BinaryTempFileBody) body).getFile();
+        } else if (body instanceof DeferredFileBody) {
+            return ((DeferredFileBody) body).getFile();
         } else {
             return writeBodyToDisk(body);
         }
@@ -1684,7 +1824,7 @@ public class LocalFolder extends Folder<LocalMessage> {
     public void addPartToMessage(final LocalMessage message, final Part part) throws MessagingException {
         open(OPEN_MODE_RW);
 
-        localStore.getDatabase().execute(false, new DbCallback<Void>() {
+        localStore.getDatabase().execute(true, new DbCallback<Void>() {
             @Override
             public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
                 long messagePartId;
@@ -1773,6 +1913,25 @@ public class LocalFolder extends Folder<LocalMessage> {
         }
     }
 
+    /**
+     * Marks all messages in this folder as read with a single statement.
+     */
+    public void markAllMessagesAsRead() throws MessagingException {
+        open(OPEN_MODE_RW);
+
+        localStore.getDatabase().execute(true, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                db.execSQL("UPDATE messages SET read = 1 " +
+                        "WHERE folder_id = ? AND read = 0 AND empty = 0 AND deleted = 0",
+                        new Object[] { databaseId });
+                return null;
+            }
+        });
+
+        localStore.notifyChange();
+    }
+
     @Override
     public String getUidFromMessageId(Message message) throws MessagingException {
         throw new MessagingException("Cannot call getUidFromMessageId on LocalFolder");
@@ -1837,6 +1996,7 @@ public class LocalFolder extends Folder<LocalMessage> {
         this.localStore.notifyChange();
 
         setPushState(null);
+        setHighestModSeq(UNKNOWN_MOD_SEQ);
         setLastPush(0);
         setLastChecked(0);
         setVisibleLimit(getAccount().getDisplayCount());
@@ -1865,6 +2025,8 @@ public class LocalFolder extends Folder<LocalMessage> {
             });
         } catch (WrappedException e) {
             throw(MessagingException) e.getCause();
+        } finally {
+            localStore.invalidateFolderId(serverId);
         }
     }
 
@@ -2025,6 +2187,7 @@ public class LocalFolder extends Folder<LocalMessage> {
     void deleteFulltextIndexEntry(SQLiteDatabase db, long messageId) {
         String[] idArg = { Long.toString(messageId) };
         db.delete("messages_fulltext", "docid = ?", idArg);
+        db.delete("messages_fulltext_pending", "message_id = ?", idArg);
     }
 
     void deleteMessagePartsAndDataFromDisk(final long rootMessagePartId) throws MessagingException {
@@ -2053,22 +2216,26 @@ public class LocalFolder extends Folder<LocalMessage> {
     }
 
     private void deleteMessagePartsFromDisk(SQLiteDatabase db, long rootMessagePartId) {
-        Cursor cursor = db.query("message_parts", new String[] { "id" },
-                "root = ? AND data_location = " + DataLocation.ON_DISK,
-                new String[] { Long.toString(rootMessagePartId) }, null, null, null);
+        String[] rootArg = { Long.toString(rootMessagePartId) };
+        List<String> blobHashes = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT DISTINCT blob_hash FROM message_parts " +
+                "WHERE root = ? AND blob_hash IS NOT NULL", rootArg);
         try {
             while (cursor.moveToNext()) {
-                String messagePartId = cursor.getString(0);
-                File file = localStore.getAttachmentFile(messagePartId);
-                if (file.exists()) {
-                    if (!file.delete() && K9.isDebug()) {
-                        Timber.d("Couldn't delete message part file: %s", file.getAbsolutePath());
-                    }
-                }
+                blobHashes.add(cursor.getString(0));
             }
         } finally {
             cursor.close();
         }
+
+        if (blobHashes.isEmpty()) {
+            return;
+        }
+
+        // Drop this message's references. The files are only deleted if no other message part references them.
+        db.execSQL("UPDATE message_parts SET blob_hash = NULL WHERE root = ? AND blob_hash IS NOT NULL", rootArg);
+
+        localStore.getAttachmentBlobStore().deleteUnreferencedBlobs(blobHashes);
     }
 
     @Override
@@ -2149,14 +2316,14 @@ public class LocalFolder extends Folder<LocalMessage> {
         });
     }
 
-    private ThreadInfo doMessageThreading(SQLiteDatabase db, Message message) {
+    private ThreadInfo doMessageThreading(SQLiteDatabase db, Message message, ThreadInfoCache threadInfoCache) {
         long rootId = -1;
         long parentId = -1;
 
         String messageId = message.getMessageId();
 
         // If there's already an empty message in the database, update that
-        ThreadInfo msgThreadInfo = getThreadInfo(db, messageId, true);
+        ThreadInfo msgThreadInfo = getThreadInfo(db, messageId, true, threadInfoCache);
 
         // Get the message IDs from the "References" header line
         String[] referencesArray = message.getHeader("References");
@@ -2187,7 +2354,7 @@ public class LocalFolder extends Folder<LocalMessage> {
         }
 
         for (String reference : messageIds) {
-            ThreadInfo threadInfo = getThreadInfo(db, reference, false);
+            ThreadInfo threadInfo = getThreadInfo(db, reference, false, threadInfoCache);
 
             if (threadInfo == null) {
                 // Create placeholder message in 'messages' table
@@ -2208,7 +2375,12 @@ public class LocalFolder extends Folder<LocalMessage> {
                     cv.put("parent", parentId);
                 }
 
-                parentId = db.insert("threads", null, cv);
+                long newThreadId = db.insert("threads", null, cv);
+                if (threadInfoCache != null) {
+                    threadInfoCache.put(new ThreadInfo(newThreadId, newMsgId, reference, rootId, parentId));
+                }
+
+                parentId = newThreadId;
                 if (rootId == -1) {
                     rootId = parentId;
                 }
@@ -2228,6 +2400,11 @@ public class LocalFolder extends Folder<LocalMessage> {
                     cv.put("parent", parentId);
                     db.update("threads", cv, "id = ?",
                             new String[] { Long.toString(threadInfo.threadId) });
+
+                    // Root and parent of any number of cached thread containers might have changed
+                    if (threadInfoCache != null) {
+                        threadInfoCache.clear();
+                    }
                 } else {
                     rootId = (threadInfo.rootId == -1) ?
                             threadInfo.threadId : threadInfo.rootId;
@@ -25,6 +25,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
@@ -129,7 +130,8 @@ public class LocalStore {
 
     static final String GET_FOLDER_COLS =
         "folders.id, name, visible_limit, last_updated, status, push_state, last_pushed, " +
-        "integrate, top_group, poll_class, push_class, display_class, notify_class, more_messages, server_id";
+        "integrate, top_group, poll_class, push_class, display_class, notify_class, more_messages, server_id, " +
+        "highest_mod_seq";
 
     static final int FOLDER_ID_INDEX = 0;
     static final int FOLDER_NAME_INDEX = 1;
@@ -146,16 +148,19 @@ public class LocalStore {
     static final int FOLDER_NOTIFY_CLASS_INDEX = 12;
     static final int MORE_MESSAGES_INDEX = 13;
     static final int FOLDER_SERVER_ID_INDEX = 14;
+    static final int FOLDER_HIGHEST_MOD_SEQ_INDEX = 15;
 
     static final String[] UID_CHECK_PROJECTION = { "uid" };
 
-    private static final String[] GET_ATTACHMENT_COLS = new String[] { "id", "root", "data_location", "encoding", "data" };
+    private static final String[] GET_ATTACHMENT_COLS =
+            new String[] { "id", "root", "data_location", "encoding", "data", "blob_hash" };
 
     private static final int ATTACH_PART_ID_INDEX = 0;
     private static final int ATTACH_ROOT_INDEX = 1;
     private static final int ATTACH_LOCATION_INDEX = 2;
     private static final int ATTACH_ENCODING_INDEX = 3;
     private static final int ATTACH_DATA_INDEX = 4;
+    private static final int ATTACH_BLOB_HASH_INDEX = 5;
 
     /**
      * Maximum number of UIDs to check for existence at once.
@@ -164,33 +169,24 @@ public class LocalStore {
      */
     static final int UID_CHECK_BATCH_SIZE = 500;
 
-    /**
-     * Maximum number of messages to perform flag updates on at once.
-     *
-     * @see #setFlag(List, Flag, boolean)
-     */
-    private static final int FLAG_UPDATE_BATCH_SIZE = 500;
-
-    /**
-     * Maximum number of threads to perform flag updates on at once.
-     *
-     * @see #setFlagForThreads(List, Flag, boolean)
-     */
-    private static final int THREAD_FLAG_UPDATE_BATCH_SIZE = 500;
-
-    public static final int DB_VERSION = 63;
+    public static final int DB_VERSION = 68;
 
     private final Context context;
     private final ContentResolver contentResolver;
     private final MessagePreviewCreator messagePreviewCreator;
     private final MessageFulltextCreator messageFulltextCreator;
+    private final MessageFulltextIndexer messageFulltextIndexer;
     private final AttachmentCounter attachmentCounter;
     private final PendingCommandSerializer pendingCommandSerializer;
     private final AttachmentInfoExtractor attachmentInfoExtractor;
+    private final AttachmentBlobStore attachmentBlobStore;
 
     private final Account account;
     private final LockableDatabase database;
 
+    private final Map<String, Long> folderIdCache = new ConcurrentHashMap<>();
+    private volatile int folderIdCacheGeneration = 0;
+
     /**
      * local://localhost/path/to/database/uuid.db
      * This constructor is only used by {@link LocalStore#getInstance(Account, Context)}
@@ -202,15 +198,26 @@ public class LocalStore {
 
         messagePreviewCreator = MessagePreviewCreator.newInstance();
         messageFulltextCreator = MessageFulltextCreator.newInstance();
+        messageFulltextIndexer = new MessageFulltextIndexer(this, messageFulltextCreator);
         attachmentCounter = AttachmentCounter.newInstance();
         pendingCommandSerializer = PendingCommandSerializer.getInstance();
         attachmentInfoExtractor = AttachmentInfoExtractor.getInstance();
+        attachmentBlobStore = new AttachmentBlobStore(this);
 
         this.account = account;
 
-        database = new LockableDatabase(context, account.getUuid(), new StoreSchemaDefinition(this));
+        final StoreSchemaDefinition schemaDefinition = new StoreSchemaDefinition(this);
+        database = new LockableDatabase(context, account.getUuid(), schemaDefinition);
         database.setStorageProviderId(account.getLocalStorageProviderId());
         database.open();
+
+        database.execute(false, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                schemaDefinition.completeMigrations(db);
+                return null;
+            }
+        });
     }
 
     /**
@@ -238,6 +245,9 @@ public class LocalStore {
                 store = new LocalStore(account, context);
 
                 sLocalStores.put(accountUuid, store);
+
+                // Continue indexing messages that were saved before the app was stopped
+                store.messageFulltextIndexer.scheduleIndexing();
             }
 
             return store;
@@ -304,6 +314,8 @@ public class LocalStore {
             Timber.i("Before compaction size = %d", getSize());
         }
 
+        attachmentBlobStore.deleteAllUnreferencedBlobs();
+
         database.execute(false, new DbCallback<Void>() {
             @Override
             public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
@@ -344,6 +356,7 @@ public class LocalStore {
 
                 // We don't need the search data now either
                 db.delete("messages_fulltext", null, null);
+                db.delete("messages_fulltext_pending", null, null);
 
                 return null;
             }
@@ -393,6 +406,79 @@ public class LocalStore {
         return new LocalFolder(this, serverId);
     }
 
+    /**
+     * Returns the database ID of the folder with the given server ID.
+     * <p>
+     * Lookups are answered from a cache that is kept up to date when folders are deleted, so building queries for
+     * searches spanning many folders doesn't need a database round-trip per folder.
+     * </p>
+     *
+     * @throws MessagingException if the folder doesn't exist
+     */
+    public long getFolderId(final String serverId) throws MessagingException {
+        Long cachedFolderId = getCachedFolderId(serverId);
+        if (cachedFolderId != null) {
+            return cachedFolderId;
+        }
+
+        final int cacheGeneration = folderIdCacheGeneration;
+        Long folderId = database.execute(false, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(final SQLiteDatabase db) {
+                Cursor cursor = db.rawQuery("SELECT id FROM folders WHERE server_id = ?", new String[] { serverId });
+                try {
+                    return cursor.moveToFirst() ? cursor.getLong(0) : null;
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+
+        if (folderId == null) {
+            throw new MessagingException("Folder not found: " + serverId);
+        }
+
+        cacheFolderId(serverId, folderId, cacheGeneration);
+        return folderId;
+    }
+
+    @Nullable
+    Long getCachedFolderId(String serverId) {
+        return folderIdCache.get(serverId);
+    }
+
+    int getFolderIdCacheGeneration() {
+        return folderIdCacheGeneration;
+    }
+
+    /**
+     * Remembers the database ID of a folder unless the cache was invalidated after {@code cacheGeneration} was read.
+     * <p>
+     * This keeps a lookup that raced with the deletion of the folder from putting a stale ID back into the cache.
+     * </p>
+     */
+    void cacheFolderId(String serverId, long folderId, int cacheGeneration) {
+        synchronized (folderIdCache) {
+            if (cacheGeneration == folderIdCacheGeneration) {
+                folderIdCache.put(serverId, folderId);
+            }
+        }
+    }
+
+    void invalidateFolderId(String serverId) {
+        synchronized (folderIdCache) {
+            folderIdCacheGeneration++;
+            folderIdCache.remove(serverId);
+        }
+    }
+
+    private void clearFolderIdCache() {
+        synchronized (folderIdCache) {
+            folderIdCacheGeneration++;
+            folderIdCache.clear();
+        }
+    }
+
     // TODO this takes about 260-300ms, seems slow.
     public List<LocalFolder> getPersonalNamespaces(boolean forceListAll) throws MessagingException {
         final List<LocalFolder> folders = new LinkedList<>();
@@ -431,10 +517,12 @@ public class LocalStore {
 
     public void delete() throws UnavailableStorageException {
         database.delete();
+        clearFolderIdCache();
     }
 
     public void recreate() throws UnavailableStorageException {
         database.recreate();
+        clearFolderIdCache();
     }
 
     private void deleteAllMessageDataFromDisk() throws MessagingException {
@@ -448,7 +536,9 @@ public class LocalStore {
             public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
                 ContentValues cv = new ContentValues();
                 cv.put("data_location", DataLocation.MISSING);
+                cv.putNull("blob_hash");
                 db.update("message_parts", cv, null, null);
+                db.delete("attachment_blobs", null, null);
 
                 return null;
             }
@@ -537,6 +627,22 @@ public class LocalStore {
         });
     }
 
+    public void removePendingCommands(final List<PendingCommand> commands) throws MessagingException {
+        if (commands.isEmpty()) {
+            return;
+        }
+
+        database.execute(true, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
+                for (PendingCommand command : commands) {
+                    db.delete("pending_commands", "id = ?", new String[] { Long.toString(command.databaseId) });
+                }
+                return null;
+            }
+        });
+    }
+
     public void removePendingCommands() throws MessagingException {
         database.execute(false, new DbCallback<Void>() {
             @Override
@@ -552,7 +658,7 @@ public class LocalStore {
 
         StringBuilder query = new StringBuilder();
         List<String> queryArgs = new ArrayList<>();
-        SqlQueryBuilder.buildWhereClause(account, search.getConditions(), query, queryArgs);
+        SqlQueryBuilder.buildWhereClause(account, search.getConditions(), "messages", query, queryArgs);
 
         // Avoid "ambiguous column name" error by prefixing "id" with the message table name
         String where = SqlQueryBuilder.addPrefixToSelection(new String[] { "id" },
@@ -844,7 +950,11 @@ public class LocalStore {
                 return new ByteArrayInputStream(data);
             }
             case DataLocation.ON_DISK: {
-                File file = getAttachmentFile(partId);
+                String blobHash = cursor.getString(ATTACH_BLOB_HASH_INDEX);
+                if (blobHash == null) {
+                    throw new FileNotFoundException("No data stored for message part " + partId);
+                }
+                File file = attachmentBlobStore.getBlobFile(blobHash);
                 return new FileInputStream(file);
             }
             default:
@@ -949,6 +1059,7 @@ public class LocalStore {
                                    serverId
                                });
 
+                    invalidateFolderId(serverId);
                 }
                 return null;
             }
@@ -990,6 +1101,17 @@ public class LocalStore {
         return messageFulltextCreator;
     }
 
+    MessageFulltextIndexer getMessageFulltextIndexer() {
+        return messageFulltextIndexer;
+    }
+
+    /**
+     * Re-creates the fulltext search index of all messages in the background.
+     */
+    public void rebuildFulltextIndex() throws MessagingException {
+        messageFulltextIndexer.rebuildIndex();
+    }
+
     AttachmentCounter getAttachmentCounter() {
         return attachmentCounter;
     }
@@ -998,6 +1120,10 @@ public class LocalStore {
         return attachmentInfoExtractor;
     }
 
+    AttachmentBlobStore getAttachmentBlobStore() {
+        return attachmentBlobStore;
+    }
+
     void notifyChange() {
         Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + account.getUuid() + "/messages");
         contentResolver.notifyChange(uri, null);
@@ -1108,103 +1234,109 @@ public class LocalStore {
     }
 
     /**
-     * Change the state of a flag for a list of messages.
+     * Change the state of a flag for a list of messages or threads and return the affected messages.
      *
      * <p>
-     * The goal of this method is to be fast. Currently this means using as few SQL UPDATE
-     * statements as possible.
+     * The goal of this method is to be fast. The IDs are written to a temporary table using a single compiled
+     * statement. Then one SQL statement resolves the affected messages, one updates them, and one reads the UIDs
+     * needed to send the change to the server. Everything happens in a single transaction, so there's only one
+     * journal commit and one change notification no matter how many messages are affected.
+     * </p>
      *
-     * @param messageIds
-     *         A list of primary keys in the "messages" table.
+     * @param ids
+     *         A list of primary keys in the "messages" table, or of root thread IDs if {@code threadedList} is
+     *         {@code true}.
+     * @param threadedList
+     *         If this is {@code true}, {@code ids} contains the thread IDs of the messages at the root of a thread.
+     *         In that case the flag is changed for all messages in these threads.
      * @param flag
      *         The flag to change. This must be a flag with a separate column in the database.
      * @param newState
      *         {@code true}, if the flag should be set. {@code false}, otherwise.
      *
+     * @return The list of UIDs for the affected messages grouped by folder server ID.
      */
-    public void setFlag(final List<Long> messageIds, final Flag flag, final boolean newState)
-            throws MessagingException {
-
-        final ContentValues cv = new ContentValues();
-        cv.put(getColumnNameForFlag(flag), newState);
-
-        doBatchSetSelection(new BatchSetSelection() {
-
-            @Override
-            public int getListSize() {
-                return messageIds.size();
-            }
+    public Map<String, List<String>> setFlagAndGetFoldersAndUids(final List<Long> ids, final boolean threadedList,
+            Flag flag, final boolean newState) throws MessagingException {
 
-            @Override
-            public String getListItem(int index) {
-                return Long.toString(messageIds.get(index));
-            }
+        final String flagColumn = getColumnNameForFlag(flag);
 
+        Map<String, List<String>> folderMap = database.execute(true, new DbCallback<Map<String, List<String>>>() {
             @Override
-            public void doDbWork(SQLiteDatabase db, String selectionSet, String[] selectionArgs)
-                    throws UnavailableStorageException {
+            public Map<String, List<String>> doDbWork(SQLiteDatabase db) throws WrappedException {
+                db.execSQL("CREATE TEMP TABLE IF NOT EXISTS flag_update_ids (id INTEGER PRIMARY KEY)");
+                db.execSQL("CREATE TEMP TABLE IF NOT EXISTS flag_update_messages (id INTEGER PRIMARY KEY)");
+                try {
+                    insertFlagUpdateIds(db, ids);
+
+                    if (threadedList) {
+                        db.execSQL("INSERT OR IGNORE INTO flag_update_messages " +
+                                "SELECT m.id FROM flag_update_ids i " +
+                                "JOIN threads t ON (t.root = i.id) " +
+                                "JOIN messages m ON (t.message_id = m.id) " +
+                                "WHERE m.empty = 0 AND m.deleted = 0");
+                    } else {
+                        db.execSQL("INSERT INTO flag_update_messages " +
+                                "SELECT m.id FROM flag_update_ids i " +
+                                "JOIN messages m ON (m.id = i.id) " +
+                                "WHERE m.empty = 0");
+                    }
 
-                db.update("messages", cv, "empty = 0 AND id" + selectionSet,
-                        selectionArgs);
-            }
+                    // Only touch rows that actually change to keep the amount of data written to a minimum
+                    db.execSQL("UPDATE messages SET " + flagColumn + " = ? " +
+                            "WHERE id IN (SELECT id FROM flag_update_messages) AND " + flagColumn + " IS NOT ?",
+                            new Object[] { newState ? 1 : 0, newState ? 1 : 0 });
 
-            @Override
-            public void postDbWork() {
-                notifyChange();
+                    return readFoldersAndUidsOfFlagUpdate(db);
+                } finally {
+                    db.execSQL("DELETE FROM flag_update_ids");
+                    db.execSQL("DELETE FROM flag_update_messages");
+                }
             }
-        }, FLAG_UPDATE_BATCH_SIZE);
-    }
-
-    /**
-     * Change the state of a flag for a list of threads.
-     *
-     * <p>
-     * The goal of this method is to be fast. Currently this means using as few SQL UPDATE
-     * statements as possible.
-     *
-     * @param threadRootIds
-     *         A list of root thread IDs.
-     * @param flag
-     *         The flag to change. This must be a flag with a separate column in the database.
-     * @param newState
-     *         {@code true}, if the flag should be set. {@code false}, otherwise.
-     *
-     */
-    public void setFlagForThreads(final List<Long> threadRootIds, Flag flag, final boolean newState)
-            throws MessagingException {
+        });
 
-        final String flagColumn = getColumnNameForFlag(flag);
+        notifyChange();
 
-        doBatchSetSelection(new BatchSetSelection() {
+        return folderMap;
+    }
 
-            @Override
-            public int getListSize() {
-                return threadRootIds.size();
+    private static void insertFlagUpdateIds(SQLiteDatabase db, List<Long> ids) {
+        SQLiteStatement statement = db.compileStatement("INSERT OR IGNORE INTO flag_update_ids (id) VALUES (?)");
+        try {
+            for (Long id : ids) {
+                statement.bindLong(1, id);
+                statement.executeInsert();
             }
+        } finally {
+            statement.close();
+        }
+    }
 
-            @Override
-            public String getListItem(int index) {
-                return Long.toString(threadRootIds.get(index));
-            }
+    private static Map<String, List<String>> readFoldersAndUidsOfFlagUpdate(SQLiteDatabase db) {
+        Map<String, List<String>> folderMap = new HashMap<>();
 
-            @Override
-            public void doDbWork(SQLiteDatabase db, String selectionSet, String[] selectionArgs)
-                    throws UnavailableStorageException {
+        Cursor cursor = db.rawQuery("SELECT m.uid, f.server_id " +
+                "FROM flag_update_messages u " +
+                "JOIN messages m ON (m.id = u.id) " +
+                "JOIN folders f ON (m.folder_id = f.id)", null);
+        try {
+            while (cursor.moveToNext()) {
+                String uid = cursor.getString(0);
+                String folderServerId = cursor.getString(1);
+
+                List<String> uidList = folderMap.get(folderServerId);
+                if (uidList == null) {
+                    uidList = new ArrayList<>();
+                    folderMap.put(folderServerId, uidList);
+                }
 
-                db.execSQL("UPDATE messages SET " + flagColumn + " = " + ((newState) ? "1" : "0") +
-                        " WHERE id IN (" +
-                        "SELECT m.id FROM threads t " +
-                        "LEFT JOIN messages m ON (t.message_id = m.id) " +
-                        "WHERE m.empty = 0 AND m.deleted = 0 " +
-                        "AND t.root" + selectionSet + ")",
-                        selectionArgs);
+                uidList.add(uid);
             }
+        } finally {
+            cursor.close();
+        }
 
-            @Override
-            public void postDbWork() {
-                notifyChange();
-            }
-        }, THREAD_FLAG_UPDATE_BATCH_SIZE);
+        return folderMap;
     }
 
     /**
@@ -1295,7 +1427,7 @@ public class LocalStore {
     public AccountStats getAccountStats(LocalSearch search) throws MessagingException {
         StringBuilder whereBuilder = new StringBuilder();
         List<String> queryArgs = new ArrayList<>();
-        SqlQueryBuilder.buildWhereClause(account, search.getConditions(), whereBuilder, queryArgs);
+        SqlQueryBuilder.buildWhereClause(account, search.getConditions(), "messages", whereBuilder, queryArgs);
 
         String where = whereBuilder.toString();
         final String[] selectionArgs = queryArgs.toArray(new String[queryArgs.size()]);
@@ -0,0 +1,60 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.DefaultBodyFactory;
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import com.fsck.k9.mail.internet.MimeUtility;
+import com.fsck.k9.mailstore.util.FileFactory;
+import org.apache.james.mime4j.util.MimeUtil;
+
+
+/**
+ * {@link com.fsck.k9.mail.BodyFactory} for downloaded messages that are about to be stored in {@link LocalStore}.
+ * <p>
+ * Bodies small enough to be stored in the {@code message_parts} table are kept in memory and never touch the disk.
+ * Larger bodies are streamed to a temporary file as the data arrives, which {@link LocalFolder} later moves to its
+ * final location instead of copying it. So no more than {@link LocalFolder#MAX_BODY_SIZE_FOR_DATABASE} bytes of a
+ * body are buffered in memory, regardless of the size of the message.
+ * </p>
+ */
+public class LocalStoreBodyFactory extends DefaultBodyFactory {
+    private static final FileFactory TEMP_FILE_FACTORY = new FileFactory() {
+        @Override
+        public File createFile() throws IOException {
+            File file = File.createTempFile("body", null, BinaryTempFileBody.getTempDirectory());
+            file.deleteOnExit();
+            return file;
+        }
+    };
+
+
+    @Override
+    public Body createBody(String contentTransferEncoding, String contentType, InputStream inputStream)
+            throws IOException {
+        if (MimeUtil.isMessage(contentType)) {
+            // Attached messages might have to be re-encoded later, which only BinaryTempFileMessageBody supports
+            return super.createBody(contentTransferEncoding, contentType, inputStream);
+        }
+
+        if (contentTransferEncoding != null) {
+            contentTransferEncoding = MimeUtility.getHeaderParameter(contentTransferEncoding, null);
+        }
+
+        DeferredFileBody body = new DeferredFileBody(LocalFolder.MAX_BODY_SIZE_FOR_DATABASE, TEMP_FILE_FACTORY,
+                contentTransferEncoding);
+        OutputStream outputStream = body.getOutputStream();
+        try {
+            copyData(inputStream, outputStream);
+        } finally {
+            outputStream.close();
+        }
+
+        return body;
+    }
+}
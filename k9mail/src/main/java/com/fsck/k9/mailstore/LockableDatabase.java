@@ -1,6 +1,9 @@
 package com.fsck.k9.mailstore;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -136,10 +139,26 @@ public class LockableDatabase {
      */
     private ThreadLocal<Boolean> inTransaction = new ThreadLocal<>();
 
+    /**
+     * Actions to run once the transaction of the current {@link Thread} has been committed.
+     *
+     * @see #runAfterCommit(Runnable)
+     */
+    private ThreadLocal<List<Runnable>> afterCommitActions = new ThreadLocal<>();
+
     private SchemaDefinition mSchemaDefinition;
 
     private String uUid;
 
+    /**
+     * Number of {@link #execute(boolean, DbCallback)} calls between logging the latency histograms in debug mode.
+     */
+    private static final int STATISTICS_LOG_INTERVAL = 1000;
+
+    private final LatencyHistogram callLatencyHistogram = new LatencyHistogram("call latency");
+    private final LatencyHistogram lockWaitHistogram = new LatencyHistogram("lock wait");
+    private final AtomicLong executeCount = new AtomicLong();
+
     /**
      * @param context
      *            Never <code>null</code>.
@@ -262,18 +281,25 @@ public class LockableDatabase {
      * @throws UnavailableStorageException
      */
     public <T> T execute(final boolean transactional, final DbCallback<T> callback) throws MessagingException {
+        final long lockStart = System.nanoTime();
         lockRead();
         final boolean doTransaction = transactional && inTransaction.get() == null;
+        long callStart = System.nanoTime();
+        boolean committed = false;
         try {
             final boolean debug = K9.isDebug();
             if (doTransaction) {
                 inTransaction.set(Boolean.TRUE);
                 mDb.beginTransaction();
             }
+            // Waiting for another thread's transaction to finish happens in beginTransaction()
+            callStart = System.nanoTime();
+            lockWaitHistogram.record(callStart - lockStart);
             try {
                 final T result = callback.doDbWork(mDb);
                 if (doTransaction) {
                     mDb.setTransactionSuccessful();
+                    committed = true;
                 }
                 return result;
             } finally {
@@ -285,7 +311,12 @@ public class LockableDatabase {
                         begin = 0L;
                     }
                     // not doing endTransaction in the same 'finally' block of unlockRead() because endTransaction() may throw an exception
-                    mDb.endTransaction();
+                    try {
+                        mDb.endTransaction();
+                    } catch (RuntimeException e) {
+                        committed = false;
+                        throw e;
+                    }
                     if (debug) {
                         Timber.v("LockableDatabase: Transaction ended, took %d ms / %s",
                                 currentTimeMillis() - begin,
@@ -298,9 +329,76 @@ public class LockableDatabase {
                 inTransaction.set(null);
             }
             unlockRead();
+            recordCallLatency(System.nanoTime() - callStart);
+
+            if (doTransaction) {
+                runAfterCommitActions(committed);
+            }
         }
     }
 
+    /**
+     * Runs {@code action} once the transaction started by {@link #execute(boolean, DbCallback)} on the current
+     * thread has been committed. The action is dropped if the transaction is rolled back. Without an active
+     * transaction the action is run right away.
+     * <p>
+     * Use this for side effects outside of the database, e.g. deleting files, that can't be undone if the
+     * transaction fails. The action must not throw.
+     * </p>
+     */
+    public void runAfterCommit(Runnable action) {
+        if (inTransaction.get() == null) {
+            action.run();
+            return;
+        }
+
+        List<Runnable> actions = afterCommitActions.get();
+        if (actions == null) {
+            actions = new ArrayList<>();
+            afterCommitActions.set(actions);
+        }
+        actions.add(action);
+    }
+
+    private void runAfterCommitActions(boolean committed) {
+        List<Runnable> actions = afterCommitActions.get();
+        if (actions == null) {
+            return;
+        }
+
+        afterCommitActions.remove();
+        if (!committed) {
+            return;
+        }
+
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    private void recordCallLatency(long latencyNanos) {
+        callLatencyHistogram.record(latencyNanos);
+
+        if (K9.isDebug() && executeCount.incrementAndGet() % STATISTICS_LOG_INTERVAL == 0) {
+            Timber.v("LockableDatabase: %s / %s", callLatencyHistogram, lockWaitHistogram);
+        }
+    }
+
+    /**
+     * Durations of {@link #execute(boolean, DbCallback)} calls, excluding the time spent waiting for locks.
+     */
+    LatencyHistogram getCallLatencyHistogram() {
+        return callLatencyHistogram;
+    }
+
+    /**
+     * Time {@link #execute(boolean, DbCallback)} calls spent waiting for the storage lock and, for calls starting a
+     * transaction, for the transaction of another thread to finish.
+     */
+    LatencyHistogram getLockWaitHistogram() {
+        return lockWaitHistogram;
+    }
+
     /**
      * @param newProviderId
      *            Never <code>null</code>.
@@ -373,9 +471,8 @@ public class LockableDatabase {
             } catch (SQLiteException e) {
                 // TODO handle this error in a better way!
                 Timber.w(e, "Unable to open DB %s - removing file and retrying", databaseFile);
-                if (databaseFile.exists() && !databaseFile.delete()) {
-                    Timber.d("Failed to remove %s that couldn't be opened", databaseFile);
-                }
+                // Also removes the -wal/-shm files so a stale WAL isn't replayed onto the new database
+                deleteDatabase(databaseFile);
                 doOpenOrCreateDb(databaseFile);
             }
             if (mDb.getVersion() != mSchemaDefinition.getVersion()) {
@@ -395,6 +492,27 @@ public class LockableDatabase {
             // external storage
             mDb = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
         }
+
+        enableWriteAheadLogging();
+    }
+
+    /**
+     * Switch the database to write-ahead logging.
+     *
+     * <p>
+     * With WAL enabled {@link SQLiteDatabase} maintains a small pool of connections. Queries run outside of a
+     * transaction use one of the secondary, read-only connections. So message list queries don't have to wait for
+     * a sync transaction running on another thread to finish, and they see the last committed state.
+     * </p>
+     */
+    private void enableWriteAheadLogging() {
+        try {
+            if (!mDb.enableWriteAheadLogging()) {
+                Timber.i("LockableDatabase: Write-ahead logging not available for DB %s", uUid);
+            }
+        } catch (SQLiteException e) {
+            Timber.w(e, "LockableDatabase: Unable to enable write-ahead logging for DB %s", uUid);
+        }
     }
 
     /**
@@ -507,6 +625,8 @@ public class LockableDatabase {
         } else {
             deleted = database.delete();
             deleted |= new File(database.getPath() + "-journal").delete();
+            deleted |= new File(database.getPath() + "-wal").delete();
+            deleted |= new File(database.getPath() + "-shm").delete();
         }
         if (!deleted) {
             Timber.i("LockableDatabase: deleteDatabase(): No files deleted.");
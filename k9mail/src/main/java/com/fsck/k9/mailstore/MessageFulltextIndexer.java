@@ -0,0 +1,233 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import com.fsck.k9.mail.Address;
+import com.fsck.k9.mail.FetchProfile;
+import com.fsck.k9.mail.Message.RecipientType;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
+import com.fsck.k9.message.extractors.MessageFulltextCreator;
+import timber.log.Timber;
+
+
+/**
+ * Maintains the fulltext search index ({@code messages_fulltext}) in the background.
+ * <p>
+ * The index contains the subject, sender and recipient lists (in the packed format used by the {@code messages}
+ * table) and the text of the body of each message.
+ * </p>
+ * <p>
+ * Saving a message only records its ID in the {@code messages_fulltext_pending} table. Extracting the text, which
+ * may involve converting HTML to plain text, happens here, outside of the write transaction that stored the message.
+ * Index entries are written in batches. Since the queue is stored in the database, indexing resumes after the app
+ * was killed.
+ * </p>
+ */
+class MessageFulltextIndexer {
+    private static final int BATCH_SIZE = 50;
+
+    /**
+     * Shared by the indexers of all accounts. Indexing is CPU and I/O heavy, so the accounts take turns instead of
+     * competing with each other and with foreground work. Each account's queue lives in its own database, and
+     * {@link #scheduleIndexing()} only ever queues one run per account.
+     */
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+
+    private final LocalStore localStore;
+    private final MessageFulltextCreator fulltextCreator;
+    private final AtomicBoolean indexingScheduled = new AtomicBoolean(false);
+
+
+    MessageFulltextIndexer(LocalStore localStore, MessageFulltextCreator fulltextCreator) {
+        this.localStore = localStore;
+        this.fulltextCreator = fulltextCreator;
+    }
+
+    /**
+     * Index all pending messages on the background thread. Multiple calls are coalesced.
+     */
+    void scheduleIndexing() {
+        if (!indexingScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                indexingScheduled.set(false);
+                try {
+                    int count = indexPendingMessages();
+                    Timber.v("Added %d messages to the fulltext index", count);
+                } catch (Exception e) {
+                    Timber.e(e, "Error while updating the fulltext index");
+                }
+            }
+        });
+    }
+
+    /**
+     * Re-creates the index entries of all messages in the background. Existing entries are kept until the new ones
+     * have been written, so search keeps working while the index is being rebuilt.
+     */
+    void rebuildIndex() throws MessagingException {
+        queueAllMessages();
+        scheduleIndexing();
+    }
+
+    @VisibleForTesting
+    void queueAllMessages() throws MessagingException {
+        localStore.getDatabase().execute(true, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                db.execSQL("INSERT OR REPLACE INTO messages_fulltext_pending (message_id) " +
+                        "SELECT id FROM messages WHERE empty = 0 AND deleted = 0");
+                return null;
+            }
+        });
+    }
+
+    @WorkerThread
+    int indexPendingMessages() throws MessagingException {
+        int indexedCount = 0;
+
+        List<PendingMessage> batch;
+        while (!(batch = loadPendingMessages()).isEmpty()) {
+            createFulltext(batch);
+            writeIndexEntries(batch);
+            indexedCount += batch.size();
+        }
+
+        return indexedCount;
+    }
+
+    private List<PendingMessage> loadPendingMessages() throws MessagingException {
+        return localStore.getDatabase().execute(false, new DbCallback<List<PendingMessage>>() {
+            @Override
+            public List<PendingMessage> doDbWork(SQLiteDatabase db) {
+                Cursor cursor = db.rawQuery("SELECT id, message_id FROM messages_fulltext_pending " +
+                        "ORDER BY id LIMIT " + BATCH_SIZE, null);
+                try {
+                    List<PendingMessage> pendingMessages = new ArrayList<>(cursor.getCount());
+                    while (cursor.moveToNext()) {
+                        pendingMessages.add(new PendingMessage(cursor.getLong(0), cursor.getLong(1)));
+                    }
+                    return pendingMessages;
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    private void createFulltext(List<PendingMessage> pendingMessages) throws MessagingException {
+        Map<Long, LocalMessage> messages = loadMessages(pendingMessages);
+
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(FetchProfile.Item.BODY);
+
+        for (PendingMessage pendingMessage : pendingMessages) {
+            LocalMessage message = messages.get(pendingMessage.messageId);
+            if (message == null) {
+                continue;
+            }
+
+            pendingMessage.indexValues = new ContentValues();
+            pendingMessage.indexValues.put("docid", pendingMessage.messageId);
+            pendingMessage.indexValues.put("subject", message.getSubject());
+            pendingMessage.indexValues.put("sender_list", Address.pack(message.getFrom()));
+            pendingMessage.indexValues.put("to_list", Address.pack(message.getRecipients(RecipientType.TO)));
+            pendingMessage.indexValues.put("cc_list", Address.pack(message.getRecipients(RecipientType.CC)));
+            pendingMessage.indexValues.put("bcc_list", Address.pack(message.getRecipients(RecipientType.BCC)));
+
+            try {
+                message.getFolder().fetch(Collections.singletonList(message), fetchProfile, null);
+                pendingMessage.indexValues.put("fulltext", fulltextCreator.createFulltext(message));
+            } catch (Exception e) {
+                Timber.e(e, "Error extracting text of message %d for the fulltext index", pendingMessage.messageId);
+            }
+        }
+    }
+
+    private Map<Long, LocalMessage> loadMessages(List<PendingMessage> pendingMessages) throws MessagingException {
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT ").append(LocalStore.GET_MESSAGES_COLS)
+                .append("FROM messages ")
+                .append("LEFT JOIN message_parts ON (message_parts.id = messages.message_part_id) ")
+                .append("LEFT JOIN threads ON (threads.message_id = messages.id) ")
+                .append("WHERE empty = 0 AND deleted = 0 AND messages.id IN (");
+
+        String[] selectionArgs = new String[pendingMessages.size()];
+        for (int i = 0; i < selectionArgs.length; i++) {
+            query.append(i == 0 ? "?" : ",?");
+            selectionArgs[i] = Long.toString(pendingMessages.get(i).messageId);
+        }
+        query.append(")");
+
+        List<LocalMessage> messages = localStore.getMessages(null, null, query.toString(), selectionArgs);
+
+        Map<Long, LocalMessage> messagesById = new HashMap<>(messages.size());
+        for (LocalMessage message : messages) {
+            messagesById.put(message.getDatabaseId(), message);
+        }
+
+        return messagesById;
+    }
+
+    private void writeIndexEntries(final List<PendingMessage> pendingMessages) throws MessagingException {
+        try {
+            localStore.getDatabase().execute(true, new DbCallback<Void>() {
+                @Override
+                public Void doDbWork(SQLiteDatabase db) throws WrappedException {
+                    for (PendingMessage pendingMessage : pendingMessages) {
+                        String[] pendingIdArg = { Long.toString(pendingMessage.pendingId) };
+                        int deletedCount = db.delete("messages_fulltext_pending", "id = ?", pendingIdArg);
+                        if (deletedCount == 0) {
+                            // The message was changed or deleted in the meantime
+                            continue;
+                        }
+
+                        if (pendingMessage.indexValues != null) {
+                            db.replace("messages_fulltext", null, pendingMessage.indexValues);
+                        } else {
+                            String[] messageIdArg = { Long.toString(pendingMessage.messageId) };
+                            db.delete("messages_fulltext", "docid = ?", messageIdArg);
+                        }
+                    }
+
+                    return null;
+                }
+            });
+        } catch (WrappedException e) {
+            throw (MessagingException) e.getCause();
+        }
+    }
+
+
+    private static class PendingMessage {
+        final long pendingId;
+        final long messageId;
+        ContentValues indexValues;
+
+        PendingMessage(long pendingId, long messageId) {
+            this.pendingId = pendingId;
+            this.messageId = messageId;
+        }
+    }
+}
@@ -46,6 +46,16 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
         }
     }
 
+    /**
+     * Needs to be called every time the database was opened, since the app could have been killed before a previous
+     * call completed.
+     *
+     * @see Migrations#completeMigrations(SQLiteDatabase, MigrationsHelper)
+     */
+    void completeMigrations(SQLiteDatabase db) {
+        Migrations.completeMigrations(db, new RealMigrationsHelper(localStore));
+    }
+
     private void upgradeDatabase(final SQLiteDatabase db) {
         Timber.i("Upgrading database from version %d to version %d", db.getVersion(), DB_VERSION);
 
@@ -91,7 +101,8 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "display_class TEXT, " +
                 "notify_class TEXT default '"+ Folder.FolderClass.INHERITED.name() + "', " +
                 "more_messages TEXT default \"unknown\", " +
-                "server_id TEXT" +
+                "server_id TEXT, " +
+                "highest_mod_seq INTEGER" +
                 ")");
 
         db.execSQL("DROP INDEX IF EXISTS folder_server_id");
@@ -145,7 +156,8 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "epilogue TEXT, " +
                 "boundary TEXT, " +
                 "content_id TEXT, " +
-                "server_extra TEXT" +
+                "server_extra TEXT, " +
+                "blob_hash TEXT" +
                 ")");
 
         db.execSQL("CREATE TRIGGER set_message_part_root " +
@@ -154,6 +166,37 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "UPDATE message_parts SET root=id WHERE root IS NULL AND ROWID = NEW.ROWID; " +
                 "END");
 
+        db.execSQL("DROP TABLE IF EXISTS attachment_blobs");
+        db.execSQL("CREATE TABLE attachment_blobs (" +
+                "hash TEXT PRIMARY KEY, " +
+                "ref_count INTEGER NOT NULL" +
+                ")");
+
+        db.execSQL("DROP TRIGGER IF EXISTS reference_attachment_blob");
+        db.execSQL("CREATE TRIGGER reference_attachment_blob " +
+                "AFTER INSERT ON message_parts " +
+                "WHEN NEW.blob_hash IS NOT NULL " +
+                "BEGIN " +
+                "UPDATE attachment_blobs SET ref_count = ref_count + 1 WHERE hash = NEW.blob_hash; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS update_attachment_blob_reference");
+        db.execSQL("CREATE TRIGGER update_attachment_blob_reference " +
+                "AFTER UPDATE OF blob_hash ON message_parts " +
+                "WHEN OLD.blob_hash IS NOT NEW.blob_hash " +
+                "BEGIN " +
+                "UPDATE attachment_blobs SET ref_count = ref_count - 1 WHERE hash = OLD.blob_hash; " +
+                "UPDATE attachment_blobs SET ref_count = ref_count + 1 WHERE hash = NEW.blob_hash; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS release_attachment_blob");
+        db.execSQL("CREATE TRIGGER release_attachment_blob " +
+                "AFTER DELETE ON message_parts " +
+                "WHEN OLD.blob_hash IS NOT NULL " +
+                "BEGIN " +
+                "UPDATE attachment_blobs SET ref_count = ref_count - 1 WHERE hash = OLD.blob_hash; " +
+                "END");
+
         db.execSQL("CREATE INDEX IF NOT EXISTS msg_uid ON messages (uid, folder_id)");
         db.execSQL("DROP INDEX IF EXISTS msg_folder_id");
         db.execSQL("DROP INDEX IF EXISTS msg_folder_id_date");
@@ -171,6 +214,9 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
         db.execSQL("DROP INDEX IF EXISTS msg_composite");
         db.execSQL("CREATE INDEX IF NOT EXISTS msg_composite ON messages (deleted, empty,folder_id,flagged,read)");
 
+        db.execSQL("DROP INDEX IF EXISTS msg_message_id");
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_message_id ON messages (message_id, folder_id)");
+
 
         db.execSQL("DROP TABLE IF EXISTS threads");
         db.execSQL("CREATE TABLE threads (" +
@@ -209,10 +255,18 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "BEGIN " +
                 "DELETE FROM message_parts WHERE root = OLD.message_part_id; " +
                 "DELETE FROM messages_fulltext WHERE docid = OLD.id; " +
+                "DELETE FROM messages_fulltext_pending WHERE message_id = OLD.id; " +
                 "END");
 
         db.execSQL("DROP TABLE IF EXISTS messages_fulltext");
-        db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (fulltext)");
+        db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 " +
+                "(fulltext, subject, sender_list, to_list, cc_list, bcc_list)");
+
+        db.execSQL("DROP TABLE IF EXISTS messages_fulltext_pending");
+        db.execSQL("CREATE TABLE messages_fulltext_pending (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "message_id INTEGER UNIQUE" +
+                ")");
     }
 
 
@@ -0,0 +1,67 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Bounded cache of Message-ID to {@link ThreadInfo} mappings of a single folder.
+ * <p>
+ * Messages of a thread share most of their {@code References}, so when storing a batch of messages the same
+ * Message-IDs are looked up over and over again. An instance is only meant to live for the duration of one
+ * database transaction that stores messages in a folder. The code modifying the {@code threads} table inside that
+ * transaction is responsible for keeping the cache up to date.
+ * </p>
+ */
+class ThreadInfoCache {
+    static final int MAX_SIZE = 1000;
+
+
+    private final Map<String, ThreadInfo> threadInfoByMessageId =
+            new LinkedHashMap<String, ThreadInfo>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ThreadInfo> eldest) {
+                    if (size() > MAX_SIZE) {
+                        messageIdByDatabaseId.remove(eldest.getValue().msgId);
+                        return true;
+                    }
+                    return false;
+                }
+            };
+    private final Map<Long, String> messageIdByDatabaseId = new HashMap<>();
+
+
+    ThreadInfo get(String messageId) {
+        return threadInfoByMessageId.get(messageId);
+    }
+
+    void put(ThreadInfo threadInfo) {
+        ThreadInfo oldThreadInfo = threadInfoByMessageId.put(threadInfo.messageId, threadInfo);
+        if (oldThreadInfo != null) {
+            messageIdByDatabaseId.remove(oldThreadInfo.msgId);
+        }
+        messageIdByDatabaseId.put(threadInfo.msgId, threadInfo.messageId);
+    }
+
+    /**
+     * Forgets the entry pointing to the given row of the {@code messages} table, e.g. because its Message-ID is
+     * about to change.
+     */
+    void removeByMessageDatabaseId(long msgId) {
+        String messageId = messageIdByDatabaseId.remove(msgId);
+        if (messageId != null) {
+            threadInfoByMessageId.remove(messageId);
+        }
+    }
+
+    void clear() {
+        threadInfoByMessageId.clear();
+        messageIdByDatabaseId.clear();
+    }
+
+    int size() {
+        return threadInfoByMessageId.size();
+    }
+}
@@ -3,7 +3,9 @@ package com.fsck.k9.mailstore.migrations
 
 import android.content.ContentValues
 import android.database.sqlite.SQLiteDatabase
+import com.fsck.k9.mail.Address
 import com.fsck.k9.mail.FetchProfile
+import com.fsck.k9.mail.Message.RecipientType
 import com.fsck.k9.mail.MessagingException
 import com.fsck.k9.mailstore.LocalFolder
 import com.fsck.k9.mailstore.LocalStore
@@ -41,12 +43,17 @@ internal class FullTextIndexer(val localStore: LocalStore, val database: SQLiteD
             Timber.d("no fulltext for msg id %d :(", localMessage.databaseId)
         } else {
             Timber.d("fulltext for msg id %d is %d chars long", localMessage.databaseId, fulltext.length)
+        }
 
-            val values = ContentValues().apply {
-                put("docid", localMessage.databaseId)
-                put("fulltext", fulltext)
-            }
-            database.insert("messages_fulltext", null, values)
+        val values = ContentValues().apply {
+            put("docid", localMessage.databaseId)
+            put("fulltext", fulltext)
+            put("subject", localMessage.subject)
+            put("sender_list", Address.pack(localMessage.from))
+            put("to_list", Address.pack(localMessage.getRecipients(RecipientType.TO)))
+            put("cc_list", Address.pack(localMessage.getRecipients(RecipientType.CC)))
+            put("bcc_list", Address.pack(localMessage.getRecipients(RecipientType.BCC)))
         }
+        database.replace("messages_fulltext", null, values)
     }
 }
@@ -0,0 +1,25 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo65 {
+    static void createFulltextPendingTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE messages_fulltext_pending (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "message_id INTEGER UNIQUE" +
+                ")");
+    }
+
+    static void createDeleteMessageTrigger(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS delete_message");
+        db.execSQL("CREATE TRIGGER delete_message " +
+                "BEFORE DELETE ON messages " +
+                "BEGIN " +
+                "DELETE FROM message_parts WHERE root = OLD.message_part_id; " +
+                "DELETE FROM messages_fulltext WHERE docid = OLD.id; " +
+                "DELETE FROM messages_fulltext_pending WHERE message_id = OLD.id; " +
+                "END");
+    }
+}
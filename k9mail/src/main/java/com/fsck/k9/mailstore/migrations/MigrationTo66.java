@@ -0,0 +1,23 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo66 {
+    static void addHeaderColumnsToFtsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TEMPORARY TABLE messages_fulltext_backup AS " +
+                "SELECT docid, fulltext FROM messages_fulltext");
+        db.execSQL("DROP TABLE messages_fulltext");
+
+        db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 " +
+                "(fulltext, subject, sender_list, to_list, cc_list, bcc_list)");
+        db.execSQL("INSERT INTO messages_fulltext (docid, fulltext, subject, sender_list, to_list, cc_list, bcc_list) " +
+                "SELECT m.id, b.fulltext, m.subject, m.sender_list, m.to_list, m.cc_list, m.bcc_list " +
+                "FROM messages m " +
+                "LEFT JOIN messages_fulltext_backup b ON (b.docid = m.id) " +
+                "WHERE m.empty = 0 AND m.deleted = 0");
+
+        db.execSQL("DROP TABLE messages_fulltext_backup");
+    }
+}
@@ -0,0 +1,11 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo67 {
+    static void addMessageIdIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_message_id ON messages (message_id, folder_id)");
+    }
+}
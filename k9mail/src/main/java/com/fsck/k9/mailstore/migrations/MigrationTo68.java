@@ -0,0 +1,219 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.helper.FileHelper;
+import com.fsck.k9.mail.filter.Hex;
+import com.fsck.k9.mailstore.StorageManager;
+import timber.log.Timber;
+
+
+class MigrationTo68 {
+    private static final int DATA_LOCATION__MISSING = 0;
+    private static final int DATA_LOCATION__ON_DISK = 2;
+    private static final String PENDING_MOVES_TABLE = "attachment_blob_moves";
+
+    static void createAttachmentBlobStore(SQLiteDatabase db, MigrationsHelper migrationsHelper) {
+        db.execSQL("ALTER TABLE message_parts ADD blob_hash TEXT");
+
+        db.execSQL("DROP TABLE IF EXISTS attachment_blobs");
+        db.execSQL("CREATE TABLE attachment_blobs (" +
+                "hash TEXT PRIMARY KEY, " +
+                "ref_count INTEGER NOT NULL" +
+                ")");
+
+        db.execSQL("DROP TRIGGER IF EXISTS reference_attachment_blob");
+        db.execSQL("CREATE TRIGGER reference_attachment_blob " +
+                "AFTER INSERT ON message_parts " +
+                "WHEN NEW.blob_hash IS NOT NULL " +
+                "BEGIN " +
+                "UPDATE attachment_blobs SET ref_count = ref_count + 1 WHERE hash = NEW.blob_hash; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS update_attachment_blob_reference");
+        db.execSQL("CREATE TRIGGER update_attachment_blob_reference " +
+                "AFTER UPDATE OF blob_hash ON message_parts " +
+                "WHEN OLD.blob_hash IS NOT NEW.blob_hash " +
+                "BEGIN " +
+                "UPDATE attachment_blobs SET ref_count = ref_count - 1 WHERE hash = OLD.blob_hash; " +
+                "UPDATE attachment_blobs SET ref_count = ref_count + 1 WHERE hash = NEW.blob_hash; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS release_attachment_blob");
+        db.execSQL("CREATE TRIGGER release_attachment_blob " +
+                "AFTER DELETE ON message_parts " +
+                "WHEN OLD.blob_hash IS NOT NULL " +
+                "BEGIN " +
+                "UPDATE attachment_blobs SET ref_count = ref_count - 1 WHERE hash = OLD.blob_hash; " +
+                "END");
+
+        hashAttachmentFiles(db, migrationsHelper);
+    }
+
+    /**
+     * Records the SHA-256 hash of the content of every message part stored on disk. Parts whose file can't be found or
+     * read are marked as missing so they are downloaded again.
+     * <p>
+     * The files themselves aren't touched here. If the migration transaction is rolled back they are still where the
+     * next attempt expects them. {@link #moveAttachmentFiles(SQLiteDatabase, MigrationsHelper)} renames them once
+     * the transaction has been committed.
+     * </p>
+     */
+    private static void hashAttachmentFiles(SQLiteDatabase db, MigrationsHelper migrationsHelper) {
+        Cursor cursor = db.query("message_parts", new String[] { "id" }, "data_location = " + DATA_LOCATION__ON_DISK,
+                null, null, null, null);
+        try {
+            if (cursor.getCount() == 0) {
+                return;
+            }
+
+            db.execSQL("DROP TABLE IF EXISTS " + PENDING_MOVES_TABLE);
+            db.execSQL("CREATE TABLE " + PENDING_MOVES_TABLE + " (" +
+                    "part_id INTEGER PRIMARY KEY, " +
+                    "hash TEXT NOT NULL" +
+                    ")");
+
+            File attachmentDirectory = getAttachmentDirectory(migrationsHelper);
+
+            ContentValues cv = new ContentValues();
+            while (cursor.moveToNext()) {
+                String partId = cursor.getString(0);
+                File file = new File(attachmentDirectory, partId);
+
+                String hash;
+                try {
+                    hash = computeHash(file);
+                } catch (IOException e) {
+                    Timber.e(e, "Error reading attachment file of message part %s. Marking data as missing.", partId);
+                    cv.clear();
+                    cv.put("data_location", DATA_LOCATION__MISSING);
+                    db.update("message_parts", cv, "id = ?", new String[] { partId });
+                    continue;
+                }
+
+                db.execSQL("INSERT OR IGNORE INTO attachment_blobs (hash, ref_count) VALUES (?, 0)",
+                        new Object[] { hash });
+
+                cv.clear();
+                cv.put("blob_hash", hash);
+                db.update("message_parts", cv, "id = ?", new String[] { partId });
+
+                cv.clear();
+                cv.put("part_id", partId);
+                cv.put("hash", hash);
+                db.insert(PENDING_MOVES_TABLE, null, cv);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Renames the attachment files hashed by the migration to their hash. Files whose content is already stored under
+     * that name are deleted.
+     * <p>
+     * Every step can be repeated, so a run that was interrupted, e.g. because the app was killed, is completed the
+     * next time this is called. The bookkeeping table is dropped once all files have been moved.
+     * </p>
+     */
+    static void moveAttachmentFiles(SQLiteDatabase db, MigrationsHelper migrationsHelper) {
+        if (!hasPendingMovesTable(db)) {
+            return;
+        }
+
+        // Read all rows first since they are deleted while working through them
+        Map<String, String> hashByPartId = new LinkedHashMap<>();
+        Cursor cursor = db.query(PENDING_MOVES_TABLE, new String[] { "part_id", "hash" }, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                hashByPartId.put(cursor.getString(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        File attachmentDirectory = getAttachmentDirectory(migrationsHelper);
+        boolean allFilesMoved = true;
+        for (Map.Entry<String, String> entry : hashByPartId.entrySet()) {
+            String partId = entry.getKey();
+            try {
+                moveFileToBlob(new File(attachmentDirectory, partId), new File(attachmentDirectory, entry.getValue()));
+                db.delete(PENDING_MOVES_TABLE, "part_id = ?", new String[] { partId });
+            } catch (IOException e) {
+                Timber.e(e, "Error moving attachment file of message part %s. Will retry later.", partId);
+                allFilesMoved = false;
+            }
+        }
+
+        if (allFilesMoved) {
+            db.execSQL("DROP TABLE " + PENDING_MOVES_TABLE);
+        }
+    }
+
+    private static boolean hasPendingMovesTable(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[] { PENDING_MOVES_TABLE });
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void moveFileToBlob(File file, File blobFile) throws IOException {
+        if (!file.exists()) {
+            // Moved by an earlier, interrupted run
+            return;
+        }
+
+        // A blob file of a different size is left over from an interrupted copy and gets replaced
+        if (blobFile.exists() && blobFile.length() == file.length()) {
+            if (!file.delete()) {
+                Timber.d("Couldn't delete duplicate attachment file: %s", file.getAbsolutePath());
+            }
+        } else {
+            FileHelper.renameOrMoveByCopying(file, blobFile);
+        }
+    }
+
+    private static File getAttachmentDirectory(MigrationsHelper migrationsHelper) {
+        Account account = migrationsHelper.getAccount();
+        return StorageManager.getInstance(migrationsHelper.getContext())
+                .getAttachmentDirectory(account.getUuid(), account.getLocalStorageProviderId());
+    }
+
+    private static String computeHash(File file) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, count);
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        return Hex.encodeHex(messageDigest.digest());
+    }
+}
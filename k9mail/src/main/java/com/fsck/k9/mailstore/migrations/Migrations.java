@@ -83,6 +83,19 @@ public class Migrations {
                 MigrationTo61.removeErrorsFolder(db);
             case 61:
                 MigrationTo62.addServerIdColumnToFoldersTable(db);
+            case 62:
+                // Database version 63 didn't change the schema
+            case 63:
+                MigrationTo64.addHighestModSeqColumnToFoldersTable(db);
+            case 64:
+                MigrationTo65.createFulltextPendingTable(db);
+                MigrationTo65.createDeleteMessageTrigger(db);
+            case 65:
+                MigrationTo66.addHeaderColumnsToFtsTable(db);
+            case 66:
+                MigrationTo67.addMessageIdIndex(db);
+            case 67:
+                MigrationTo68.createAttachmentBlobStore(db, migrationsHelper);
         }
 
         if (shouldBuildFtsTable) {
@@ -90,6 +103,14 @@ public class Migrations {
         }
     }
 
+    /**
+     * Finishes work of earlier migrations that may only happen after the upgrade transaction was committed, e.g.
+     * because it changes files that a rolled back migration would still need. Does nothing if there's no such work.
+     */
+    public static void completeMigrations(SQLiteDatabase db, MigrationsHelper migrationsHelper) {
+        MigrationTo68.moveAttachmentFiles(db, migrationsHelper);
+    }
+
     private static void buildFtsTable(SQLiteDatabase db, MigrationsHelper migrationsHelper) {
         LocalStore localStore = migrationsHelper.getLocalStore();
         FullTextIndexer fullTextIndexer = new FullTextIndexer(localStore, db);
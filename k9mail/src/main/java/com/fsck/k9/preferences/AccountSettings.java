@@ -121,6 +121,9 @@ public class AccountSettings {
         s.put("maximumPolledMessageAge", Settings.versions(
                 new V(1, new IntegerResourceSetting(-1, R.array.account_settings_message_age_values))
         ));
+        s.put("maximumPooledConnections", Settings.versions(
+                new V(52, new IntegerRangeSetting(0, 10, Account.DEFAULT_MAXIMUM_POOLED_CONNECTIONS))
+        ));
         s.put("messageFormat", Settings.versions(
                 new V(1, new EnumSetting<>(MessageFormat.class, Account.DEFAULT_MESSAGE_FORMAT))
         ));
@@ -142,6 +145,9 @@ public class AccountSettings {
         s.put("notifySelfNewMail", Settings.versions(
                 new V(1, new BooleanSetting(true))
         ));
+        s.put("pop3FetchPipelineDepth", Settings.versions(
+                new V(53, new IntegerRangeSetting(1, 50, Account.DEFAULT_POP3_FETCH_PIPELINE_DEPTH))
+        ));
         s.put("pushPollOnConnect", Settings.versions(
                 new V(1, new BooleanSetting(true))
         ));
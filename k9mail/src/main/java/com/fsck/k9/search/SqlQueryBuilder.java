@@ -6,8 +6,6 @@ import timber.log.Timber;
 
 import com.fsck.k9.Account;
 import com.fsck.k9.mail.MessagingException;
-import com.fsck.k9.mail.Folder;
-import com.fsck.k9.mailstore.LocalFolder;
 import com.fsck.k9.mailstore.LocalStore;
 import com.fsck.k9.search.SearchSpecification.Attribute;
 import com.fsck.k9.search.SearchSpecification.SearchCondition;
@@ -15,12 +13,26 @@ import com.fsck.k9.search.SearchSpecification.SearchField;
 
 
 public class SqlQueryBuilder {
+    private static final String DEFAULT_MESSAGES_TABLE = "m";
+
+
     public static void buildWhereClause(Account account, ConditionsTreeNode node,
             StringBuilder query, List<String> selectionArgs) {
-        buildWhereClauseInternal(account, node, query, selectionArgs);
+        buildWhereClauseInternal(account, node, DEFAULT_MESSAGES_TABLE, query, selectionArgs);
+    }
+
+    /**
+     * Builds a where clause for queries that don't refer to the {@code messages} table by the alias {@code m}.
+     *
+     * @param messagesTable
+     *         The name or alias of the {@code messages} table in the query the where clause is used in.
+     */
+    public static void buildWhereClause(Account account, ConditionsTreeNode node, String messagesTable,
+            StringBuilder query, List<String> selectionArgs) {
+        buildWhereClauseInternal(account, node, messagesTable, query, selectionArgs);
     }
 
-    private static void buildWhereClauseInternal(Account account, ConditionsTreeNode node,
+    private static void buildWhereClauseInternal(Account account, ConditionsTreeNode node, String messagesTable,
             StringBuilder query, List<String> selectionArgs) {
         if (node == null) {
             query.append("1");
@@ -50,7 +62,7 @@ public class SqlQueryBuilder {
                             // to exclude "unwanted" folders.
                             account.excludeUnwantedFolders(tempSearch);
 
-                            buildWhereClauseInternal(account, tempSearch.getConditions(), query,
+                            buildWhereClauseInternal(account, tempSearch.getConditions(), messagesTable, query,
                                     selectionArgs);
                             break;
                         }
@@ -62,7 +74,7 @@ public class SqlQueryBuilder {
                             account.excludeSpecialFolders(tempSearch);
                             account.limitToDisplayableFolders(tempSearch);
 
-                            buildWhereClauseInternal(account, tempSearch.getConditions(), query,
+                            buildWhereClauseInternal(account, tempSearch.getConditions(), messagesTable, query,
                                     selectionArgs);
                             break;
                         }
@@ -79,49 +91,128 @@ public class SqlQueryBuilder {
                     if (condition.attribute != Attribute.CONTAINS) {
                         Timber.e("message contents can only be matched!");
                     }
-                    query.append("m.id IN (SELECT docid FROM messages_fulltext WHERE fulltext MATCH ?)");
+                    query.append(messagesTable).append(".id IN (SELECT docid FROM messages_fulltext " +
+                            "WHERE fulltext MATCH ?)");
                     selectionArgs.add(fulltextQueryString);
                     break;
                 }
                 default: {
-                    appendCondition(condition, query, selectionArgs);
+                    String fulltextQuery = buildFulltextQuery(condition);
+                    if (fulltextQuery != null) {
+                        appendFulltextCondition(condition, fulltextQuery, messagesTable, query, selectionArgs);
+                    } else {
+                        appendCondition(condition, query, selectionArgs);
+                    }
                 }
             }
         } else {
             query.append("(");
-            buildWhereClauseInternal(account, node.mLeft, query, selectionArgs);
+            buildWhereClauseInternal(account, node.mLeft, messagesTable, query, selectionArgs);
             query.append(") ");
             query.append(node.mValue.name());
             query.append(" (");
-            buildWhereClauseInternal(account, node.mRight, query, selectionArgs);
+            buildWhereClauseInternal(account, node.mRight, messagesTable, query, selectionArgs);
             query.append(")");
         }
     }
 
     private static void appendCondition(SearchCondition condition, StringBuilder query,
             List<String> selectionArgs) {
-        query.append(getColumnName(condition));
+        query.append(getColumnName(condition.field));
         appendExprRight(condition, query, selectionArgs);
     }
 
+    /**
+     * Text conditions on header fields that are part of the fulltext index are answered by an FTS {@code MATCH}
+     * instead of {@code LIKE '%value%'}, which can't use an index and has to scan all messages.
+     * <p>
+     * The value is matched as a phrase and the last word is matched as a prefix. So "Joh" finds "John Doe", but
+     * unlike {@code LIKE} a search term can't match in the middle of a word.
+     * </p>
+     * <p>
+     * Messages that are still waiting for {@link com.fsck.k9.mailstore.MessageFulltextIndexer} are not in the index
+     * yet, or only with outdated values. They are matched with {@code LIKE} instead.
+     * </p>
+     *
+     * @return The FTS query for the condition or {@code null} if the condition can't use the fulltext index.
+     */
+    static String buildFulltextQuery(SearchCondition condition) {
+        if (condition.attribute != Attribute.CONTAINS && condition.attribute != Attribute.NOT_CONTAINS) {
+            return null;
+        }
+
+        String columnName = getFulltextColumnName(condition.field);
+        if (columnName == null || condition.value == null) {
+            return null;
+        }
+
+        String[] words = condition.value.split("[^\\p{L}\\p{N}]+");
+        StringBuilder phrase = new StringBuilder();
+        for (String word : words) {
+            if (!word.isEmpty()) {
+                if (phrase.length() > 0) {
+                    phrase.append(' ');
+                }
+                phrase.append(word);
+            }
+        }
+
+        if (phrase.length() == 0) {
+            return null;
+        }
+
+        return columnName + ":\"" + phrase + "*\"";
+    }
+
+    private static String getFulltextColumnName(SearchField field) {
+        switch (field) {
+            case SUBJECT:
+            case SENDER:
+            case TO:
+            case CC:
+            case BCC: {
+                // The fulltext index uses the same column names as the 'messages' table
+                return getColumnName(field);
+            }
+            default: {
+                return null;
+            }
+        }
+    }
+
+    private static void appendFulltextCondition(SearchCondition condition, String fulltextQuery, String messagesTable,
+            StringBuilder query, List<String> selectionArgs) {
+        String messageIdColumn = messagesTable + ".id";
+        String pendingMessages = "(SELECT message_id FROM messages_fulltext_pending)";
+
+        query.append("((").append(messageIdColumn).append(" NOT IN ").append(pendingMessages).append(" AND ");
+        query.append(messageIdColumn);
+        if (condition.attribute == Attribute.NOT_CONTAINS) {
+            query.append(" NOT");
+        }
+        query.append(" IN (SELECT docid FROM messages_fulltext WHERE messages_fulltext MATCH ?)) OR (");
+        selectionArgs.add(fulltextQuery);
+
+        query.append(messageIdColumn).append(" IN ").append(pendingMessages).append(" AND ");
+        appendCondition(condition, query, selectionArgs);
+        query.append("))");
+    }
+
     private static long getFolderId(Account account, String folderServerId) {
         long folderId = 0;
         try {
             LocalStore localStore = account.getLocalStore();
-            LocalFolder folder = localStore.getFolder(folderServerId);
-            folder.open(Folder.OPEN_MODE_RO);
-            folderId = folder.getDatabaseId();
+            folderId = localStore.getFolderId(folderServerId);
         } catch (MessagingException e) {
-            //FIXME
-            e.printStackTrace();
+            Timber.e(e, "Unable to get database ID of folder %s", folderServerId);
         }
 
         return folderId;
     }
 
-    private static String getColumnName(SearchCondition condition) {
+    private static String getColumnName(SearchField field) {
         String columnName = null;
-        switch (condition.field) {
+        switch (field) {
             case ATTACHMENT_COUNT: {
                 columnName = "attachment_count";
                 break;
@@ -1,7 +1,9 @@
 package com.fsck.k9.cache;
 
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 import com.fsck.k9.RobolectricTest;
@@ -19,6 +21,7 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 
@@ -110,6 +113,68 @@ public class EmailProviderCacheTest extends RobolectricTest {
         assertNull(result);
     }
 
+    @Test
+    public void hasValuesForColumn_withoutValues_returnsFalse() {
+        boolean result = cache.hasValuesForColumn("read");
+
+        assertFalse(result);
+    }
+
+    @Test
+    public void hasValuesForColumn_withValueSetForMessage_returnsTrue() {
+        cache.setValueForMessages(Collections.singletonList(1L), "read", "1");
+
+        boolean result = cache.hasValuesForColumn("read");
+
+        assertTrue(result);
+    }
+
+    @Test
+    public void hasValuesForColumn_withValueSetForThread_returnsTrue() {
+        cache.setValueForThreads(Collections.singletonList(1L), "read", "1");
+
+        boolean result = cache.hasValuesForColumn("read");
+
+        assertTrue(result);
+    }
+
+    @Test
+    public void hasValuesForColumn_afterValueWasRemoved_returnsFalse() {
+        cache.setValueForMessages(Collections.singletonList(1L), "read", "1");
+        cache.removeValueForMessages(Collections.singletonList(1L), "read");
+
+        boolean result = cache.hasValuesForColumn("read");
+
+        assertFalse(result);
+    }
+
+    @Test
+    public void setValueForMessages_withManyMessages_returnsValueForEachMessage() {
+        List<Long> messageIds = new ArrayList<>();
+        for (long messageId = 1; messageId <= 5000; messageId++) {
+            messageIds.add(messageId);
+        }
+
+        cache.setValueForMessages(messageIds, "flagged", "1");
+
+        for (long messageId = 1; messageId <= 5000; messageId++) {
+            assertEquals("1", cache.getValueForMessage(messageId, "flagged"));
+        }
+        assertNull(cache.getValueForMessage(5001L, "flagged"));
+    }
+
+    @Test
+    public void getValueForMessage_shouldCountHitsAndMisses() {
+        cache.setValueForMessages(Collections.singletonList(1L), "read", "1");
+
+        cache.getValueForMessage(1L, "read");
+        cache.getValueForMessage(2L, "read");
+        cache.getValueForMessage(1L, "flagged");
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
     @Test
     public void isMessageHidden_returnsTrueForHiddenMessage() {
         cache.hideMessages(Collections.singletonList(mockLocalMessage));
@@ -126,6 +191,45 @@ public class EmailProviderCacheTest extends RobolectricTest {
         assertFalse(result);
     }
 
+    @Test
+    public void hasHiddenMessages_withoutHiddenMessages_returnsFalse() {
+        boolean result = cache.hasHiddenMessages();
+
+        assertFalse(result);
+    }
+
+    @Test
+    public void hasHiddenMessages_withHiddenMessage_returnsTrue() {
+        cache.hideMessages(Collections.singletonList(mockLocalMessage));
+
+        boolean result = cache.hasHiddenMessages();
+
+        assertTrue(result);
+    }
+
+    @Test
+    public void isMessageHidden_returnsFalseForHiddenMessageInOtherFolder() {
+        cache.hideMessages(Collections.singletonList(mockLocalMessage));
+
+        boolean result = cache.isMessageHidden(localMessageId, localMessageFolderId + 1);
+
+        assertFalse(result);
+    }
+
+    @Test
+    public void isMessageHidden_afterUnhidingMessageInOtherFolder_returnsTrue() {
+        cache.hideMessages(Collections.singletonList(mockLocalMessage));
+        LocalMessage messageInOtherFolder = mock(LocalMessage.class);
+        LocalFolder otherFolder = mock(LocalFolder.class);
+        when(messageInOtherFolder.getDatabaseId()).thenReturn(localMessageId);
+        when(messageInOtherFolder.getFolder()).thenReturn(otherFolder);
+        when(otherFolder.getDatabaseId()).thenReturn(localMessageFolderId + 1);
+
+        cache.unhideMessages(Collections.singletonList(messageInOtherFolder));
+
+        assertTrue(cache.isMessageHidden(localMessageId, localMessageFolderId));
+    }
+
     @Test
     public void isMessageHidden_returnsFalseForUnhidenMessage() {
         cache.hideMessages(Collections.singletonList(mockLocalMessage));
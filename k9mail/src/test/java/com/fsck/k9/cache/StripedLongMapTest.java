@@ -0,0 +1,86 @@
+package com.fsck.k9.cache;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class StripedLongMapTest {
+    private StripedLongMap<String> map = new StripedLongMap<>();
+
+
+    @Test
+    public void get_withEmptyMap_shouldReturnNull() {
+        assertNull(map.get(1L));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void putAll_shouldMapEveryKeyToValue() {
+        List<Long> keys = createKeys(1, 1000);
+
+        map.putAll(keys, "value");
+
+        assertEquals(1000, map.size());
+        for (long key = 1; key <= 1000; key++) {
+            assertEquals("value", map.get(key));
+        }
+    }
+
+    @Test
+    public void putAll_withExistingKey_shouldReplaceValue() {
+        map.putAll(Collections.singletonList(1L), "old");
+
+        map.putAll(Collections.singletonList(1L), "new");
+
+        assertEquals(1, map.size());
+        assertEquals("new", map.get(1L));
+    }
+
+    @Test
+    public void removeAll_shouldKeepOtherKeysReachable() {
+        map.putAll(createKeys(1, 1000), "value");
+
+        map.removeAll(createKeys(1, 500));
+
+        assertEquals(500, map.size());
+        for (long key = 1; key <= 500; key++) {
+            assertNull(map.get(key));
+        }
+        for (long key = 501; key <= 1000; key++) {
+            assertEquals("value", map.get(key));
+        }
+    }
+
+    @Test
+    public void removeAll_withExpectedValues_shouldOnlyRemoveMatchingEntries() {
+        map.putAll(Collections.singletonList(1L), "one");
+        map.putAll(Collections.singletonList(2L), "two");
+        Map<Long, String> entries = new HashMap<>();
+        entries.put(1L, "one");
+        entries.put(2L, "other");
+
+        map.removeAll(entries);
+
+        assertNull(map.get(1L));
+        assertEquals("two", map.get(2L));
+    }
+
+
+    private static List<Long> createKeys(long first, long last) {
+        List<Long> keys = new ArrayList<>();
+        for (long key = first; key <= last; key++) {
+            keys.add(key);
+        }
+        return keys;
+    }
+}
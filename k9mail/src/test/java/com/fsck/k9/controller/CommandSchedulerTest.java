@@ -0,0 +1,160 @@
+package com.fsck.k9.controller;
+
+
+import com.fsck.k9.controller.CommandScheduler.Command;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+
+public class CommandSchedulerTest {
+    private CommandScheduler scheduler;
+
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new CommandScheduler();
+    }
+
+    @Test
+    public void poll_shouldReturnCommandsInQueueOrder() throws Exception {
+        Command first = createCommand("account1", false);
+        Command second = createCommand("account2", false);
+        scheduler.put(first);
+        scheduler.put(second);
+
+        assertSame(first, scheduler.poll());
+        assertSame(second, scheduler.poll());
+    }
+
+    @Test
+    public void poll_shouldPreferForegroundCommands() throws Exception {
+        Command background = createCommand("account1", false);
+        Command foreground = createCommand("account2", true);
+        scheduler.put(background);
+        scheduler.put(foreground);
+
+        assertSame(foreground, scheduler.poll());
+        assertSame(background, scheduler.poll());
+    }
+
+    @Test
+    public void poll_withCommandOfSameAccountRunning_shouldSkipToOtherAccount() throws Exception {
+        Command first = createCommand("account1", false);
+        Command second = createCommand("account1", true);
+        Command otherAccount = createCommand("account2", false);
+        scheduler.put(first);
+        assertSame(first, scheduler.poll());
+        scheduler.put(second);
+        scheduler.put(otherAccount);
+
+        assertSame(otherAccount, scheduler.poll());
+        assertNull(scheduler.poll());
+    }
+
+    @Test
+    public void poll_afterCommandOfSameAccountFinished_shouldReturnNextCommand() throws Exception {
+        Command first = createCommand("account1", false);
+        Command second = createCommand("account1", false);
+        scheduler.put(first);
+        scheduler.put(second);
+        assertSame(first, scheduler.poll());
+
+        scheduler.finished(first);
+
+        assertSame(second, scheduler.poll());
+    }
+
+    @Test
+    public void poll_withGlobalCommands_shouldSerializeThem() throws Exception {
+        Command first = createCommand(null, false);
+        Command second = createCommand(null, false);
+        scheduler.put(first);
+        scheduler.put(second);
+
+        assertSame(first, scheduler.poll());
+        assertNull(scheduler.poll());
+    }
+
+    @Test
+    public void poll_withCommandWaitingForPreviousCommands_shouldWaitUntilTheyCompleted() throws Exception {
+        Command sync1 = createCommand("account1", false);
+        Command sync2 = createCommand("account2", false);
+        Command finalizeCommand = createCommand(null, false);
+        finalizeCommand.waitForPreviousCommands = true;
+        scheduler.put(sync1);
+        scheduler.put(sync2);
+        scheduler.put(finalizeCommand);
+
+        assertSame(sync1, scheduler.poll());
+        assertSame(sync2, scheduler.poll());
+        assertNull(scheduler.poll());
+
+        scheduler.finished(sync1);
+        assertNull(scheduler.poll());
+
+        scheduler.finished(sync2);
+        assertSame(finalizeCommand, scheduler.poll());
+    }
+
+    @Test
+    public void poll_withCommandWaitingForPreviousCommands_shouldIgnoreCommandsQueuedAfterIt() throws Exception {
+        Command finalizeCommand = createCommand(null, false);
+        finalizeCommand.waitForPreviousCommands = true;
+        Command laterCommand = createCommand("account1", true);
+        scheduler.put(finalizeCommand);
+        scheduler.put(laterCommand);
+
+        assertSame(laterCommand, scheduler.poll());
+        assertSame(finalizeCommand, scheduler.poll());
+    }
+
+    @Test
+    public void take_shouldWaitForCommandOfBusyAccountToFinish() throws Exception {
+        final Command first = createCommand("account1", false);
+        Command second = createCommand("account1", false);
+        scheduler.put(first);
+        scheduler.put(second);
+        assertSame(first, scheduler.take());
+
+        Thread finisher = new Thread() {
+            @Override
+            public void run() {
+                scheduler.finished(first);
+            }
+        };
+        finisher.start();
+
+        assertSame(second, scheduler.take());
+        finisher.join();
+    }
+
+    @Test
+    public void metrics_shouldReflectQueuedAndRunningCommands() throws Exception {
+        Command running = createCommand("account1", false);
+        scheduler.put(running);
+        scheduler.put(createCommand("account1", false));
+        scheduler.put(createCommand("account2", false));
+
+        scheduler.poll();
+
+        assertEquals(2, scheduler.getQueuedCommandCount());
+        assertEquals(1, scheduler.getRunningCommandCount());
+
+        scheduler.finished(running);
+
+        assertEquals(0, scheduler.getRunningCommandCount());
+    }
+
+
+    private Command createCommand(String serializationKey, boolean isForeground) {
+        Command command = new Command();
+        command.description = "command";
+        command.serializationKey = serializationKey;
+        command.isForegroundPriority = isForeground;
+        return command;
+    }
+}
@@ -17,6 +17,8 @@ import com.fsck.k9.Account;
 import com.fsck.k9.AccountStats;
 import com.fsck.k9.K9;
 import com.fsck.k9.K9RobolectricTest;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingCommand;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingExpunge;
 import com.fsck.k9.Preferences;
 import com.fsck.k9.helper.Contacts;
 import com.fsck.k9.mail.AuthenticationFailedException;
@@ -56,6 +58,7 @@ import org.robolectric.shadows.ShadowLog;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.ArgumentMatchers.nullable;
@@ -849,6 +852,33 @@ public class MessagingControllerTest extends K9RobolectricTest {
         assertEquals(FetchProfile.Item.BODY_SANE, fetchProfileCaptor.getAllValues().get(3).get(0));
     }
 
+    @Test
+    public void processPendingCommandsSynchronous_withPermanentFailureOfMergedCommand_shouldReplayOriginalCommands()
+            throws Exception {
+        PendingCommand first = PendingExpunge.create(FOLDER_NAME);
+        PendingCommand second = PendingExpunge.create(FOLDER_NAME);
+        when(localStore.getPendingCommands()).thenReturn(Arrays.asList(first, second));
+        configureRemoteStoreWithFolder();
+        when(remoteFolder.exists()).thenReturn(true);
+        when(remoteFolder.getMode()).thenReturn(Folder.OPEN_MODE_RW);
+        doThrow(new MessagingException("bad", true))
+                .doThrow(new MessagingException("bad", true))
+                .doThrow(new MessagingException("temporary", false))
+                .when(remoteFolder).expunge();
+
+        try {
+            controller.processPendingCommandsSynchronous(account);
+            fail("Expected MessagingException");
+        } catch (MessagingException e) {
+            assertEquals("temporary", e.getMessage());
+        }
+
+        verify(remoteFolder, times(3)).expunge();
+        verify(localStore).removePendingCommands(Collections.singletonList(first));
+        verify(localStore, never()).removePendingCommands(Collections.singletonList(second));
+        verify(localStore, never()).removePendingCommands(Arrays.asList(first, second));
+    }
+
     @Test
     public void processPendingMoveOrCopy_withOnlyLocalMessages() throws Exception {
         configureRemoteStoreWithFolder();
@@ -0,0 +1,196 @@
+package com.fsck.k9.controller;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fsck.k9.controller.MessagingControllerCommands.PendingAppend;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingCommand;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingExpunge;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingMoveOrCopy;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingSetFlag;
+import com.fsck.k9.controller.PendingCommandCoalescer.CoalescedCommand;
+import com.fsck.k9.controller.PendingCommandCoalescer.Result;
+import com.fsck.k9.mail.Flag;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class PendingCommandCoalescerTest {
+    private static final String FOLDER = "INBOX";
+    private static final String OTHER_FOLDER = "Archive";
+
+
+    @Test
+    public void coalesce_withSingleCommand_shouldReturnCommandUnchanged() {
+        PendingCommand command = PendingAppend.create(FOLDER, "uid1");
+
+        Result result = PendingCommandCoalescer.coalesce(Collections.singletonList(command));
+
+        assertEquals(1, result.getCommands().size());
+        assertSame(command, result.getCommands().get(0).command);
+        assertEquals(Collections.singletonList(command), result.getCommands().get(0).sourceCommands);
+        assertEquals(0, result.getSavedCommandCount());
+    }
+
+    @Test
+    public void coalesce_withFlagToggledRepeatedly_shouldOnlySendLastState() {
+        List<PendingCommand> commands = Arrays.<PendingCommand>asList(
+                PendingSetFlag.create(FOLDER, true, Flag.SEEN, Arrays.asList("uid1", "uid2")),
+                PendingSetFlag.create(FOLDER, false, Flag.SEEN, Collections.singletonList("uid1")),
+                PendingSetFlag.create(FOLDER, true, Flag.SEEN, Collections.singletonList("uid3")));
+
+        Result result = PendingCommandCoalescer.coalesce(commands);
+
+        List<CoalescedCommand> coalescedCommands = result.getCommands();
+        assertEquals(2, coalescedCommands.size());
+        assertSetFlag(coalescedCommands.get(0).command, FOLDER, true, Flag.SEEN, "uid2", "uid3");
+        assertSetFlag(coalescedCommands.get(1).command, FOLDER, false, Flag.SEEN, "uid1");
+        assertTrue(coalescedCommands.get(0).sourceCommands.isEmpty());
+        assertEquals(commands, coalescedCommands.get(1).sourceCommands);
+        assertEquals(1, result.getSavedCommandCount());
+    }
+
+    @Test
+    public void coalesce_withDifferentFoldersAndFlags_shouldKeepThemApart() {
+        List<PendingCommand> commands = Arrays.<PendingCommand>asList(
+                PendingSetFlag.create(FOLDER, true, Flag.SEEN, Collections.singletonList("uid1")),
+                PendingSetFlag.create(OTHER_FOLDER, true, Flag.SEEN, Collections.singletonList("uid1")),
+                PendingSetFlag.create(FOLDER, true, Flag.FLAGGED, Collections.singletonList("uid1")),
+                PendingSetFlag.create(FOLDER, true, Flag.SEEN, Collections.singletonList("uid2")));
+
+        Result result = PendingCommandCoalescer.coalesce(commands);
+
+        List<CoalescedCommand> coalescedCommands = result.getCommands();
+        assertEquals(3, coalescedCommands.size());
+        assertSetFlag(coalescedCommands.get(0).command, FOLDER, true, Flag.SEEN, "uid1", "uid2");
+        assertSetFlag(coalescedCommands.get(1).command, OTHER_FOLDER, true, Flag.SEEN, "uid1");
+        assertSetFlag(coalescedCommands.get(2).command, FOLDER, true, Flag.FLAGGED, "uid1");
+    }
+
+    @Test
+    public void coalesce_withMovesToSameFolder_shouldMergeUids() {
+        List<PendingCommand> commands = Arrays.<PendingCommand>asList(
+                PendingMoveOrCopy.create(FOLDER, OTHER_FOLDER, false, Collections.singletonList("uid1")),
+                PendingMoveOrCopy.create(FOLDER, OTHER_FOLDER, false, Collections.singletonList("uid2")));
+
+        Result result = PendingCommandCoalescer.coalesce(commands);
+
+        assertEquals(1, result.getCommands().size());
+        PendingMoveOrCopy command = (PendingMoveOrCopy) result.getCommands().get(0).command;
+        assertEquals(Arrays.asList("uid1", "uid2"), command.uids);
+        assertFalse(command.isCopy);
+        assertEquals(commands, result.getCommands().get(0).sourceCommands);
+    }
+
+    @Test
+    public void coalesce_withMovesUsingUidMaps_shouldMergeMaps() {
+        Map<String, String> firstUidMap = new HashMap<>();
+        firstUidMap.put("uid1", "K9LOCAL:1");
+        Map<String, String> secondUidMap = new HashMap<>();
+        secondUidMap.put("uid2", "K9LOCAL:2");
+        List<PendingCommand> commands = Arrays.<PendingCommand>asList(
+                PendingMoveOrCopy.create(FOLDER, OTHER_FOLDER, false, firstUidMap),
+                PendingMoveOrCopy.create(FOLDER, OTHER_FOLDER, false, secondUidMap));
+
+        Result result = PendingCommandCoalescer.coalesce(commands);
+
+        assertEquals(1, result.getCommands().size());
+        PendingMoveOrCopy command = (PendingMoveOrCopy) result.getCommands().get(0).command;
+        assertEquals(2, command.newUidMap.size());
+        assertEquals("K9LOCAL:2", command.newUidMap.get("uid2"));
+    }
+
+    @Test
+    public void coalesce_withMoveAndCopy_shouldNotMerge() {
+        List<PendingCommand> commands = Arrays.<PendingCommand>asList(
+                PendingMoveOrCopy.create(FOLDER, OTHER_FOLDER, false, Collections.singletonList("uid1")),
+                PendingMoveOrCopy.create(FOLDER, OTHER_FOLDER, true, Collections.singletonList("uid2")));
+
+        Result result = PendingCommandCoalescer.coalesce(commands);
+
+        assertEquals(2, result.getCommands().size());
+    }
+
+    @Test
+    public void coalesce_withRepeatedExpunges_shouldKeepOnePerFolder() {
+        List<PendingCommand> commands = Arrays.<PendingCommand>asList(
+                PendingExpunge.create(FOLDER),
+                PendingExpunge.create(OTHER_FOLDER),
+                PendingExpunge.create(FOLDER));
+
+        Result result = PendingCommandCoalescer.coalesce(commands);
+
+        assertEquals(2, result.getCommands().size());
+        assertSame(commands.get(0), result.getCommands().get(0).command);
+        assertEquals(Arrays.asList(commands.get(0), commands.get(2)), result.getCommands().get(0).sourceCommands);
+        assertSame(commands.get(1), result.getCommands().get(1).command);
+    }
+
+    @Test
+    public void coalesce_shouldNotMergeAcrossOtherCommands() {
+        List<PendingCommand> commands = Arrays.<PendingCommand>asList(
+                PendingSetFlag.create(FOLDER, true, Flag.SEEN, Collections.singletonList("uid1")),
+                PendingMoveOrCopy.create(FOLDER, OTHER_FOLDER, false, Collections.singletonList("uid1")),
+                PendingSetFlag.create(FOLDER, false, Flag.SEEN, Collections.singletonList("uid1")));
+
+        Result result = PendingCommandCoalescer.coalesce(commands);
+
+        assertEquals(3, result.getCommands().size());
+        assertEquals(0, result.getSavedCommandCount());
+    }
+
+    @Test
+    public void coalesce_withSetFlagCommandsWithoutUids_shouldDropThem() {
+        List<PendingCommand> commands = Arrays.<PendingCommand>asList(
+                PendingSetFlag.create(FOLDER, true, Flag.SEEN, Collections.<String>emptyList()),
+                PendingSetFlag.create(FOLDER, false, Flag.SEEN, Collections.<String>emptyList()));
+
+        Result result = PendingCommandCoalescer.coalesce(commands);
+
+        assertTrue(result.getCommands().isEmpty());
+        assertEquals(commands, result.getDroppedCommands());
+    }
+
+    @Test
+    public void coalesce_withSingleSetFlagCommandWithoutUids_shouldDropIt() {
+        PendingCommand noOpCommand = PendingSetFlag.create(FOLDER, true, Flag.SEEN, Collections.<String>emptyList());
+        PendingCommand expunge = PendingExpunge.create(FOLDER);
+
+        Result result = PendingCommandCoalescer.coalesce(Arrays.asList(noOpCommand, expunge));
+
+        assertEquals(1, result.getCommands().size());
+        assertSame(expunge, result.getCommands().get(0).command);
+        assertEquals(Collections.singletonList(noOpCommand), result.getDroppedCommands());
+    }
+
+    @Test
+    public void coalesce_withSetFlagRun_shouldShareOriginalCommandsBetweenMergedCommands() {
+        List<PendingCommand> commands = Arrays.<PendingCommand>asList(
+                PendingSetFlag.create(FOLDER, true, Flag.SEEN, Collections.singletonList("uid1")),
+                PendingSetFlag.create(FOLDER, false, Flag.SEEN, Collections.singletonList("uid2")));
+
+        List<CoalescedCommand> coalescedCommands = PendingCommandCoalescer.coalesce(commands).getCommands();
+
+        assertEquals(2, coalescedCommands.size());
+        assertEquals(commands, coalescedCommands.get(0).originalCommands);
+        assertSame(coalescedCommands.get(0).originalCommands, coalescedCommands.get(1).originalCommands);
+    }
+
+
+    private static void assertSetFlag(PendingCommand command, String folder, boolean newState, Flag flag,
+            String... uids) {
+        PendingSetFlag setFlag = (PendingSetFlag) command;
+        assertEquals(folder, setFlag.folder);
+        assertEquals(newState, setFlag.newState);
+        assertEquals(flag, setFlag.flag);
+        assertEquals(Arrays.asList(uids), setFlag.uids);
+    }
+}
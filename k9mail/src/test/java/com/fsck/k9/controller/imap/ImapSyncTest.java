@@ -15,7 +15,9 @@ import com.fsck.k9.RobolectricTest;
 import com.fsck.k9.controller.MessagingController;
 import com.fsck.k9.controller.MessagingListener;
 import com.fsck.k9.controller.SimpleMessagingListener;
+import com.fsck.k9.mail.BodyFactory;
 import com.fsck.k9.mail.FetchProfile;
+import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
@@ -24,6 +26,7 @@ import com.fsck.k9.mail.store.RemoteStore;
 import com.fsck.k9.mailstore.LocalFolder;
 import com.fsck.k9.mailstore.LocalMessage;
 import com.fsck.k9.mailstore.LocalStore;
+import com.fsck.k9.mailstore.LocalStoreBodyFactory;
 import com.fsck.k9.notification.NotificationController;
 import org.junit.Before;
 import org.junit.Test;
@@ -37,15 +40,19 @@ import org.robolectric.shadows.ShadowApplication;
 import org.robolectric.shadows.ShadowLog;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -80,6 +87,8 @@ public class ImapSyncTest extends RobolectricTest {
     private ArgumentCaptor<List<Message>> messageListCaptor;
     @Captor
     private ArgumentCaptor<FetchProfile> fetchProfileCaptor;
+    @Captor
+    private ArgumentCaptor<FetchProfile> bodyFetchProfileCaptor;
 
     private Context appContext;
 
@@ -95,6 +104,8 @@ public class ImapSyncTest extends RobolectricTest {
         setUpMessagingController();
         configureAccount();
         configureLocalStore();
+        when(remoteFolder.getHighestModSeq()).thenReturn(Folder.UNKNOWN_MOD_SEQ);
+        when(localFolder.getHighestModSeq()).thenReturn(Folder.UNKNOWN_MOD_SEQ);
     }
 
     @Test
@@ -270,10 +281,46 @@ public class ImapSyncTest extends RobolectricTest {
 
         imapSync.sync(account, FOLDER_NAME, listener, remoteFolder);
 
-        verify(remoteFolder, atLeast(2)).fetch(any(List.class), fetchProfileCaptor.capture(),
-                nullable(MessageRetrievalListener.class));
-        assertEquals(1, fetchProfileCaptor.getAllValues().get(1).size());
-        assertTrue(fetchProfileCaptor.getAllValues().get(1).contains(FetchProfile.Item.BODY));
+        verify(remoteFolder).fetch(any(List.class), fetchProfileCaptor.capture(),
+                nullable(MessageRetrievalListener.class), any(LocalStoreBodyFactory.class));
+        assertEquals(1, fetchProfileCaptor.getValue().size());
+        assertTrue(fetchProfileCaptor.getValue().contains(FetchProfile.Item.BODY));
+    }
+
+    @Test
+    public void sync_withUnsyncedNewSmallMessage_shouldStoreDownloadedMessagesUsingBatchApi() throws Exception {
+        Message smallMessage = buildSmallNewMessage();
+        LocalMessage localMessage = mock(LocalMessage.class);
+        messageCountInRemoteFolder(1);
+        hasUnsyncedRemoteMessage();
+        when(remoteFolder.supportsFetchingFlags()).thenReturn(false);
+        respondToFetchEnvelopesAndBodiesWithMessage(smallMessage);
+        when(localFolder.storeSmallMessages(Collections.singletonList(smallMessage)))
+                .thenReturn(Collections.singletonList(localMessage));
+
+        imapSync.sync(account, FOLDER_NAME, listener, remoteFolder);
+
+        verify(localFolder).storeSmallMessages(Collections.singletonList(smallMessage));
+        verify(localFolder, never()).storeSmallMessage(any(Message.class), any(Runnable.class));
+        verify(listener).synchronizeMailboxNewMessage(account, FOLDER_NAME, localMessage);
+    }
+
+    @Test
+    public void sync_withBatchStoreFailing_shouldStoreMessagesIndividually() throws Exception {
+        Message smallMessage = buildSmallNewMessage();
+        LocalMessage localMessage = mock(LocalMessage.class);
+        messageCountInRemoteFolder(1);
+        hasUnsyncedRemoteMessage();
+        when(remoteFolder.supportsFetchingFlags()).thenReturn(false);
+        respondToFetchEnvelopesAndBodiesWithMessage(smallMessage);
+        when(localFolder.storeSmallMessages(Collections.singletonList(smallMessage)))
+                .thenThrow(new MessagingException("Test"))
+                .thenReturn(Collections.singletonList(localMessage));
+
+        imapSync.sync(account, FOLDER_NAME, listener, remoteFolder);
+
+        verify(localFolder, times(2)).storeSmallMessages(Collections.singletonList(smallMessage));
+        verify(listener).synchronizeMailboxNewMessage(account, FOLDER_NAME, localMessage);
     }
 
     @Test
@@ -287,12 +334,78 @@ public class ImapSyncTest extends RobolectricTest {
         imapSync.sync(account, FOLDER_NAME, listener, remoteFolder);
 
         //TODO: Don't bother fetching messages of a size we don't have
-        verify(remoteFolder, atLeast(4)).fetch(any(List.class), fetchProfileCaptor.capture(),
+        verify(remoteFolder, atLeast(2)).fetch(any(List.class), fetchProfileCaptor.capture(),
+                nullable(MessageRetrievalListener.class));
+        assertEquals(1, fetchProfileCaptor.getAllValues().get(1).size());
+        assertEquals(FetchProfile.Item.STRUCTURE, fetchProfileCaptor.getAllValues().get(1).get(0));
+        verify(remoteFolder, atLeast(2)).fetch(any(List.class), bodyFetchProfileCaptor.capture(),
+                nullable(MessageRetrievalListener.class), any(LocalStoreBodyFactory.class));
+        assertEquals(1, bodyFetchProfileCaptor.getAllValues().get(1).size());
+        assertEquals(FetchProfile.Item.BODY_SANE, bodyFetchProfileCaptor.getAllValues().get(1).get(0));
+    }
+
+    @Test
+    public void sync_withUnchangedHighestModSeq_shouldNotFetchFlags() throws Exception {
+        messageCountInRemoteFolder(1);
+        configureRemoteStoreWithFolder();
+        hasDownloadedLocalMessageWithCopyOnServer();
+        when(remoteFolder.getHighestModSeq()).thenReturn(100L);
+        when(localFolder.getHighestModSeq()).thenReturn(100L);
+
+        imapSync.sync(account, FOLDER_NAME, listener, null);
+
+        verify(remoteFolder, never()).fetchChangedFlags(any(List.class), anyLong());
+        verify(remoteFolder, atLeastOnce()).fetch(any(List.class), fetchProfileCaptor.capture(),
                 nullable(MessageRetrievalListener.class));
-        assertEquals(1, fetchProfileCaptor.getAllValues().get(2).size());
-        assertEquals(FetchProfile.Item.STRUCTURE, fetchProfileCaptor.getAllValues().get(2).get(0));
-        assertEquals(1, fetchProfileCaptor.getAllValues().get(3).size());
-        assertEquals(FetchProfile.Item.BODY_SANE, fetchProfileCaptor.getAllValues().get(3).get(0));
+        for (FetchProfile fetchProfile : fetchProfileCaptor.getAllValues()) {
+            assertFalse(fetchProfile.contains(FetchProfile.Item.FLAGS));
+        }
+    }
+
+    @Test
+    public void sync_withChangedHighestModSeq_shouldOnlyFetchChangedFlags() throws Exception {
+        messageCountInRemoteFolder(1);
+        configureRemoteStoreWithFolder();
+        hasDownloadedLocalMessageWithCopyOnServer();
+        when(remoteFolder.getHighestModSeq()).thenReturn(120L);
+        when(localFolder.getHighestModSeq()).thenReturn(100L);
+
+        imapSync.sync(account, FOLDER_NAME, listener, null);
+
+        verify(remoteFolder).fetchChangedFlags(any(List.class), eq(100L));
+        verify(localFolder).setHighestModSeq(120L);
+    }
+
+    @Test
+    public void sync_withoutStoredHighestModSeq_shouldFetchAllFlagsAndStoreHighestModSeq() throws Exception {
+        messageCountInRemoteFolder(1);
+        configureRemoteStoreWithFolder();
+        hasDownloadedLocalMessageWithCopyOnServer();
+        when(remoteFolder.getHighestModSeq()).thenReturn(120L);
+        when(localFolder.getHighestModSeq()).thenReturn(Folder.UNKNOWN_MOD_SEQ);
+
+        imapSync.sync(account, FOLDER_NAME, listener, null);
+
+        verify(remoteFolder, never()).fetchChangedFlags(any(List.class), anyLong());
+        verify(remoteFolder, atLeastOnce()).fetch(any(List.class), fetchProfileCaptor.capture(),
+                nullable(MessageRetrievalListener.class));
+        FetchProfile lastFetchProfile = fetchProfileCaptor.getValue();
+        assertEquals(1, lastFetchProfile.size());
+        assertTrue(lastFetchProfile.contains(FetchProfile.Item.FLAGS));
+        verify(localFolder).setHighestModSeq(120L);
+    }
+
+    @Test
+    public void sync_withRemoteFolderProvided_shouldNotUseHighestModSeq() throws Exception {
+        messageCountInRemoteFolder(1);
+        hasDownloadedLocalMessageWithCopyOnServer();
+        when(remoteFolder.getHighestModSeq()).thenReturn(100L);
+        when(localFolder.getHighestModSeq()).thenReturn(100L);
+
+        imapSync.sync(account, FOLDER_NAME, listener, remoteFolder);
+
+        verify(remoteFolder, never()).fetchChangedFlags(any(List.class), anyLong());
+        verify(localFolder, never()).setHighestModSeq(anyLong());
     }
 
     private void respondToFetchEnvelopesWithMessage(final Message message) throws MessagingException {
@@ -313,6 +426,29 @@ public class ImapSyncTest extends RobolectricTest {
         }).when(remoteFolder).fetch(any(List.class), any(FetchProfile.class), nullable(MessageRetrievalListener.class));
     }
 
+    private void respondToFetchEnvelopesAndBodiesWithMessage(final Message message) throws MessagingException {
+        Answer answer = new Answer() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                FetchProfile fetchProfile = (FetchProfile) invocation.getArguments()[1];
+                if (invocation.getArguments()[2] != null) {
+                    MessageRetrievalListener listener = (MessageRetrievalListener) invocation.getArguments()[2];
+                    if (fetchProfile.contains(FetchProfile.Item.ENVELOPE) ||
+                            fetchProfile.contains(FetchProfile.Item.BODY)) {
+                        listener.messageStarted("UID", 1, 1);
+                        listener.messageFinished(message, 1, 1);
+                        listener.messagesFinished(1);
+                    }
+                }
+                return null;
+            }
+        };
+        doAnswer(answer).when(remoteFolder).fetch(any(List.class), any(FetchProfile.class),
+                nullable(MessageRetrievalListener.class));
+        doAnswer(answer).when(remoteFolder).fetch(any(List.class), any(FetchProfile.class),
+                nullable(MessageRetrievalListener.class), any(BodyFactory.class));
+    }
+
     private Message buildSmallNewMessage() {
         Message message = mock(Message.class);
         when(message.olderThan(nullable(Date.class))).thenReturn(false);
@@ -343,6 +479,12 @@ public class ImapSyncTest extends RobolectricTest {
         return localMessage;
     }
 
+    private void hasDownloadedLocalMessageWithCopyOnServer() throws MessagingException {
+        LocalMessage localMessage = localMessageWithCopyOnServer();
+        when(localMessage.isSet(Flag.X_DOWNLOADED_FULL)).thenReturn(true);
+        when(localFolder.getMessage("UID")).thenReturn(localMessage);
+    }
+
     private void hasUnsyncedRemoteMessage() throws MessagingException {
         String messageUid = "UID";
         Message remoteMessage = mock(Message.class);
@@ -0,0 +1,122 @@
+package com.fsck.k9.helper;
+
+
+import java.util.Comparator;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.fsck.k9.RobolectricTest;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class MergeCursorTest extends RobolectricTest {
+    private static final String[] COLUMNS = { "_id", "value" };
+    private static final Comparator<Cursor> VALUE_COMPARATOR = new Comparator<Cursor>() {
+        @Override
+        public int compare(Cursor left, Cursor right) {
+            int leftValue = left.getInt(1);
+            int rightValue = right.getInt(1);
+            return (leftValue < rightValue) ? -1 : ((leftValue == rightValue) ? 0 : 1);
+        }
+    };
+
+
+    @Test
+    public void moveToNext_shouldReturnRowsInMergedOrder() {
+        MergeCursor cursor = createMergeCursor(new int[] { 1, 4, 7 }, new int[] { 2, 5 }, new int[] { 3, 6, 8 });
+
+        assertValues(cursor, 1, 2, 3, 4, 5, 6, 7, 8);
+        assertFalse(cursor.moveToNext());
+        assertTrue(cursor.isAfterLast());
+    }
+
+    @Test
+    public void moveToNext_withEqualValues_shouldReturnRowsOfFirstCursorFirst() {
+        MergeCursor cursor = createMergeCursor(new int[] { 1 }, new int[] { 1 });
+
+        assertTrue(cursor.moveToNext());
+        assertEquals(0, cursor.mActiveCursorIndex);
+        assertTrue(cursor.moveToNext());
+        assertEquals(1, cursor.mActiveCursorIndex);
+    }
+
+    @Test
+    public void moveToNext_withNullAndEmptyCursors_shouldSkipThem() {
+        Cursor[] cursors = { null, createCursor(), createCursor(2, 3), createCursor(1) };
+        MergeCursor cursor = new MergeCursor(cursors, VALUE_COMPARATOR);
+
+        assertEquals(3, cursor.getCount());
+        assertValues(cursor, 1, 2, 3);
+    }
+
+    @Test
+    public void moveToPosition_shouldSeekToMergedRow() {
+        MergeCursor cursor = createMergeCursor(new int[] { 1, 4, 7 }, new int[] { 2, 5 }, new int[] { 3, 6, 8 });
+
+        assertTrue(cursor.moveToPosition(6));
+        assertEquals(7, cursor.getInt(1));
+
+        assertTrue(cursor.moveToPosition(1));
+        assertEquals(2, cursor.getInt(1));
+
+        assertTrue(cursor.moveToPosition(7));
+        assertEquals(8, cursor.getInt(1));
+    }
+
+    @Test
+    public void moveToPrevious_shouldReturnRowsInReverseMergedOrder() {
+        MergeCursor cursor = createMergeCursor(new int[] { 1, 3 }, new int[] { 2, 4 });
+        cursor.moveToLast();
+
+        assertEquals(4, cursor.getInt(1));
+        assertTrue(cursor.moveToPrevious());
+        assertEquals(3, cursor.getInt(1));
+        assertTrue(cursor.moveToPrevious());
+        assertEquals(2, cursor.getInt(1));
+        assertTrue(cursor.moveToPrevious());
+        assertEquals(1, cursor.getInt(1));
+        assertFalse(cursor.moveToPrevious());
+        assertTrue(cursor.isBeforeFirst());
+    }
+
+    @Test
+    public void moveToNext_afterReadingEarlierRow_shouldContinueMerge() {
+        MergeCursor cursor = createMergeCursor(new int[] { 1, 3, 5 }, new int[] { 2, 4, 6 });
+        cursor.moveToPosition(2);
+        cursor.moveToPosition(0);
+        cursor.moveToPosition(3);
+
+        assertEquals(4, cursor.getInt(1));
+        assertValues(cursor, 5, 6);
+    }
+
+
+    private static MergeCursor createMergeCursor(int[]... values) {
+        Cursor[] cursors = new Cursor[values.length];
+        for (int i = 0; i < values.length; i++) {
+            cursors[i] = createCursor(values[i]);
+        }
+
+        return new MergeCursor(cursors, VALUE_COMPARATOR);
+    }
+
+    private static Cursor createCursor(int... values) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < values.length; i++) {
+            cursor.addRow(new Object[] { i, values[i] });
+        }
+        return cursor;
+    }
+
+    private static void assertValues(Cursor cursor, int... expectedValues) {
+        for (int expectedValue : expectedValues) {
+            assertTrue(cursor.moveToNext());
+            assertEquals(expectedValue, cursor.getInt(1));
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTest;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class AttachmentBlobStoreTest extends K9RobolectricTest {
+    private static final String DATA = "attachment data";
+
+
+    private LocalStore localStore;
+    private AttachmentBlobStore attachmentBlobStore;
+    private File tempDirectory;
+
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowSQLiteConnection.reset();
+
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        Account account = preferences.newAccount();
+
+        localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+        attachmentBlobStore = localStore.getAttachmentBlobStore();
+
+        tempDirectory = RuntimeEnvironment.application.getCacheDir();
+        BinaryTempFileBody.setTempDirectory(tempDirectory);
+    }
+
+    @Test
+    public void computeHash_shouldReturnHexEncodedSha256() throws Exception {
+        File file = createTempFile("abc");
+
+        String hash = AttachmentBlobStore.computeHash(file);
+
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", hash);
+    }
+
+    @Test
+    public void storeBlob_withSameContentTwice_shouldKeepSingleFile() throws Exception {
+        final File firstFile = createTempFile(DATA);
+        final File secondFile = createTempFile(DATA);
+
+        String[] hashes = execute(new DbCallback<String[]>() {
+            @Override
+            public String[] doDbWork(SQLiteDatabase db) throws WrappedException {
+                return new String[] { storeBlob(db, firstFile), storeBlob(db, secondFile) };
+            }
+        });
+
+        assertEquals(hashes[0], hashes[1]);
+        assertFalse(firstFile.exists());
+        assertFalse(secondFile.exists());
+        File blobFile = attachmentBlobStore.getBlobFile(hashes[0]);
+        assertTrue(blobFile.exists());
+        assertEquals(DATA.length(), blobFile.length());
+    }
+
+    @Test
+    public void deleteUnreferencedBlobs_withReferencedBlob_shouldKeepFile() throws Exception {
+        final File file = createTempFile(DATA);
+        String hash = execute(new DbCallback<String>() {
+            @Override
+            public String doDbWork(SQLiteDatabase db) throws WrappedException {
+                String hash = storeBlob(db, file);
+                insertMessagePart(db, hash);
+                return hash;
+            }
+        });
+
+        attachmentBlobStore.deleteUnreferencedBlobs(Collections.singletonList(hash));
+
+        assertTrue(attachmentBlobStore.getBlobFile(hash).exists());
+    }
+
+    @Test
+    public void deleteUnreferencedBlobs_afterLastReferenceWasDeleted_shouldDeleteFile() throws Exception {
+        final File file = createTempFile(DATA);
+        final String hash = execute(new DbCallback<String>() {
+            @Override
+            public String doDbWork(SQLiteDatabase db) throws WrappedException {
+                String hash = storeBlob(db, file);
+                insertMessagePart(db, hash);
+                insertMessagePart(db, hash);
+                return hash;
+            }
+        });
+
+        deleteOneReference(hash);
+        assertTrue(attachmentBlobStore.getBlobFile(hash).exists());
+        deleteOneReference(hash);
+
+        assertFalse(attachmentBlobStore.getBlobFile(hash).exists());
+    }
+
+    @Test
+    public void deleteUnreferencedBlobs_insideTransaction_shouldDeleteFileAfterCommit() throws Exception {
+        final String hash = storeReferencedBlob();
+
+        execute(new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) throws WrappedException {
+                db.delete("message_parts", "blob_hash = ?", new String[] { hash });
+                attachmentBlobStore.deleteUnreferencedBlobs(Collections.singletonList(hash));
+
+                assertTrue(attachmentBlobStore.getBlobFile(hash).exists());
+                return null;
+            }
+        });
+
+        assertFalse(attachmentBlobStore.getBlobFile(hash).exists());
+    }
+
+    @Test
+    public void deleteUnreferencedBlobs_insideRolledBackTransaction_shouldKeepFile() throws Exception {
+        final String hash = storeReferencedBlob();
+
+        try {
+            execute(new DbCallback<Void>() {
+                @Override
+                public Void doDbWork(SQLiteDatabase db) throws WrappedException {
+                    db.delete("message_parts", "blob_hash = ?", new String[] { hash });
+                    attachmentBlobStore.deleteUnreferencedBlobs(Collections.singletonList(hash));
+                    throw new WrappedException(new IOException("rollback"));
+                }
+            });
+            fail("Expected WrappedException");
+        } catch (WrappedException e) {
+            // expected
+        }
+
+        assertTrue(attachmentBlobStore.getBlobFile(hash).exists());
+        attachmentBlobStore.deleteUnreferencedBlobs(Collections.singletonList(hash));
+        assertTrue(attachmentBlobStore.getBlobFile(hash).exists());
+    }
+
+    @Test
+    public void deleteAllUnreferencedBlobs_shouldOnlyDeleteUnreferencedFiles() throws Exception {
+        String referencedHash = storeReferencedBlob();
+        final File file = createTempFile("other data");
+        String unreferencedHash = execute(new DbCallback<String>() {
+            @Override
+            public String doDbWork(SQLiteDatabase db) throws WrappedException {
+                return storeBlob(db, file);
+            }
+        });
+
+        attachmentBlobStore.deleteAllUnreferencedBlobs();
+
+        assertTrue(attachmentBlobStore.getBlobFile(referencedHash).exists());
+        assertFalse(attachmentBlobStore.getBlobFile(unreferencedHash).exists());
+    }
+
+
+    private String storeReferencedBlob() throws Exception {
+        final File file = createTempFile(DATA);
+        return execute(new DbCallback<String>() {
+            @Override
+            public String doDbWork(SQLiteDatabase db) throws WrappedException {
+                String hash = storeBlob(db, file);
+                insertMessagePart(db, hash);
+                return hash;
+            }
+        });
+    }
+
+    private void deleteOneReference(final String hash) throws Exception {
+        execute(new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) throws WrappedException {
+                db.execSQL("DELETE FROM message_parts WHERE id = " +
+                        "(SELECT MIN(id) FROM message_parts WHERE blob_hash = ?)", new Object[] { hash });
+                attachmentBlobStore.deleteUnreferencedBlobs(Collections.singletonList(hash));
+                return null;
+            }
+        });
+    }
+
+    private String storeBlob(SQLiteDatabase db, File file) throws WrappedException {
+        try {
+            return attachmentBlobStore.storeBlob(db, file);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static long insertMessagePart(SQLiteDatabase db, String blobHash) {
+        ContentValues cv = new ContentValues();
+        cv.put("type", 0);
+        cv.put("parent", -1);
+        cv.put("seq", 0);
+        cv.put("data_location", LocalFolder.DataLocation.ON_DISK);
+        cv.put("blob_hash", blobHash);
+        return db.insert("message_parts", null, cv);
+    }
+
+    private <T> T execute(DbCallback<T> callback) throws Exception {
+        return localStore.getDatabase().execute(true, callback);
+    }
+
+    private File createTempFile(String content) throws IOException {
+        File file = File.createTempFile("blob", null, tempDirectory);
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,48 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class LatencyHistogramTest {
+    private LatencyHistogram histogram = new LatencyHistogram("test");
+
+
+    @Test
+    public void getBucketIndex_shouldUsePowerOfTwoBuckets() {
+        assertEquals(0, LatencyHistogram.getBucketIndex(0));
+        assertEquals(1, LatencyHistogram.getBucketIndex(1));
+        assertEquals(2, LatencyHistogram.getBucketIndex(2));
+        assertEquals(2, LatencyHistogram.getBucketIndex(3));
+        assertEquals(3, LatencyHistogram.getBucketIndex(4));
+        assertEquals(10, LatencyHistogram.getBucketIndex(1023));
+    }
+
+    @Test
+    public void getBucketIndex_withVeryLongDuration_shouldReturnLastBucket() {
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.getBucketIndex(TimeUnit.HOURS.toMillis(1)));
+    }
+
+    @Test
+    public void record_shouldCountDurationInMatchingBucket() {
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(300));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(6));
+
+        assertEquals(3, histogram.getCount());
+        assertEquals(1, histogram.getBucketCount(0));
+        assertEquals(2, histogram.getBucketCount(3));
+    }
+
+    @Test
+    public void toString_shouldOnlyListNonEmptyBuckets() {
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(300));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+
+        assertEquals("test: <1ms=1 <8ms=1", histogram.toString());
+    }
+}
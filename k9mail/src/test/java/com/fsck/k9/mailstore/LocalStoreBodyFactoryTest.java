@@ -0,0 +1,88 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import com.fsck.k9.mail.internet.BinaryTempFileMessageBody;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class LocalStoreBodyFactoryTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File tempDirectory;
+    private LocalStoreBodyFactory bodyFactory = new LocalStoreBodyFactory();
+
+
+    @Before
+    public void setUp() throws Exception {
+        tempDirectory = temporaryFolder.newFolder();
+        BinaryTempFileBody.setTempDirectory(tempDirectory);
+    }
+
+    @Test
+    public void createBody_withBodySmallEnoughForDatabase_shouldNotCreateFile() throws Exception {
+        byte[] data = createData(LocalFolder.MAX_BODY_SIZE_FOR_DATABASE);
+
+        Body body = bodyFactory.createBody("7bit", "text/plain", new ByteArrayInputStream(data));
+
+        assertTrue(body instanceof DeferredFileBody);
+        assertEquals(data.length, ((DeferredFileBody) body).getSize());
+        assertEquals(0, tempDirectory.list().length);
+        assertArrayEquals(data, readBody(body));
+    }
+
+    @Test
+    public void createBody_withBodyTooLargeForDatabase_shouldStreamToFile() throws Exception {
+        byte[] data = createData(LocalFolder.MAX_BODY_SIZE_FOR_DATABASE + 1);
+
+        Body body = bodyFactory.createBody("base64", "application/octet-stream", new ByteArrayInputStream(data));
+
+        File file = ((DeferredFileBody) body).getFile();
+        assertEquals(tempDirectory, file.getParentFile());
+        assertEquals(data.length, file.length());
+        assertArrayEquals(data, readBody(body));
+    }
+
+    @Test
+    public void createBody_withContentTransferEncodingParameters_shouldUseEncodingValue() throws Exception {
+        Body body = bodyFactory.createBody("quoted-printable; foo=bar", "text/plain",
+                new ByteArrayInputStream(createData(10)));
+
+        assertEquals("quoted-printable", ((DeferredFileBody) body).getEncoding());
+    }
+
+    @Test
+    public void createBody_withMessage_shouldReturnBinaryTempFileMessageBody() throws Exception {
+        Body body = bodyFactory.createBody("7bit", "message/rfc822", new ByteArrayInputStream(createData(10)));
+
+        assertTrue(body instanceof BinaryTempFileMessageBody);
+    }
+
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        return data;
+    }
+
+    private static byte[] readBody(Body body) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        body.writeTo(output);
+        return output.toByteArray();
+    }
+}
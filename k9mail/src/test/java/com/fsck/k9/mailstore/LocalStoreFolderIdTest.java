@@ -0,0 +1,100 @@
+package com.fsck.k9.mailstore;
+
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTest;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.MessagingException;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+
+public class LocalStoreFolderIdTest extends K9RobolectricTest {
+    private LocalStore localStore;
+
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowSQLiteConnection.reset();
+
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        Account account = preferences.newAccount();
+
+        localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void getFolderId_shouldReturnDatabaseIdOfFolder() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+
+        long folderId = localStore.getFolderId("Folder");
+
+        assertEquals(folder.getDatabaseId(), folderId);
+    }
+
+    @Test
+    public void getFolderId_calledTwice_shouldReturnSameId() throws Exception {
+        createFolder("Folder");
+
+        long firstFolderId = localStore.getFolderId("Folder");
+        long secondFolderId = localStore.getFolderId("Folder");
+
+        assertEquals(firstFolderId, secondFolderId);
+    }
+
+    @Test(expected = MessagingException.class)
+    public void getFolderId_withUnknownFolder_shouldThrow() throws Exception {
+        localStore.getFolderId("Unknown");
+    }
+
+    @Test(expected = MessagingException.class)
+    public void getFolderId_afterFolderWasDeleted_shouldThrow() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        localStore.getFolderId("Folder");
+
+        folder.delete(false);
+
+        localStore.getFolderId("Folder");
+    }
+
+    @Test
+    public void getFolderId_afterFolderWasRecreated_shouldReturnNewId() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        long oldFolderId = localStore.getFolderId("Folder");
+        folder.delete(false);
+
+        LocalFolder newFolder = createFolder("Folder");
+        long newFolderId = localStore.getFolderId("Folder");
+
+        assertNotEquals(oldFolderId, newFolderId);
+        assertEquals(newFolder.getDatabaseId(), newFolderId);
+    }
+
+    @Test
+    public void open_afterFolderWasRecreated_shouldOpenNewFolder() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        folder.delete(false);
+        LocalFolder newFolder = createFolder("Folder");
+
+        LocalFolder openedFolder = localStore.getFolder("Folder");
+        openedFolder.open(Folder.OPEN_MODE_RO);
+
+        assertEquals(newFolder.getDatabaseId(), openedFolder.getDatabaseId());
+    }
+
+
+    private LocalFolder createFolder(String serverId) throws MessagingException {
+        LocalFolder folder = localStore.getFolder(serverId);
+        folder.create(FolderType.HOLDS_MESSAGES);
+        folder.open(Folder.OPEN_MODE_RO);
+        return folder;
+    }
+}
@@ -0,0 +1,135 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.AccountStats;
+import com.fsck.k9.K9RobolectricTest;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.message.extractors.MessageFulltextCreator;
+import com.fsck.k9.search.LocalSearch;
+import com.fsck.k9.search.SearchSpecification.Attribute;
+import com.fsck.k9.search.SearchSpecification.SearchField;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+public class LocalStoreSearchTest extends K9RobolectricTest {
+    private LocalStore localStore;
+    private MessageFulltextIndexer indexer;
+    private long folderId;
+
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowSQLiteConnection.reset();
+
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        Account account = preferences.newAccount();
+
+        localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+        MessageFulltextCreator fulltextCreator = mock(MessageFulltextCreator.class);
+        when(fulltextCreator.createFulltext(any(Message.class))).thenReturn("text");
+        indexer = new MessageFulltextIndexer(localStore, fulltextCreator);
+
+        LocalFolder folder = localStore.getFolder("INBOX");
+        folder.create(FolderType.HOLDS_MESSAGES);
+        folder.open(Folder.OPEN_MODE_RO);
+        folderId = folder.getDatabaseId();
+    }
+
+    @Test
+    public void searchForMessages_withSubjectContains_shouldFindIndexedAndPendingMessages() throws Exception {
+        insertMessage("indexed", "Quarterly report");
+        insertMessage("other", "Lunch");
+        indexer.indexPendingMessages();
+        insertMessage("pending", "Quarterly planning");
+
+        List<String> uids = searchForUids(SearchField.SUBJECT, "quarterly", Attribute.CONTAINS);
+
+        assertEquals(Arrays.asList("indexed", "pending"), uids);
+    }
+
+    @Test
+    public void searchForMessages_withSubjectNotContains_shouldExcludePendingMatches() throws Exception {
+        insertMessage("indexed", "Quarterly report");
+        insertMessage("other", "Lunch");
+        indexer.indexPendingMessages();
+        insertMessage("pending", "Quarterly planning");
+
+        List<String> uids = searchForUids(SearchField.SUBJECT, "quarterly", Attribute.NOT_CONTAINS);
+
+        assertEquals(Collections.singletonList("other"), uids);
+    }
+
+    @Test
+    public void getAccountStats_withSubjectContains_shouldCountMatchingMessages() throws Exception {
+        insertMessage("indexed", "Quarterly report");
+        insertMessage("other", "Lunch");
+        indexer.indexPendingMessages();
+        insertMessage("pending", "Quarterly planning");
+        LocalSearch search = new LocalSearch();
+        search.and(SearchField.SUBJECT, "quarterly", Attribute.CONTAINS);
+
+        AccountStats stats = localStore.getAccountStats(search);
+
+        assertEquals(2, stats.unreadMessageCount);
+    }
+
+
+    private List<String> searchForUids(SearchField field, String value, Attribute attribute)
+            throws MessagingException {
+        LocalSearch search = new LocalSearch();
+        search.and(field, value, attribute);
+
+        List<String> uids = new ArrayList<>();
+        for (LocalMessage message : localStore.searchForMessages(null, search)) {
+            uids.add(message.getUid());
+        }
+        Collections.sort(uids);
+
+        return uids;
+    }
+
+    private void insertMessage(final String uid, final String subject) throws MessagingException {
+        localStore.getDatabase().execute(true, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                ContentValues cv = new ContentValues();
+                cv.put("folder_id", folderId);
+                cv.put("uid", uid);
+                cv.put("subject", subject);
+                cv.put("read", 0);
+                cv.put("empty", 0);
+                cv.put("deleted", 0);
+                long messageId = db.insert("messages", null, cv);
+
+                cv.clear();
+                cv.put("message_id", messageId);
+                db.insert("messages_fulltext_pending", null, cv);
+
+                return null;
+            }
+        });
+    }
+}
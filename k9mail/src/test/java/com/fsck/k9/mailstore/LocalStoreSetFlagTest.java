@@ -0,0 +1,173 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTest;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.Flag;
+import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class LocalStoreSetFlagTest extends K9RobolectricTest {
+    private LocalStore localStore;
+
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowSQLiteConnection.reset();
+
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        Account account = preferences.newAccount();
+
+        localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void setFlagAndGetFoldersAndUids_shouldUpdateMessagesAndGroupUidsByFolder() throws Exception {
+        long inboxId = createFolder("INBOX");
+        long archiveId = createFolder("Archive");
+        long first = insertMessage(inboxId, "uid1", 0);
+        long second = insertMessage(inboxId, "uid2", 0);
+        long third = insertMessage(archiveId, "uid3", 0);
+        long untouched = insertMessage(archiveId, "uid4", 0);
+
+        Map<String, List<String>> folderMap = localStore.setFlagAndGetFoldersAndUids(
+                Arrays.asList(first, second, third), false, Flag.SEEN, true);
+
+        assertEquals(2, folderMap.size());
+        assertEquals(Arrays.asList("uid1", "uid2"), folderMap.get("INBOX"));
+        assertEquals(Collections.singletonList("uid3"), folderMap.get("Archive"));
+        assertEquals(1, getReadState(first));
+        assertEquals(1, getReadState(second));
+        assertEquals(1, getReadState(third));
+        assertEquals(0, getReadState(untouched));
+    }
+
+    @Test
+    public void setFlagAndGetFoldersAndUids_withThreadedList_shouldUpdateAllMessagesInThreads() throws Exception {
+        long inboxId = createFolder("INBOX");
+        long root = insertMessage(inboxId, "uid1", 1);
+        long reply = insertMessage(inboxId, "uid2", 1);
+        long rootThreadId = insertThread(root, null);
+        insertThread(reply, rootThreadId);
+
+        Map<String, List<String>> folderMap = localStore.setFlagAndGetFoldersAndUids(
+                Collections.singletonList(rootThreadId), true, Flag.SEEN, false);
+
+        assertEquals(2, folderMap.get("INBOX").size());
+        assertTrue(folderMap.get("INBOX").containsAll(Arrays.asList("uid1", "uid2")));
+        assertEquals(0, getReadState(root));
+        assertEquals(0, getReadState(reply));
+    }
+
+    @Test
+    public void setFlagAndGetFoldersAndUids_withManyMessages_shouldUpdateAllOfThem() throws Exception {
+        long inboxId = createFolder("INBOX");
+        Long[] messageIds = new Long[2000];
+        for (int i = 0; i < messageIds.length; i++) {
+            messageIds[i] = insertMessage(inboxId, "uid" + i, 0);
+        }
+
+        Map<String, List<String>> folderMap = localStore.setFlagAndGetFoldersAndUids(
+                Arrays.asList(messageIds), false, Flag.SEEN, true);
+
+        assertEquals(messageIds.length, folderMap.get("INBOX").size());
+        assertEquals(messageIds.length, countReadMessages());
+    }
+
+    @Test
+    public void markAllMessagesAsRead_shouldOnlyUpdateMessagesInFolder() throws Exception {
+        long inboxId = createFolder("INBOX");
+        long archiveId = createFolder("Archive");
+        long first = insertMessage(inboxId, "uid1", 0);
+        long second = insertMessage(inboxId, "uid2", 0);
+        long other = insertMessage(archiveId, "uid3", 0);
+
+        localStore.getFolder("INBOX").markAllMessagesAsRead();
+
+        assertEquals(1, getReadState(first));
+        assertEquals(1, getReadState(second));
+        assertEquals(0, getReadState(other));
+    }
+
+
+    private long createFolder(String serverId) throws MessagingException {
+        LocalFolder folder = localStore.getFolder(serverId);
+        folder.create(FolderType.HOLDS_MESSAGES);
+        folder.open(Folder.OPEN_MODE_RO);
+        return folder.getDatabaseId();
+    }
+
+    private long insertMessage(final long folderId, final String uid, final int read) throws MessagingException {
+        return localStore.getDatabase().execute(false, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(SQLiteDatabase db) {
+                ContentValues cv = new ContentValues();
+                cv.put("folder_id", folderId);
+                cv.put("uid", uid);
+                cv.put("read", read);
+                cv.put("empty", 0);
+                cv.put("deleted", 0);
+                return db.insert("messages", null, cv);
+            }
+        });
+    }
+
+    private long insertThread(final long messageId, final Long rootThreadId) throws MessagingException {
+        return localStore.getDatabase().execute(false, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(SQLiteDatabase db) {
+                ContentValues cv = new ContentValues();
+                cv.put("message_id", messageId);
+                if (rootThreadId != null) {
+                    cv.put("root", rootThreadId);
+                    cv.put("parent", rootThreadId);
+                }
+                return db.insert("threads", null, cv);
+            }
+        });
+    }
+
+    private int getReadState(final long messageId) throws MessagingException {
+        return queryInt("SELECT read FROM messages WHERE id = " + messageId);
+    }
+
+    private int countReadMessages() throws MessagingException {
+        return queryInt("SELECT COUNT(*) FROM messages WHERE read = 1");
+    }
+
+    private int queryInt(final String sql) throws MessagingException {
+        return localStore.getDatabase().execute(false, new DbCallback<Integer>() {
+            @Override
+            public Integer doDbWork(SQLiteDatabase db) {
+                Cursor cursor = db.rawQuery(sql, null);
+                try {
+                    cursor.moveToFirst();
+                    return cursor.getInt(0);
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,229 @@
+package com.fsck.k9.mailstore;
+
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTest;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.message.extractors.MessageFulltextCreator;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+public class MessageFulltextIndexerTest extends K9RobolectricTest {
+    private LocalStore localStore;
+    private MessageFulltextCreator fulltextCreator;
+    private MessageFulltextIndexer indexer;
+    private long folderId;
+
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowSQLiteConnection.reset();
+
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        Account account = preferences.newAccount();
+
+        localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+        fulltextCreator = mock(MessageFulltextCreator.class);
+        when(fulltextCreator.createFulltext(any(Message.class))).thenReturn("text");
+        indexer = new MessageFulltextIndexer(localStore, fulltextCreator);
+
+        LocalFolder folder = localStore.getFolder("INBOX");
+        folder.create(FolderType.HOLDS_MESSAGES);
+        folder.open(Folder.OPEN_MODE_RO);
+        folderId = folder.getDatabaseId();
+    }
+
+    @Test
+    public void indexPendingMessages_shouldIndexSubjectAndFulltext() throws Exception {
+        long messageId = insertPendingMessage("uid1", "Subject");
+
+        int count = indexer.indexPendingMessages();
+
+        assertEquals(1, count);
+        assertEquals("Subject", queryString("SELECT subject FROM messages_fulltext WHERE docid = " + messageId));
+        assertEquals("text", queryString("SELECT fulltext FROM messages_fulltext WHERE docid = " + messageId));
+        assertEquals(0, countPendingMessages());
+    }
+
+    @Test
+    public void indexPendingMessages_withMoreMessagesThanBatchSize_shouldIndexAllOfThem() throws Exception {
+        for (int i = 0; i < 120; i++) {
+            insertPendingMessage("uid" + i, "Subject " + i);
+        }
+
+        int count = indexer.indexPendingMessages();
+
+        assertEquals(120, count);
+        assertEquals(120, queryInt("SELECT COUNT(*) FROM messages_fulltext"));
+        assertEquals(0, countPendingMessages());
+        verify(fulltextCreator, times(120)).createFulltext(any(Message.class));
+    }
+
+    @Test
+    public void indexPendingMessages_withExtractionFailure_shouldIndexHeadersOnly() throws Exception {
+        long messageId = insertPendingMessage("uid1", "Subject");
+        when(fulltextCreator.createFulltext(any(Message.class))).thenThrow(new RuntimeException("broken"));
+
+        indexer.indexPendingMessages();
+
+        assertEquals("Subject", queryString("SELECT subject FROM messages_fulltext WHERE docid = " + messageId));
+        assertNull(queryString("SELECT fulltext FROM messages_fulltext WHERE docid = " + messageId));
+        assertEquals(0, countPendingMessages());
+    }
+
+    @Test
+    public void indexPendingMessages_withMessageDeletedWhileIndexing_shouldNotWriteIndexEntry() throws Exception {
+        final long messageId = insertPendingMessage("uid1", "Subject");
+        when(fulltextCreator.createFulltext(any(Message.class))).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                execute("DELETE FROM messages WHERE id = " + messageId);
+                return "text";
+            }
+        });
+
+        indexer.indexPendingMessages();
+
+        assertEquals(0, queryInt("SELECT COUNT(*) FROM messages_fulltext WHERE docid = " + messageId));
+        assertEquals(0, countPendingMessages());
+    }
+
+    @Test
+    public void indexPendingMessages_withMessageSavedAgainWhileIndexing_shouldIndexNewVersion() throws Exception {
+        final long messageId = insertPendingMessage("uid1", "Old subject");
+        when(fulltextCreator.createFulltext(any(Message.class))).thenAnswer(new Answer<String>() {
+            boolean firstCall = true;
+
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                if (firstCall) {
+                    firstCall = false;
+                    execute("UPDATE messages SET subject = 'New subject' WHERE id = " + messageId);
+                    execute("REPLACE INTO messages_fulltext_pending (message_id) VALUES (" + messageId + ")");
+                }
+                return "text";
+            }
+        });
+
+        int count = indexer.indexPendingMessages();
+
+        assertEquals(2, count);
+        assertEquals("New subject",
+                queryString("SELECT subject FROM messages_fulltext WHERE docid = " + messageId));
+        assertEquals(0, countPendingMessages());
+    }
+
+    @Test
+    public void queueAllMessages_shouldReindexAllMessagesAndKeepExistingEntries() throws Exception {
+        long messageId = insertPendingMessage("uid1", "Subject");
+        long otherMessageId = insertPendingMessage("uid2", "Other subject");
+        indexer.indexPendingMessages();
+        execute("UPDATE messages SET subject = 'New subject' WHERE id = " + messageId);
+
+        indexer.queueAllMessages();
+
+        assertEquals(2, countPendingMessages());
+        assertEquals("Subject", queryString("SELECT subject FROM messages_fulltext WHERE docid = " + messageId));
+
+        int count = indexer.indexPendingMessages();
+
+        assertEquals(2, count);
+        assertEquals("New subject", queryString("SELECT subject FROM messages_fulltext WHERE docid = " + messageId));
+        assertEquals("Other subject",
+                queryString("SELECT subject FROM messages_fulltext WHERE docid = " + otherMessageId));
+        assertEquals(0, countPendingMessages());
+    }
+
+    @Test
+    public void queueAllMessages_shouldSkipEmptyAndDeletedMessages() throws Exception {
+        long messageId = insertPendingMessage("uid1", "Subject");
+        long deletedMessageId = insertPendingMessage("uid2", "Deleted");
+        long emptyMessageId = insertPendingMessage("uid3", "Empty");
+        indexer.indexPendingMessages();
+        execute("UPDATE messages SET deleted = 1 WHERE id = " + deletedMessageId);
+        execute("UPDATE messages SET empty = 1 WHERE id = " + emptyMessageId);
+
+        indexer.queueAllMessages();
+
+        assertEquals(1, countPendingMessages());
+        assertEquals(1, queryInt("SELECT COUNT(*) FROM messages_fulltext_pending WHERE message_id = " + messageId));
+    }
+
+
+    private long insertPendingMessage(final String uid, final String subject) throws MessagingException {
+        return localStore.getDatabase().execute(true, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(SQLiteDatabase db) {
+                ContentValues cv = new ContentValues();
+                cv.put("folder_id", folderId);
+                cv.put("uid", uid);
+                cv.put("subject", subject);
+                cv.put("empty", 0);
+                cv.put("deleted", 0);
+                long messageId = db.insert("messages", null, cv);
+
+                cv.clear();
+                cv.put("message_id", messageId);
+                db.insert("messages_fulltext_pending", null, cv);
+
+                return messageId;
+            }
+        });
+    }
+
+    private void execute(final String sql) throws MessagingException {
+        localStore.getDatabase().execute(true, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) {
+                db.execSQL(sql);
+                return null;
+            }
+        });
+    }
+
+    private int countPendingMessages() throws MessagingException {
+        return queryInt("SELECT COUNT(*) FROM messages_fulltext_pending");
+    }
+
+    private int queryInt(String sql) throws MessagingException {
+        return Integer.parseInt(queryString(sql));
+    }
+
+    private String queryString(final String sql) throws MessagingException {
+        return localStore.getDatabase().execute(false, new DbCallback<String>() {
+            @Override
+            public String doDbWork(SQLiteDatabase db) {
+                Cursor cursor = db.rawQuery(sql, null);
+                try {
+                    cursor.moveToFirst();
+                    return cursor.getString(0);
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+}
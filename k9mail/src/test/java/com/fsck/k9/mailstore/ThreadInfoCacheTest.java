@@ -0,0 +1,69 @@
+package com.fsck.k9.mailstore;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+
+public class ThreadInfoCacheTest {
+    private ThreadInfoCache cache = new ThreadInfoCache();
+
+
+    @Test
+    public void get_shouldReturnThreadInfoForMessageId() {
+        ThreadInfo threadInfo = createThreadInfo(1, "<1@example.com>");
+        cache.put(threadInfo);
+
+        ThreadInfo result = cache.get("<1@example.com>");
+
+        assertSame(threadInfo, result);
+    }
+
+    @Test
+    public void get_withUnknownMessageId_shouldReturnNull() {
+        assertNull(cache.get("<1@example.com>"));
+    }
+
+    @Test
+    public void removeByMessageDatabaseId_shouldRemoveEntry() {
+        cache.put(createThreadInfo(1, "<1@example.com>"));
+        cache.put(createThreadInfo(2, "<2@example.com>"));
+
+        cache.removeByMessageDatabaseId(1);
+
+        assertNull(cache.get("<1@example.com>"));
+        assertNotNull(cache.get("<2@example.com>"));
+    }
+
+    @Test
+    public void put_withMoreThanMaxSizeEntries_shouldEvictLeastRecentlyUsedEntry() {
+        for (int i = 0; i < ThreadInfoCache.MAX_SIZE; i++) {
+            cache.put(createThreadInfo(i, "<" + i + "@example.com>"));
+        }
+        cache.get("<0@example.com>");
+
+        cache.put(createThreadInfo(ThreadInfoCache.MAX_SIZE, "<new@example.com>"));
+
+        assertEquals(ThreadInfoCache.MAX_SIZE, cache.size());
+        assertNotNull(cache.get("<0@example.com>"));
+        assertNull(cache.get("<1@example.com>"));
+    }
+
+    @Test
+    public void clear_shouldRemoveAllEntries() {
+        cache.put(createThreadInfo(1, "<1@example.com>"));
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+    }
+
+
+    private static ThreadInfo createThreadInfo(long msgId, String messageId) {
+        return new ThreadInfo(msgId + 100, msgId, messageId, -1, -1);
+    }
+}
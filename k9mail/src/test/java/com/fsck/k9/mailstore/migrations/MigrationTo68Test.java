@@ -0,0 +1,183 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.RobolectricTest;
+import com.fsck.k9.mailstore.StorageManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+public class MigrationTo68Test extends RobolectricTest {
+    private static final int DATA_LOCATION_MISSING = 0;
+    private static final int DATA_LOCATION_ON_DISK = 2;
+
+
+    private MigrationsHelper migrationsHelper;
+    private File attachmentDirectory;
+    private SQLiteDatabase database;
+
+
+    @Before
+    public void setUp() throws Exception {
+        StorageManager storageManager = StorageManager.getInstance(RuntimeEnvironment.application);
+        Account account = mock(Account.class);
+        when(account.getUuid()).thenReturn("001");
+        when(account.getLocalStorageProviderId()).thenReturn(storageManager.getDefaultProviderId());
+
+        migrationsHelper = mock(MigrationsHelper.class);
+        when(migrationsHelper.getContext()).thenReturn(RuntimeEnvironment.application);
+        when(migrationsHelper.getAccount()).thenReturn(account);
+
+        attachmentDirectory = storageManager.getAttachmentDirectory("001", storageManager.getDefaultProviderId());
+        assertTrue(attachmentDirectory.isDirectory() || attachmentDirectory.mkdirs());
+
+        database = createV67Database();
+    }
+
+    @Test
+    public void createAttachmentBlobStore_withDuplicateFiles_shouldKeepSingleBlob() throws Exception {
+        insertPartWithFile(1, "attachment");
+        insertPartWithFile(2, "attachment");
+        insertPartWithFile(3, "other attachment");
+
+        migrate();
+
+        String hash = getBlobHash(1);
+        assertEquals(hash, getBlobHash(2));
+        assertNotEquals(hash, getBlobHash(3));
+        assertEquals(2, getRefCount(hash));
+        assertTrue(new File(attachmentDirectory, hash).exists());
+        assertTrue(new File(attachmentDirectory, getBlobHash(3)).exists());
+        assertFalse(new File(attachmentDirectory, "1").exists());
+        assertFalse(new File(attachmentDirectory, "2").exists());
+        assertFalse(new File(attachmentDirectory, "3").exists());
+        assertFalse(hasPendingMovesTable());
+    }
+
+    @Test
+    public void createAttachmentBlobStore_withMissingFile_shouldMarkPartAsMissing() throws Exception {
+        insertPart(1);
+
+        migrate();
+
+        assertNull(getBlobHash(1));
+        assertEquals(DATA_LOCATION_MISSING, getDataLocation(1));
+    }
+
+    @Test
+    public void createAttachmentBlobStore_withRolledBackTransaction_shouldKeepFilesForNextAttempt() throws Exception {
+        insertPartWithFile(1, "attachment");
+        insertPartWithFile(2, "attachment");
+        database.beginTransaction();
+        try {
+            MigrationTo68.createAttachmentBlobStore(database, migrationsHelper);
+        } finally {
+            database.endTransaction();
+        }
+
+        assertTrue(new File(attachmentDirectory, "1").exists());
+        assertTrue(new File(attachmentDirectory, "2").exists());
+
+        migrate();
+
+        assertEquals(getBlobHash(1), getBlobHash(2));
+        assertTrue(new File(attachmentDirectory, getBlobHash(1)).exists());
+    }
+
+    @Test
+    public void moveAttachmentFiles_afterInterruptedRun_shouldFinishMovingFiles() throws Exception {
+        insertPartWithFile(1, "attachment");
+        insertPartWithFile(2, "attachment");
+        MigrationTo68.createAttachmentBlobStore(database, migrationsHelper);
+        String hash = getBlobHash(1);
+        assertTrue(new File(attachmentDirectory, "1").renameTo(new File(attachmentDirectory, hash)));
+
+        MigrationTo68.moveAttachmentFiles(database, migrationsHelper);
+
+        assertTrue(new File(attachmentDirectory, hash).exists());
+        assertFalse(new File(attachmentDirectory, "1").exists());
+        assertFalse(new File(attachmentDirectory, "2").exists());
+        assertFalse(hasPendingMovesTable());
+    }
+
+
+    private void migrate() {
+        database.beginTransaction();
+        try {
+            MigrationTo68.createAttachmentBlobStore(database, migrationsHelper);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        MigrationTo68.moveAttachmentFiles(database, migrationsHelper);
+    }
+
+    private SQLiteDatabase createV67Database() {
+        SQLiteDatabase database = SQLiteDatabase.create(null);
+        database.execSQL("CREATE TABLE message_parts (" +
+                "id INTEGER PRIMARY KEY, " +
+                "data_location INTEGER NOT NULL" +
+                ")");
+        return database;
+    }
+
+    private void insertPart(long partId) {
+        database.execSQL("INSERT INTO message_parts (id, data_location) VALUES (?, ?)",
+                new Object[] { partId, DATA_LOCATION_ON_DISK });
+    }
+
+    private void insertPartWithFile(long partId, String content) throws IOException {
+        insertPart(partId);
+
+        FileOutputStream outputStream = new FileOutputStream(new File(attachmentDirectory, Long.toString(partId)));
+        try {
+            outputStream.write(content.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private String getBlobHash(long partId) {
+        return DatabaseUtils.stringForQuery(database, "SELECT blob_hash FROM message_parts WHERE id = ?",
+                new String[] { Long.toString(partId) });
+    }
+
+    private int getDataLocation(long partId) {
+        return (int) DatabaseUtils.longForQuery(database, "SELECT data_location FROM message_parts WHERE id = ?",
+                new String[] { Long.toString(partId) });
+    }
+
+    private long getRefCount(String hash) {
+        return DatabaseUtils.longForQuery(database, "SELECT ref_count FROM attachment_blobs WHERE hash = ?",
+                new String[] { hash });
+    }
+
+    private boolean hasPendingMovesTable() {
+        Cursor cursor = database.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[] { "attachment_blob_moves" });
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+}
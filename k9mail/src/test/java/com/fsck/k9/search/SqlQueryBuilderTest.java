@@ -0,0 +1,116 @@
+package com.fsck.k9.search;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.search.SearchSpecification.Attribute;
+import com.fsck.k9.search.SearchSpecification.SearchCondition;
+import com.fsck.k9.search.SearchSpecification.SearchField;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+
+public class SqlQueryBuilderTest {
+    private final Account account = mock(Account.class);
+
+
+    @Test
+    public void buildWhereClause_withSubjectContains_shouldUseFulltextIndex() throws Exception {
+        SearchCondition condition = new SearchCondition(SearchField.SUBJECT, Attribute.CONTAINS, "Meeting notes");
+        StringBuilder query = new StringBuilder();
+        List<String> selectionArgs = new ArrayList<>();
+
+        SqlQueryBuilder.buildWhereClause(account, new ConditionsTreeNode(condition), query, selectionArgs);
+
+        assertEquals("((m.id NOT IN (SELECT message_id FROM messages_fulltext_pending) AND " +
+                "m.id IN (SELECT docid FROM messages_fulltext WHERE messages_fulltext MATCH ?)) OR " +
+                "(m.id IN (SELECT message_id FROM messages_fulltext_pending) AND subject LIKE ?))",
+                query.toString());
+        assertEquals(Arrays.asList("subject:\"Meeting notes*\"", "%Meeting notes%"), selectionArgs);
+    }
+
+    @Test
+    public void buildWhereClause_withSenderNotContains_shouldExcludeFulltextMatches() throws Exception {
+        SearchCondition condition = new SearchCondition(SearchField.SENDER, Attribute.NOT_CONTAINS, "alice");
+        StringBuilder query = new StringBuilder();
+        List<String> selectionArgs = new ArrayList<>();
+
+        SqlQueryBuilder.buildWhereClause(account, new ConditionsTreeNode(condition), query, selectionArgs);
+
+        assertEquals("((m.id NOT IN (SELECT message_id FROM messages_fulltext_pending) AND " +
+                "m.id NOT IN (SELECT docid FROM messages_fulltext WHERE messages_fulltext MATCH ?)) OR " +
+                "(m.id IN (SELECT message_id FROM messages_fulltext_pending) AND sender_list NOT LIKE ?))",
+                query.toString());
+        assertEquals(Arrays.asList("sender_list:\"alice*\"", "%alice%"), selectionArgs);
+    }
+
+    @Test
+    public void buildWhereClause_withMessagesTableName_shouldQualifyMessageId() throws Exception {
+        SearchCondition condition = new SearchCondition(SearchField.TO, Attribute.CONTAINS, "bob");
+        StringBuilder query = new StringBuilder();
+        List<String> selectionArgs = new ArrayList<>();
+
+        SqlQueryBuilder.buildWhereClause(account, new ConditionsTreeNode(condition), "messages", query,
+                selectionArgs);
+
+        assertEquals("((messages.id NOT IN (SELECT message_id FROM messages_fulltext_pending) AND " +
+                "messages.id IN (SELECT docid FROM messages_fulltext WHERE messages_fulltext MATCH ?)) OR " +
+                "(messages.id IN (SELECT message_id FROM messages_fulltext_pending) AND to_list LIKE ?))",
+                query.toString());
+    }
+
+    @Test
+    public void buildWhereClause_withSubjectEquals_shouldUseLike() throws Exception {
+        SearchCondition condition = new SearchCondition(SearchField.SUBJECT, Attribute.EQUALS, "Hello");
+        StringBuilder query = new StringBuilder();
+        List<String> selectionArgs = new ArrayList<>();
+
+        SqlQueryBuilder.buildWhereClause(account, new ConditionsTreeNode(condition), query, selectionArgs);
+
+        assertEquals("subject LIKE ?", query.toString());
+        assertEquals(Collections.singletonList("Hello"), selectionArgs);
+    }
+
+    @Test
+    public void buildFulltextQuery_withEmailAddress_shouldCreatePhraseQuery() throws Exception {
+        SearchCondition condition = new SearchCondition(SearchField.TO, Attribute.CONTAINS, "bob@example.org");
+
+        String result = SqlQueryBuilder.buildFulltextQuery(condition);
+
+        assertEquals("to_list:\"bob example org*\"", result);
+    }
+
+    @Test
+    public void buildFulltextQuery_withQuotesInValue_shouldStripThem() throws Exception {
+        SearchCondition condition = new SearchCondition(SearchField.CC, Attribute.CONTAINS, "\"quoted\" OR x");
+
+        String result = SqlQueryBuilder.buildFulltextQuery(condition);
+
+        assertEquals("cc_list:\"quoted OR x*\"", result);
+    }
+
+    @Test
+    public void buildFulltextQuery_withoutWords_shouldReturnNull() throws Exception {
+        SearchCondition condition = new SearchCondition(SearchField.SUBJECT, Attribute.CONTAINS, "!?");
+
+        String result = SqlQueryBuilder.buildFulltextQuery(condition);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void buildFulltextQuery_withFieldNotInIndex_shouldReturnNull() throws Exception {
+        SearchCondition condition = new SearchCondition(SearchField.UID, Attribute.CONTAINS, "123");
+
+        String result = SqlQueryBuilder.buildFulltextQuery(condition);
+
+        assertNull(result);
+    }
+}